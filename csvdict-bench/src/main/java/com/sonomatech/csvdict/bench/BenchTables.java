@@ -0,0 +1,166 @@
+/*
+Copyright (c) 2012, Sonoma Technology, Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without 
+modification, are permitted provided that the following conditions 
+are met:
+
+    * Redistributions of source code must retain the above copyright 
+      notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above copyright 
+      notice, this list of conditions and the following disclaimer in 
+      the documentation and/or other materials provided with the 
+      distribution.
+
+    * Neither the name of Sonoma Technology, Inc. nor the names of 
+      its contributors may be used to endorse or promote products 
+      derived from this software without specific prior written 
+      permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS 
+FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE 
+COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR 
+BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF 
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF 
+THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF 
+SUCH DAMAGE. 
+*/
+
+
+
+package com.sonomatech.csvdict.bench;
+
+import com.sonomatech.csvdict.CSVDict;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Random;
+
+
+
+/**
+ * The tables the benchmarks read. Every table is keyed on an int in its
+ * first column, so the same files serve CSVDict and IntKeyCSVDict:
+ * <PRE>
+ *      species  species.csv from the tests, 1,788 rows of 20 columns
+ *      wide     2,000 rows of 200 columns
+ *      tall     500,000 rows of 6 columns
+ * </PRE>
+ * The synthetic tables are generated from a fixed seed, so every run reads
+ * the same cells.
+ */
+final class BenchTables
+{
+    private BenchTables()
+    {
+    }
+
+
+
+    /**
+     * Writes the named table to a CSV file.
+     *
+     * @param name species, wide or tall
+     * @param dir the directory to write the file to
+     * @return the file, named after the table
+     */
+    static File write(String name, File dir)
+        throws IOException
+    {
+        File csv = new File(dir, name + ".csv");
+        if (name.equals("species")) {
+            InputStream is = BenchTables.class.getClassLoader().getResourceAsStream("species.csv");
+            try {
+                Files.copy(is, csv.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                is.close();
+            }
+        } else if (name.equals("wide"))
+            writeSynthetic(csv, 2000, 200);
+        else if (name.equals("tall"))
+            writeSynthetic(csv, 500000, 6);
+        else
+            throw new IllegalArgumentException("no table named " + name);
+        return csv;
+    }
+
+
+
+    /**
+     * @return the keys of the table, in a shuffled order so lookups don't
+     *         walk the table in file order
+     */
+    static int[] keys(CSVDict dict)
+    {
+        String[] column = dict.getColumn(0);
+        int[] keys = new int[column.length];
+        for (int i = 0; i < keys.length; i++)
+            keys[i] = Integer.parseInt(column[i]);
+        Random random = new Random(42);
+        for (int i = keys.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int k = keys[i];
+            keys[i] = keys[j];
+            keys[j] = k;
+        }
+        return keys;
+    }
+
+
+
+    static void delete(File dir)
+    {
+        File[] files = dir.listFiles();
+        if (files != null)
+            for (File file : files)
+                file.delete();
+        dir.delete();
+    }
+
+
+
+    // sparse int keys, then a repeating run of float, int, text and code
+    // columns, as in the reference tables csvdict is used for
+    private static void writeSynthetic(File csv, int nRows, int nCols)
+        throws IOException
+    {
+        String[] codes = {"A", "B", "C", "D", "E", "F", "G", "H"};
+        Random random = new Random(nRows * 31L + nCols);
+        Writer w = new OutputStreamWriter(new FileOutputStream(csv), "UTF-8");
+        try {
+            StringBuilder line = new StringBuilder("id");
+            for (int pos = 1; pos < nCols; pos++)
+                line.append(",c").append(pos);
+            w.write(line.append('\n').toString());
+            for (int row = 0; row < nRows; row++) {
+                line.setLength(0);
+                line.append(row * 3 + 1);
+                for (int pos = 1; pos < nCols; pos++) {
+                    line.append(',');
+                    switch (pos % 4) {
+                    case 1: line.append(random.nextInt(100000) / 100.0f); break;
+                    case 2: line.append(random.nextInt(1000)); break;
+                    case 3: line.append("name ").append(random.nextInt(5000)); break;
+                    default: line.append(codes[random.nextInt(codes.length)]);
+                    }
+                }
+                w.write(line.append('\n').toString());
+            }
+        } finally {
+            w.close();
+        }
+    }
+}
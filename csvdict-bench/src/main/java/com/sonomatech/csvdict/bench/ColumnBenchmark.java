@@ -0,0 +1,134 @@
+/*
+Copyright (c) 2012, Sonoma Technology, Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without 
+modification, are permitted provided that the following conditions 
+are met:
+
+    * Redistributions of source code must retain the above copyright 
+      notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above copyright 
+      notice, this list of conditions and the following disclaimer in 
+      the documentation and/or other materials provided with the 
+      distribution.
+
+    * Neither the name of Sonoma Technology, Inc. nor the names of 
+      its contributors may be used to endorse or promote products 
+      derived from this software without specific prior written 
+      permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS 
+FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE 
+COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR 
+BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF 
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF 
+THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF 
+SUCH DAMAGE. 
+*/
+
+
+
+package com.sonomatech.csvdict.bench;
+
+import com.sonomatech.csvdict.CSVDict;
+import com.sonomatech.csvdict.LoadOptions;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+
+/**
+ * The time to read a whole column, with and without a filter on another
+ * column.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Benchmark)
+public class ColumnBenchmark
+{
+    @Param({"species", "wide", "tall"})
+    public String table;
+
+    @Param({"ROWS", "COLUMNAR"})
+    public LoadOptions.Storage storage;
+
+    private CSVDict dict;
+    private int colPos;
+    private String fieldName;
+    private String filterField;
+    private String filterValue;
+
+
+
+    @Setup(Level.Trial)
+    public void setUp()
+        throws Exception
+    {
+        File dir = Files.createTempDirectory("csvdict-bench").toFile();
+        try {
+            dict = new CSVDict(BenchTables.write(table, dir).getPath(), ',', 0,
+                               new LoadOptions().setStorage(storage));
+        } finally {
+            BenchTables.delete(dir);
+        }
+        // species: ScientificName filtered on FormID, synthetic: c3 filtered
+        // on the codes in c4
+        colPos = 3;
+        fieldName = dict.getFieldNames()[colPos];
+        boolean species = table.equals("species");
+        filterField = species ? "FormID" : "c4";
+        filterValue = species ? "1" : "A";
+    }
+
+
+
+    @Benchmark
+    public String[] getColumnByPos()
+    {
+        return dict.getColumn(colPos);
+    }
+
+    @Benchmark
+    public String[] getColumnByName()
+    {
+        return dict.getColumn(fieldName);
+    }
+
+    @Benchmark
+    public String[] getFilteredColumn()
+    {
+        return dict.getFilteredColumn(fieldName, filterField, filterValue);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String[] getFilteredColumnThreads()
+    {
+        return dict.getFilteredColumn(fieldName, filterField, filterValue);
+    }
+}
@@ -0,0 +1,127 @@
+/*
+Copyright (c) 2012, Sonoma Technology, Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without 
+modification, are permitted provided that the following conditions 
+are met:
+
+    * Redistributions of source code must retain the above copyright 
+      notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above copyright 
+      notice, this list of conditions and the following disclaimer in 
+      the documentation and/or other materials provided with the 
+      distribution.
+
+    * Neither the name of Sonoma Technology, Inc. nor the names of 
+      its contributors may be used to endorse or promote products 
+      derived from this software without specific prior written 
+      permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS 
+FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE 
+COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR 
+BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF 
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF 
+THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF 
+SUCH DAMAGE. 
+*/
+
+
+
+package com.sonomatech.csvdict.bench;
+
+import com.sonomatech.csvdict.CSVDict;
+import com.sonomatech.csvdict.bench.gen.Species;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+
+/**
+ * The latency of getInstance on the class RowClassSourceGenerator makes from
+ * species.csv at build time, both before rows are cached (cold) and once
+ * every row is (warm).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GeneratedClassBenchmark
+{
+    private int[] keys;
+
+
+
+    /**
+     * Where each thread is in the shuffled keys.
+     */
+    @State(Scope.Thread)
+    public static class Cursor
+    {
+        int i;
+
+        int next(int n)
+        {
+            if (++i == n)
+                i = 0;
+            return i;
+        }
+    }
+
+
+
+    @Setup(Level.Trial)
+    public void setUp()
+        throws Exception
+    {
+        keys = BenchTables.keys(new CSVDict("species.csv", ',', 0, GeneratedClassBenchmark.class.getClassLoader()));
+        Species.preloadAll();
+    }
+
+
+
+    @Benchmark
+    public Species getInstance(Cursor cursor)
+        throws Exception
+    {
+        return Species.getInstance(keys[cursor.next(keys.length)]);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Species getInstanceThreads(Cursor cursor)
+        throws Exception
+    {
+        return Species.getInstance(keys[cursor.next(keys.length)]);
+    }
+
+    @Benchmark
+    public Species getInstanceCold(Cursor cursor)
+        throws Exception
+    {
+        int key = keys[cursor.next(keys.length)];
+        Species.cache.remove(key);
+        return Species.getInstance(key);
+    }
+}
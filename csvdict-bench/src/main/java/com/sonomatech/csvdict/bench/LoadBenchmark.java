@@ -0,0 +1,188 @@
+/*
+Copyright (c) 2012, Sonoma Technology, Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without 
+modification, are permitted provided that the following conditions 
+are met:
+
+    * Redistributions of source code must retain the above copyright 
+      notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above copyright 
+      notice, this list of conditions and the following disclaimer in 
+      the documentation and/or other materials provided with the 
+      distribution.
+
+    * Neither the name of Sonoma Technology, Inc. nor the names of 
+      its contributors may be used to endorse or promote products 
+      derived from this software without specific prior written 
+      permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS 
+FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE 
+COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR 
+BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF 
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF 
+THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF 
+SUCH DAMAGE. 
+*/
+
+
+
+package com.sonomatech.csvdict.bench;
+
+import com.sonomatech.csvdict.CSVDict;
+import com.sonomatech.csvdict.IntKeyCSVDict;
+import com.sonomatech.csvdict.LoadOptions;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+
+/**
+ * How fast each constructor loads a table. Besides loads per second, the
+ * rows and bytes counters report rows/s and bytes/s (divide by 1,048,576 for
+ * MB/s).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Benchmark)
+public class LoadBenchmark
+{
+    @Param({"species", "wide", "tall"})
+    public String table;
+
+    private File dir;
+    private File csv;
+    private ClassLoader cl;
+    private long bytes;
+    private int rows;
+
+
+
+    /**
+     * The volume read, counted per load and reported per second.
+     */
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Volume
+    {
+        public long rows;
+        public long bytes;
+    }
+
+
+
+    @Setup(Level.Trial)
+    public void setUp()
+        throws Exception
+    {
+        dir = Files.createTempDirectory("csvdict-bench").toFile();
+        csv = BenchTables.write(table, dir);
+        cl = new URLClassLoader(new URL[] {dir.toURI().toURL()}, null);
+        bytes = csv.length();
+        rows = new CSVDict(csv.getPath(), ',', 0).getRowCount();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        BenchTables.delete(dir);
+    }
+
+
+
+    @Benchmark
+    public CSVDict classLoader(Volume volume)
+        throws Exception
+    {
+        return count(volume, new CSVDict(csv.getName(), ',', 0, cl));
+    }
+
+    @Benchmark
+    public CSVDict reader(Volume volume)
+        throws Exception
+    {
+        BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(csv), "UTF-8"));
+        try {
+            return count(volume, new CSVDict(br, ',', 0));
+        } finally {
+            br.close();
+        }
+    }
+
+    @Benchmark
+    public CSVDict mappedFile(Volume volume)
+        throws Exception
+    {
+        return count(volume, new CSVDict(csv.getPath(), ',', 0));
+    }
+
+    @Benchmark
+    public CSVDict mappedFileParallel(Volume volume)
+        throws Exception
+    {
+        return count(volume, new CSVDict(csv.getPath(), ',', 0, new LoadOptions().setParallel()));
+    }
+
+    @Benchmark
+    public CSVDict mappedFileColumnar(Volume volume)
+        throws Exception
+    {
+        return count(volume, new CSVDict(csv.getPath(), ',', 0,
+                                         new LoadOptions().setStorage(LoadOptions.Storage.COLUMNAR)));
+    }
+
+    @Benchmark
+    public CSVDict intKeyClassLoader(Volume volume)
+        throws Exception
+    {
+        return count(volume, new IntKeyCSVDict(csv.getName(), ',', 0, cl));
+    }
+
+    @Benchmark
+    public CSVDict intKeyMappedFile(Volume volume)
+        throws Exception
+    {
+        return count(volume, new IntKeyCSVDict(csv.getPath(), ',', 0, new LoadOptions()));
+    }
+
+
+
+    private CSVDict count(Volume volume, CSVDict dict)
+    {
+        volume.rows += rows;
+        volume.bytes += bytes;
+        return dict;
+    }
+}
@@ -0,0 +1,216 @@
+/*
+Copyright (c) 2012, Sonoma Technology, Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without 
+modification, are permitted provided that the following conditions 
+are met:
+
+    * Redistributions of source code must retain the above copyright 
+      notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above copyright 
+      notice, this list of conditions and the following disclaimer in 
+      the documentation and/or other materials provided with the 
+      distribution.
+
+    * Neither the name of Sonoma Technology, Inc. nor the names of 
+      its contributors may be used to endorse or promote products 
+      derived from this software without specific prior written 
+      permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS 
+FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE 
+COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR 
+BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF 
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF 
+THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF 
+SUCH DAMAGE. 
+*/
+
+
+
+package com.sonomatech.csvdict.bench;
+
+import com.sonomatech.csvdict.CSVDict;
+import com.sonomatech.csvdict.IntKeyCSVDict;
+import com.sonomatech.csvdict.LoadOptions;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+
+/**
+ * The latency of reading one cell by key, with String and int keys. The keys
+ * are visited in a shuffled order. The methods ending in Threads read the
+ * same dictionary from four threads at once.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Benchmark)
+public class LookupBenchmark
+{
+    @Param({"species", "wide", "tall"})
+    public String table;
+
+    @Param({"ROWS", "COLUMNAR"})
+    public LoadOptions.Storage storage;
+
+    private CSVDict dict;
+    private IntKeyCSVDict intKeyDict;
+    private String[] keys;
+    private int[] intKeys;
+    private int textPos;
+    private int floatPos;
+    private int intPos;
+
+
+
+    /**
+     * Where each thread is in the shuffled keys.
+     */
+    @State(Scope.Thread)
+    public static class Cursor
+    {
+        int i;
+
+        int next(int n)
+        {
+            if (++i == n)
+                i = 0;
+            return i;
+        }
+    }
+
+
+
+    @Setup(Level.Trial)
+    public void setUp()
+        throws Exception
+    {
+        File dir = Files.createTempDirectory("csvdict-bench").toFile();
+        try {
+            File csv = BenchTables.write(table, dir);
+            LoadOptions options = new LoadOptions().setStorage(storage);
+            dict = new CSVDict(csv.getPath(), ',', 0, options);
+            intKeyDict = new IntKeyCSVDict(csv.getPath(), ',', 0, options);
+        } finally {
+            BenchTables.delete(dir);
+        }
+        intKeys = BenchTables.keys(dict);
+        keys = new String[intKeys.length];
+        for (int i = 0; i < keys.length; i++)
+            keys[i] = Integer.toString(intKeys[i]);
+        // species: ScientificName, PDWood and FoliageID, synthetic: c3, c1 and c2
+        textPos = 3;
+        floatPos = table.equals("species") ? 7 : 1;
+        intPos = 2;
+    }
+
+
+
+    @Benchmark
+    public String stringKeyGetString(Cursor cursor)
+        throws Exception
+    {
+        return dict.getString(keys[cursor.next(keys.length)], textPos);
+    }
+
+    @Benchmark
+    public Float stringKeyGetFloat(Cursor cursor)
+        throws Exception
+    {
+        return dict.getFloat(keys[cursor.next(keys.length)], floatPos);
+    }
+
+    @Benchmark
+    public Integer stringKeyGetInteger(Cursor cursor)
+        throws Exception
+    {
+        return dict.getInteger(keys[cursor.next(keys.length)], intPos);
+    }
+
+    @Benchmark
+    public float stringKeyGetFloatValue(Cursor cursor)
+        throws Exception
+    {
+        return dict.getFloatValue(keys[cursor.next(keys.length)], floatPos);
+    }
+
+    @Benchmark
+    public String intKeyGetString(Cursor cursor)
+        throws Exception
+    {
+        return intKeyDict.getString(intKeys[cursor.next(intKeys.length)], textPos);
+    }
+
+    @Benchmark
+    public Float intKeyGetFloat(Cursor cursor)
+        throws Exception
+    {
+        return intKeyDict.getFloat(intKeys[cursor.next(intKeys.length)], floatPos);
+    }
+
+    @Benchmark
+    public Integer intKeyGetInteger(Cursor cursor)
+        throws Exception
+    {
+        return intKeyDict.getInteger(intKeys[cursor.next(intKeys.length)], intPos);
+    }
+
+    @Benchmark
+    public float intKeyGetFloatValue(Cursor cursor)
+        throws Exception
+    {
+        return intKeyDict.getFloatValue(intKeys[cursor.next(intKeys.length)], floatPos);
+    }
+
+
+
+    @Benchmark
+    @Threads(4)
+    public String stringKeyGetStringThreads(Cursor cursor)
+        throws Exception
+    {
+        return dict.getString(keys[cursor.next(keys.length)], textPos);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public float stringKeyGetFloatValueThreads(Cursor cursor)
+        throws Exception
+    {
+        return dict.getFloatValue(keys[cursor.next(keys.length)], floatPos);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public float intKeyGetFloatValueThreads(Cursor cursor)
+        throws Exception
+    {
+        return intKeyDict.getFloatValue(intKeys[cursor.next(intKeys.length)], floatPos);
+    }
+}
@@ -0,0 +1,227 @@
+/*
+Copyright (c) 2012, Sonoma Technology, Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without 
+modification, are permitted provided that the following conditions 
+are met:
+
+    * Redistributions of source code must retain the above copyright 
+      notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above copyright 
+      notice, this list of conditions and the following disclaimer in 
+      the documentation and/or other materials provided with the 
+      distribution.
+
+    * Neither the name of Sonoma Technology, Inc. nor the names of 
+      its contributors may be used to endorse or promote products 
+      derived from this software without specific prior written 
+      permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS 
+FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE 
+COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR 
+BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF 
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF 
+THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF 
+SUCH DAMAGE. 
+*/
+
+
+
+package com.sonomatech.csvdict;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+
+
+/**
+ * The CSV rules shared by {@link CSVTokenizer} and {@link MappedCSVTokenizer}:
+ * splits input into records in a single pass. Quoted fields may contain
+ * delimiters, line breaks and doubled quotes (RFC 4180); the quotes are
+ * removed from the returned values. Lines that are blank or that start with
+ * the comment character are skipped. Subclasses supply the characters and
+ * turn the characters of each field into a String.
+ */
+abstract class AbstractCSVTokenizer implements RecordSource
+{
+    static final char COMMENT_CHAR = '#';
+    static final char QUOTE = '"';
+
+    private static final int FIELD_START = 0;
+    private static final int UNQUOTED = 1;
+    private static final int QUOTED = 2;
+    private static final int QUOTE_IN_QUOTED = 3;
+
+    private final int delimiter;
+
+    // the field list is reused across records
+    private String[] fields = new String[16];
+    private int nFields;
+
+
+
+    AbstractCSVTokenizer(char delimiter)
+    {
+        this.delimiter = delimiter;
+    }
+
+
+
+    public String[] next()
+        throws IOException
+    {
+        int c;
+        while ((c = read()) != -1) {
+            if (c == '\n')
+                continue;
+            if (c == '\r') {
+                skipLF();
+                continue;
+            }
+            if (c == COMMENT_CHAR) {
+                skipLine();
+                continue;
+            }
+            startRecord();
+            if (parseRecord(c))
+                return Arrays.copyOf(fields, nFields);
+        }
+        return null;
+    }
+
+
+
+    /**
+     * @return the next character, or -1 at the end of the input
+     */
+    abstract int read()
+        throws IOException;
+
+    /**
+     * Skips the next character if it is a line feed.
+     */
+    abstract void skipLF()
+        throws IOException;
+
+    /**
+     * Called when the character just read starts a record.
+     */
+    void startRecord()
+    {
+    }
+
+    /**
+     * Adds a character to the field being read.
+     */
+    abstract void append(int c);
+
+    /**
+     * Empties the field being read.
+     */
+    abstract void clearField();
+
+    /**
+     * @param pos the zero-based position of the field in the record
+     * @return the field read since it was last cleared
+     */
+    abstract String field(int pos);
+
+
+
+    // returns false if the record held nothing but whitespace
+    private boolean parseRecord(int c)
+        throws IOException
+    {
+        nFields = 0;
+        clearField();
+        boolean content = false;
+        int state = FIELD_START;
+        for (;; c = read()) {
+            if (state == FIELD_START) {
+                if (c == QUOTE) {
+                    state = QUOTED;
+                    content = true;
+                    continue;
+                }
+                state = UNQUOTED;
+            }
+
+            if (state == UNQUOTED) {
+                if (c == delimiter) {
+                    endField();
+                    state = FIELD_START;
+                    if (c > ' ')
+                        content = true;
+                } else if (c == '\n' || c == '\r' || c == -1) {
+                    endField();
+                    if (c == '\r')
+                        skipLF();
+                    return content;
+                } else {
+                    append(c);
+                    if (c > ' ')
+                        content = true;
+                }
+            } else if (state == QUOTED) {
+                if (c == QUOTE)
+                    state = QUOTE_IN_QUOTED;
+                else if (c == -1) {
+                    // unterminated quote, keep what was read
+                    endField();
+                    return true;
+                } else
+                    append(c);
+            } else {
+                // QUOTE_IN_QUOTED: either an escaped quote or the closing one
+                if (c == QUOTE) {
+                    append(QUOTE);
+                    state = QUOTED;
+                } else if (c == delimiter) {
+                    endField();
+                    state = FIELD_START;
+                } else if (c == '\n' || c == '\r' || c == -1) {
+                    endField();
+                    if (c == '\r')
+                        skipLF();
+                    return true;
+                } else {
+                    // text after the closing quote is kept as is
+                    append(c);
+                    state = UNQUOTED;
+                }
+            }
+        }
+    }
+
+
+
+    private void skipLine()
+        throws IOException
+    {
+        int c;
+        while ((c = read()) != -1 && c != '\n' && c != '\r')
+            ;
+        if (c == '\r')
+            skipLF();
+    }
+
+
+
+    private void endField()
+    {
+        if (nFields == fields.length)
+            fields = Arrays.copyOf(fields, nFields * 2);
+        fields[nFields] = field(nFields);
+        nFields++;
+        clearField();
+    }
+}
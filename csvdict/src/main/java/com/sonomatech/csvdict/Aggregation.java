@@ -0,0 +1,197 @@
+/*
+Copyright (c) 2012, Sonoma Technology, Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without 
+modification, are permitted provided that the following conditions 
+are met:
+
+    * Redistributions of source code must retain the above copyright 
+      notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above copyright 
+      notice, this list of conditions and the following disclaimer in 
+      the documentation and/or other materials provided with the 
+      distribution.
+
+    * Neither the name of Sonoma Technology, Inc. nor the names of 
+      its contributors may be used to endorse or promote products 
+      derived from this software without specific prior written 
+      permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS 
+FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE 
+COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR 
+BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF 
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF 
+THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF 
+SUCH DAMAGE. 
+*/
+
+
+
+package com.sonomatech.csvdict;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.IntPredicate;
+
+
+
+/**
+ * Aggregates one numeric column of a table, optionally grouped by the value
+ * of another column and restricted to the rows a filter accepts. Big tables
+ * are split in halves over the common fork-join pool; each half fills its
+ * own groups, which are then merged, so no state is shared between threads.
+ * Distinct values are left out of that loop; they are counted by a
+ * {@link DistinctScan} the first time a group's distinct count is read.
+ */
+final class Aggregation extends RecursiveTask<LinkedHashMap<String, ColumnStats>>
+{
+    private static final long serialVersionUID = 1L;
+
+    // ranges of up to this many rows are aggregated without splitting
+    static final int SPLIT_ROWS = 16384;
+
+    private final Table table;
+    private final int pos;
+    private final int groupPos;
+    private final IntPredicate filter;
+    private final int from;
+    private final int to;
+
+
+
+    /**
+     * @param pos the column to aggregate
+     * @param groupPos the column to group by, or -1 to put every row in one
+     *                 group with a null key
+     * @param filter accepts the rows to aggregate, or null for all rows
+     */
+    Aggregation(Table table, int pos, int groupPos, IntPredicate filter, int from, int to)
+    {
+        this.table = table;
+        this.pos = pos;
+        this.groupPos = groupPos;
+        this.filter = filter;
+        this.from = from;
+        this.to = to;
+    }
+
+
+
+    /**
+     * Counts the distinct values of every group of an aggregation in one
+     * more pass over the table, once, when the first count is asked for.
+     */
+    static final class DistinctScan
+    {
+        private final Table table;
+        private final int pos;
+        private final int groupPos;
+        private final IntPredicate filter;
+        private Map<String, ColumnStats> groups;
+
+        DistinctScan(Table table, int pos, int groupPos, IntPredicate filter, Map<String, ColumnStats> groups)
+        {
+            this.table = table;
+            this.pos = pos;
+            this.groupPos = groupPos;
+            this.filter = filter;
+            this.groups = groups;
+        }
+
+        synchronized void run()
+        {
+            if (groups == null)
+                return;
+            String group = null;
+            ColumnStats stats = groupPos >= 0 ? null : groups.get(null);
+            for (int row = 0; row < table.size(); row++) {
+                if (filter != null && !filter.test(row))
+                    continue;
+                if (groupPos >= 0) {
+                    String value = table.getString(row, groupPos);
+                    if (stats == null || !Objects.equals(value, group)) {
+                        group = value;
+                        stats = groups.get(group);
+                    }
+                }
+                stats.addDistinct(table.getDouble(row, pos));
+            }
+            // the table and groups aren't needed any more
+            groups = null;
+        }
+    }
+
+
+
+    /**
+     * @return the statistics by group, in order of each group's first row
+     */
+    static LinkedHashMap<String, ColumnStats> run(Table table, int pos, int groupPos, IntPredicate filter)
+    {
+        Aggregation task = new Aggregation(table, pos, groupPos, filter, 0, table.size());
+        LinkedHashMap<String, ColumnStats> groups = table.size() <= SPLIT_ROWS ? task.compute()
+                                                                                : ForkJoinPool.commonPool().invoke(task);
+        // a copy, since the caller may change the map it gets
+        DistinctScan scan = new DistinctScan(table, pos, groupPos, filter, new HashMap<String, ColumnStats>(groups));
+        for (ColumnStats stats : groups.values())
+            stats.setScan(scan);
+        return groups;
+    }
+
+
+
+    @Override
+    protected LinkedHashMap<String, ColumnStats> compute()
+    {
+        if (to - from > SPLIT_ROWS) {
+            int mid = (from + to) >>> 1;
+            Aggregation left = new Aggregation(table, pos, groupPos, filter, from, mid);
+            left.fork();
+            LinkedHashMap<String, ColumnStats> right = new Aggregation(table, pos, groupPos, filter, mid, to).compute();
+            LinkedHashMap<String, ColumnStats> groups = left.join();
+            for (Map.Entry<String, ColumnStats> entry : right.entrySet()) {
+                ColumnStats stats = groups.get(entry.getKey());
+                if (stats == null)
+                    groups.put(entry.getKey(), entry.getValue());
+                else
+                    stats.merge(entry.getValue());
+            }
+            return groups;
+        }
+
+        LinkedHashMap<String, ColumnStats> groups = new LinkedHashMap<String, ColumnStats>();
+        String group = null;
+        ColumnStats stats = null;
+        for (int row = from; row < to; row++) {
+            if (filter != null && !filter.test(row))
+                continue;
+            if (groupPos >= 0) {
+                // runs of rows often share a group
+                String value = table.getString(row, groupPos);
+                if (stats == null || !Objects.equals(value, group)) {
+                    group = value;
+                    stats = groups.get(group);
+                }
+            }
+            if (stats == null) {
+                stats = new ColumnStats();
+                groups.put(group, stats);
+            }
+            stats.add(table.getDouble(row, pos));
+        }
+        return groups;
+    }
+}
@@ -0,0 +1,370 @@
+/*
+Copyright (c) 2012, Sonoma Technology, Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without 
+modification, are permitted provided that the following conditions 
+are met:
+
+    * Redistributions of source code must retain the above copyright 
+      notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above copyright 
+      notice, this list of conditions and the following disclaimer in 
+      the documentation and/or other materials provided with the 
+      distribution.
+
+    * Neither the name of Sonoma Technology, Inc. nor the names of 
+      its contributors may be used to endorse or promote products 
+      derived from this software without specific prior written 
+      permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS 
+FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE 
+COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR 
+BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF 
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF 
+THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF 
+SUCH DAMAGE. 
+*/
+
+
+
+package com.sonomatech.csvdict;
+
+import java.util.Arrays;
+
+
+
+/**
+ * A compressed set of row numbers in the style of a roaring bitmap. Rows
+ * are split into blocks of 65536 by their high 16 bits, and each block that
+ * holds any row is kept either as a sorted array of the low 16 bits, while
+ * it holds at most 4096 rows, or as a plain bitmap of 1024 words. A block is
+ * thus never bigger than 8 KB, and and, or and andNot work block by block,
+ * skipping blocks that only one side has. Bitmaps never change, so the
+ * operations return new ones that may share blocks with their inputs.
+ */
+final class Bitmap
+{
+    // blocks with at most this many rows are arrays
+    static final int ARRAY_MAX = 4096;
+    private static final int WORDS = 1024;
+
+    private static final int AND = 0;
+    private static final int OR = 1;
+    private static final int AND_NOT = 2;
+
+    static final Bitmap EMPTY = new Bitmap(new char[0], new Object[0], new int[0], 0);
+
+    // the high 16 bits of the rows of each block, ascending
+    private final char[] keys;
+    // each block, a char[] of the low 16 bits in ascending order or a long[]
+    // of WORDS words
+    private final Object[] blocks;
+    private final int[] counts;
+    private final int size;
+
+
+
+    private Bitmap(char[] keys, Object[] blocks, int[] counts, int size)
+    {
+        this.keys = keys;
+        this.blocks = blocks;
+        this.counts = counts;
+        this.size = size;
+    }
+
+
+
+    /**
+     * @param rows row numbers in ascending order
+     * @param n how many of rows to take
+     */
+    static Bitmap of(int[] rows, int n)
+    {
+        Builder builder = new Builder();
+        for (int i = 0; i < n;) {
+            int key = rows[i] >>> 16;
+            int end = i;
+            while (end < n && rows[end] >>> 16 == key)
+                end++;
+            int count = end - i;
+            if (count <= ARRAY_MAX) {
+                char[] low = new char[count];
+                for (int j = 0; j < count; j++)
+                    low[j] = (char)rows[i + j];
+                builder.add(key, low, count);
+            } else {
+                long[] words = new long[WORDS];
+                for (int j = i; j < end; j++)
+                    words[(rows[j] >>> 6) & (WORDS - 1)] |= 1L << rows[j];
+                builder.add(key, words, count);
+            }
+            i = end;
+        }
+        return builder.build();
+    }
+
+
+
+    /**
+     * @return the rows from 0 to n - 1
+     */
+    static Bitmap range(int n)
+    {
+        Builder builder = new Builder();
+        for (int key = 0; key << 16 < n && key <= 0xFFFF; key++) {
+            int count = Math.min(1 << 16, n - (key << 16));
+            if (count <= ARRAY_MAX) {
+                char[] low = new char[count];
+                for (int j = 0; j < count; j++)
+                    low[j] = (char)j;
+                builder.add(key, low, count);
+            } else {
+                long[] words = new long[WORDS];
+                Arrays.fill(words, 0, count >>> 6, -1L);
+                if ((count & 63) != 0)
+                    words[count >>> 6] = (1L << count) - 1;
+                builder.add(key, words, count);
+            }
+        }
+        return builder.build();
+    }
+
+
+
+    /**
+     * @return the number of rows in the set
+     */
+    int cardinality()
+    {
+        return size;
+    }
+
+
+
+    boolean contains(int row)
+    {
+        int b = Arrays.binarySearch(keys, (char)(row >>> 16));
+        if (b < 0)
+            return false;
+        Object block = blocks[b];
+        if (block instanceof char[])
+            return Arrays.binarySearch((char[])block, (char)row) >= 0;
+        return (((long[])block)[(row >>> 6) & (WORDS - 1)] & (1L << row)) != 0;
+    }
+
+
+
+    /**
+     * @return the rows in ascending order
+     */
+    int[] toArray()
+    {
+        int[] rows = new int[size];
+        int n = 0;
+        for (int b = 0; b < keys.length; b++) {
+            int high = keys[b] << 16;
+            Object block = blocks[b];
+            if (block instanceof char[]) {
+                for (char low : (char[])block)
+                    rows[n++] = high | low;
+            } else {
+                long[] words = (long[])block;
+                for (int w = 0; w < WORDS; w++)
+                    for (long word = words[w]; word != 0; word &= word - 1)
+                        rows[n++] = high | (w << 6) | Long.numberOfTrailingZeros(word);
+            }
+        }
+        return rows;
+    }
+
+
+
+    Bitmap and(Bitmap other)
+    {
+        Builder builder = new Builder();
+        for (int i = 0, j = 0; i < keys.length && j < other.keys.length;) {
+            if (keys[i] < other.keys[j])
+                i++;
+            else if (keys[i] > other.keys[j])
+                j++;
+            else
+                builder.add(keys[i], combine(blocks[i++], other.blocks[j++], AND));
+        }
+        return builder.build();
+    }
+
+    Bitmap or(Bitmap other)
+    {
+        Builder builder = new Builder();
+        int i = 0;
+        int j = 0;
+        while (i < keys.length || j < other.keys.length) {
+            if (j == other.keys.length || (i < keys.length && keys[i] < other.keys[j])) {
+                builder.add(keys[i], blocks[i], counts[i]);
+                i++;
+            } else if (i == keys.length || keys[i] > other.keys[j]) {
+                builder.add(other.keys[j], other.blocks[j], other.counts[j]);
+                j++;
+            } else
+                builder.add(keys[i], combine(blocks[i++], other.blocks[j++], OR));
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return the rows of this set that aren't in other
+     */
+    Bitmap andNot(Bitmap other)
+    {
+        Builder builder = new Builder();
+        int j = 0;
+        for (int i = 0; i < keys.length; i++) {
+            while (j < other.keys.length && other.keys[j] < keys[i])
+                j++;
+            if (j < other.keys.length && other.keys[j] == keys[i])
+                builder.add(keys[i], combine(blocks[i], other.blocks[j], AND_NOT));
+            else
+                builder.add(keys[i], blocks[i], counts[i]);
+        }
+        return builder.build();
+    }
+
+
+
+    // one block of a and op b, as an array or a bitmap by its size
+    private static Object combine(Object a, Object b, int op)
+    {
+        if (a instanceof char[] && b instanceof char[])
+            return merge((char[])a, (char[])b, op);
+        if (a instanceof char[] && op != OR) {
+            // keep the array's rows that the bitmap has, or doesn't
+            char[] low = (char[])a;
+            long[] words = (long[])b;
+            char[] kept = new char[low.length];
+            int n = 0;
+            for (char c : low)
+                if (((words[c >>> 6] & (1L << c)) != 0) == (op == AND))
+                    kept[n++] = c;
+            return Arrays.copyOf(kept, n);
+        }
+        if (b instanceof char[] && op == AND)
+            return combine(b, a, AND);
+
+        long[] x = words(a);
+        long[] y = words(b);
+        long[] words = new long[WORDS];
+        int count = 0;
+        for (int w = 0; w < WORDS; w++) {
+            words[w] = op == AND ? x[w] & y[w] : op == OR ? x[w] | y[w] : x[w] & ~y[w];
+            count += Long.bitCount(words[w]);
+        }
+        return count <= ARRAY_MAX ? toArray(words, count) : words;
+    }
+
+    // the sorted arrays merged by op, as a bitmap if that is too many rows
+    private static Object merge(char[] a, char[] b, int op)
+    {
+        char[] merged = new char[op == OR ? a.length + b.length : a.length];
+        int n = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length || j < b.length) {
+            int x = i < a.length ? a[i] : 1 << 16;
+            int y = j < b.length ? b[j] : 1 << 16;
+            if (x == y) {
+                if (op != AND_NOT)
+                    merged[n++] = (char)x;
+                i++;
+                j++;
+            } else if (x < y) {
+                if (op != AND)
+                    merged[n++] = (char)x;
+                i++;
+            } else {
+                if (op == OR)
+                    merged[n++] = (char)y;
+                j++;
+            }
+        }
+        if (n <= ARRAY_MAX)
+            return Arrays.copyOf(merged, n);
+        long[] words = new long[WORDS];
+        for (int k = 0; k < n; k++)
+            words[merged[k] >>> 6] |= 1L << merged[k];
+        return words;
+    }
+
+    private static long[] words(Object block)
+    {
+        if (block instanceof long[])
+            return (long[])block;
+        long[] words = new long[WORDS];
+        for (char c : (char[])block)
+            words[c >>> 6] |= 1L << c;
+        return words;
+    }
+
+    private static char[] toArray(long[] words, int count)
+    {
+        char[] low = new char[count];
+        int n = 0;
+        for (int w = 0; w < WORDS; w++)
+            for (long word = words[w]; word != 0; word &= word - 1)
+                low[n++] = (char)((w << 6) | Long.numberOfTrailingZeros(word));
+        return low;
+    }
+
+
+
+    // collects blocks in ascending order of key, dropping empty ones
+    private static final class Builder
+    {
+        private char[] keys = new char[4];
+        private Object[] blocks = new Object[4];
+        private int[] counts = new int[4];
+        private int n;
+        private int size;
+
+        void add(int key, Object block)
+        {
+            add(key, block, block instanceof char[] ? ((char[])block).length : cardinality((long[])block));
+        }
+
+        void add(int key, Object block, int count)
+        {
+            if (count == 0)
+                return;
+            if (n == keys.length) {
+                keys = Arrays.copyOf(keys, n * 2);
+                blocks = Arrays.copyOf(blocks, n * 2);
+                counts = Arrays.copyOf(counts, n * 2);
+            }
+            keys[n] = (char)key;
+            blocks[n] = block;
+            counts[n++] = count;
+            size += count;
+        }
+
+        Bitmap build()
+        {
+            return n == 0 ? EMPTY : new Bitmap(Arrays.copyOf(keys, n), Arrays.copyOf(blocks, n), Arrays.copyOf(counts, n), size);
+        }
+
+        private static int cardinality(long[] words)
+        {
+            int count = 0;
+            for (long word : words)
+                count += Long.bitCount(word);
+            return count;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+Copyright (c) 2012, Sonoma Technology, Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without 
+modification, are permitted provided that the following conditions 
+are met:
+
+    * Redistributions of source code must retain the above copyright 
+      notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above copyright 
+      notice, this list of conditions and the following disclaimer in 
+      the documentation and/or other materials provided with the 
+      distribution.
+
+    * Neither the name of Sonoma Technology, Inc. nor the names of 
+      its contributors may be used to endorse or promote products 
+      derived from this software without specific prior written 
+      permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS 
+FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE 
+COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR 
+BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF 
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF 
+THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF 
+SUCH DAMAGE. 
+*/
+
+
+
+package com.sonomatech.csvdict;
+
+import java.util.HashMap;
+import java.util.Map;
+
+
+
+/**
+ * A bitmap index on one column: maps every value in the column to the set of
+ * rows that hold it, as a compressed {@link Bitmap}. Meant for columns with
+ * few distinct values, such as flags and categories, where conditions on
+ * several columns can then be answered by and-ing and or-ing the sets
+ * without reading any rows. The index is built once and never changes, so
+ * it may be read from any thread.
+ */
+final class BitmapIndex
+{
+    // columns with more distinct values than this aren't picked for a bitmap
+    // index by createBitmapIndexes
+    static final int MAX_AUTO_VALUES = 64;
+
+    private final HashMap<String, Bitmap> bitmaps;
+
+
+
+    private BitmapIndex(HashMap<String, Bitmap> bitmaps)
+    {
+        this.bitmaps = bitmaps;
+    }
+
+
+
+    /**
+     * @param maxValues the most distinct values the column may have
+     * @return the index, or null if the column has more than maxValues
+     *         distinct values
+     */
+    static BitmapIndex build(Table table, int pos, int maxValues)
+    {
+        HashMap<String, int[]> groups = ValueIndex.groupRows(table, pos, maxValues);
+        if (groups == null)
+            return null;
+        HashMap<String, Bitmap> bitmaps = new HashMap<String, Bitmap>(groups.size() * 4 / 3 + 1);
+        for (Map.Entry<String, int[]> entry : groups.entrySet())
+            bitmaps.put(entry.getKey(), Bitmap.of(entry.getValue(), entry.getValue().length));
+        return new BitmapIndex(bitmaps);
+    }
+
+
+
+    /**
+     * @return the rows holding the value
+     */
+    Bitmap rows(String value)
+    {
+        Bitmap found = bitmaps.get(value);
+        return found == null ? Bitmap.EMPTY : found;
+    }
+
+    /**
+     * @return the rows of each value in the column. The map must not be
+     *         changed.
+     */
+    Map<String, Bitmap> values()
+    {
+        return bitmaps;
+    }
+}
@@ -39,14 +39,30 @@ SUCH DAMAGE.
 package com.sonomatech.csvdict;
 
 import java.io.BufferedReader;
-import java.io.FileReader;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
+import java.util.logging.Logger;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  <br/><br/><br/>
@@ -59,14 +75,38 @@ import java.util.List;
  */
 public class CSVDict
 {
-    private static final char COMMENT_CHAR = '#';
+    private static final Logger logger = Logger.getLogger(CSVDict.class.getSimpleName());
 
+    // batches are filled in chunks of this many keys, and split across the
+    // common fork-join pool once they have this many chunks
+    static final int BATCH_CHUNK = 4096;
+    static final int PARALLEL_BATCH_CHUNKS = 8;
+
+    /**
+     * The rows keyed by the key field, in file order, while the file is read.
+     * Once it is loaded the rows are only held by the table, whatever the
+     * storage, and this is null.
+     */
     protected LinkedHashMap<String, String[]> dict;
+    Table table;
+    int keyIndex;
+    // the columns of a composite key, or null if the key is keyIndex alone
+    private int[] keyIndexes;
     private int  nCols;
     private String keyFieldName;
     private String csvFileName = "unknown";
     private String[] fieldNames;
     private HashMap<String, Integer> nameToPosMap;
+    // hash indexes by column, null where a column has none. The array is
+    // replaced rather than changed when an index is added.
+    private volatile ValueIndex[] valueIndexes;
+    private volatile RangeIndex[] rangeIndexes;
+    private volatile BitmapIndex[] bitmapIndexes;
+    // receives the rows while an off-heap table is loaded
+    private OffHeapTable offHeap;
+    private boolean autoIndex;
+    // null unless the options turned metrics on, so getters skip counting
+    CSVDictMetrics metrics;
 
 
 
@@ -93,22 +133,55 @@ public class CSVDict
     public CSVDict(String csvfn, char delimiter, int keyIndex, ClassLoader cl)
         throws CSVDictException
     {
+        this(csvfn, delimiter, keyIndex, cl, new LoadOptions());
+    }
+    
+    /**
+     * The constructor reads the CSV file into a table stored as the options
+     * specify.
+     *
+     * @param csvfn the name of the CSV file
+     * @param delimiter the column delimiter in the CSV file
+     * @param keyIndex the zero-based index of the column that is to be used as
+     *                 the key
+     * @param cl the CSV file must be on this class loader's classpath
+     * @param options settings that control the loading
+     * @throws CSVDict.CSVDictException
+     */
+    public CSVDict(String csvfn, char delimiter, int keyIndex, ClassLoader cl, LoadOptions options)
+        throws CSVDictException
+    {
+        this(csvfn, delimiter, new int[] {keyIndex}, cl, options);
+    }
+
+    // loads a resource keyed on one or more columns
+    CSVDict(String csvfn, char delimiter, int[] keyIndexes, ClassLoader cl, LoadOptions options)
+        throws CSVDictException
+    {
+        long start = System.nanoTime();
+        setKeyIndexes(keyIndexes, options);
+        int keyIndex = keyIndexes[0];
         csvFileName = csvfn;
         InputStream is = cl.getResourceAsStream(csvFileName);
         if (is == null)
             throw new CSVDictException("class loader can't load " + csvFileName);
         BufferedReader br = new BufferedReader(new InputStreamReader(is));
+        CSVTokenizer tokenizer = new CSVTokenizer(br, delimiter, stringPool(options));
         try {
-            loadCSV(br, delimiter, keyIndex);
+            loadCSV(tokenizer, keyIndex, options);
+            buildTable(options);
             br.close();
             is.close();
         } catch (Exception e) {
             throw new CSVDictException(e);
         }
+        loaded(options, start, tokenizer.charsRead());
     }
     
     /**
      * The constructor reads the CSV file into a LinkedHashMap of string arrays.
+     * The file is memory-mapped and tokenized directly from its bytes, which
+     * are read as UTF-8.
      *
      * @param csvfp full path to the csv file
      * @param delimiter the column delimiter in the CSV file
@@ -119,13 +192,81 @@ public class CSVDict
     public CSVDict(String csvfp, char delimiter, int keyIndex)
         throws CSVDictException
     {     
+        this(csvfp, delimiter, keyIndex, new LoadOptions());
+    }
+    
+    /**
+     * The constructor reads the CSV file into a LinkedHashMap of string arrays.
+     * The file is memory-mapped and tokenized directly from its bytes, which
+     * are read as UTF-8. If the options name a fork-join pool, the file is
+     * split into chunks at record boundaries which are parsed in parallel;
+     * the rows keep their order in the file. If the options name a snapshot
+     * file that was made from this CSV file, it is read instead; otherwise the
+     * snapshot is written once the CSV file is parsed.
+     *
+     * @param csvfp full path to the csv file
+     * @param delimiter the column delimiter in the CSV file
+     * @param keyIndex the zero-based index of the column that is to be used as
+     *                 the key
+     * @param options settings that control the loading
+     * @throws CSVDict.CSVDictException
+     */   
+    public CSVDict(String csvfp, char delimiter, int keyIndex, LoadOptions options)
+        throws CSVDictException
+    {     
+        this(csvfp, delimiter, new int[] {keyIndex}, options);
+    }
+
+    // loads a file keyed on one or more columns
+    CSVDict(String csvfp, char delimiter, int[] keyIndexes, LoadOptions options)
+        throws CSVDictException
+    {
+        long start = System.nanoTime();
+        setKeyIndexes(keyIndexes, options);
+        // a snapshot holds parsed rows, which is what lazy storage avoids
+        if (options.getStorage() == LoadOptions.Storage.LAZY && options.getSnapshotPath() != null)
+            throw new IllegalArgumentException("lazy storage can't be combined with a snapshot");
+        int keyIndex = keyIndexes[0];
+        csvFileName = csvfp;
+        Snapshot snapshot = null;
+        if (options.getSnapshotPath() != null) {
+            snapshot = new Snapshot(new File(options.getSnapshotPath()), new File(csvfp), delimiter, keyIndex);
+            ColumnTable restored = snapshot.read();
+            if (restored != null) {
+                loadHeader(snapshot.header(), keyIndex);
+                restoreTable(restored, options);
+                loaded(options, start, new File(csvfp).length());
+                return;
+            }
+        }
         try {
-            BufferedReader br = new BufferedReader(new FileReader(csvfp));
-            loadCSV(br, delimiter, keyIndex);
-            br.close();
+            FileInputStream fis = new FileInputStream(csvfp);
+            try {
+                FileChannel channel = fis.getChannel();
+                long size = channel.size();
+                // a single mapping can't exceed 2GB, bigger files are streamed
+                if (size <= Integer.MAX_VALUE && delimiter < 0x80) {
+                    MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                    if (options.getStorage() == LoadOptions.Storage.LAZY)
+                        loadLazy(mapped, delimiter, keyIndex, options);
+                    else if (options.getPool() != null && size >= 2L * options.getMinChunkSize())
+                        loadCSVParallel(mapped, delimiter, keyIndex, options);
+                    else
+                        loadCSV(new MappedCSVTokenizer(mapped, delimiter, stringPool(options)), keyIndex, options);
+                } else {
+                    BufferedReader br = new BufferedReader(new InputStreamReader(fis, "UTF-8"));
+                    loadCSV(new CSVTokenizer(br, delimiter, stringPool(options)), keyIndex, options);
+                }
+                buildTable(options);
+            } finally {
+                fis.close();
+            }
         } catch (Exception e) {
             throw new CSVDictException(e);
         }
+        if (snapshot != null)
+            writeSnapshot(snapshot);
+        loaded(options, start, new File(csvfp).length());
     }
     
     /**
@@ -140,49 +281,310 @@ public class CSVDict
     public CSVDict(BufferedReader br, char delimiter, int keyIndex)
         throws CSVDictException
     {
-        loadCSV(br, delimiter, keyIndex);
+        this(br, delimiter, keyIndex, new LoadOptions());
+    }
+
+    /**
+     * The constructor reads the CSV file into a table stored as the options
+     * specify.
+     * 
+     * @param br an initialized buffered reader of the CSV file
+     * @param delimiter the column delimiter in the CSV file
+     * @param keyIndex the zero-based index of the column that is to be used as
+     *                 the key
+     * @param options settings that control the loading
+     * @throws CSVDict.CSVDictException
+     */
+    public CSVDict(BufferedReader br, char delimiter, int keyIndex, LoadOptions options)
+        throws CSVDictException
+    {
+        this(br, delimiter, new int[] {keyIndex}, options);
+    }
+
+    // reads CSV text keyed on one or more columns
+    CSVDict(BufferedReader br, char delimiter, int[] keyIndexes, LoadOptions options)
+        throws CSVDictException
+    {
+        long start = System.nanoTime();
+        setKeyIndexes(keyIndexes, options);
+        CSVTokenizer tokenizer = new CSVTokenizer(br, delimiter, stringPool(options));
+        loadCSV(tokenizer, keyIndexes[0], options);
+        buildTable(options);
+        loaded(options, start, tokenizer.charsRead());
+    }
+
+
+
+    /**
+     * Reads a table that {@link RowClassSourceGenerator} parsed at build time
+     * and stored on the class path, so no CSV text is parsed at run time. The
+     * table uses {@link LoadOptions.Storage#COLUMNAR columnar storage}.
+     *
+     * @param resource the name of the binary resource
+     * @param cl the resource must be on this class loader's classpath
+     * @return the dictionary, keyed on the column it was keyed on when stored
+     * @throws CSVDict.CSVDictException
+     */
+    public static CSVDict fromSnapshot(String resource, ClassLoader cl)
+        throws CSVDictException
+    {
+        return new CSVDict(resource, cl);
+    }
+
+    /**
+     * Gets the dictionary of a CSV file on the class path, loading it only if
+     * no other caller has. Every caller that asks for the same resource,
+     * delimiter and key column gets the same dictionary, and callers that ask
+     * while it is loading wait for that one load. A dictionary that no caller
+     * still holds may be freed when memory runs short, and is loaded again
+     * when next asked for. The file is found with the context class loader of
+     * the calling thread, or the class loader of this class if it has none.
+     *
+     * @param resource the name of the CSV file
+     * @param delimiter the column delimiter in the CSV file
+     * @param keyIndex the zero-based index of the column that is to be used as
+     *                 the key
+     * @return the shared dictionary, which callers must not change
+     * @throws CSVDict.CSVDictException
+     */
+    public static CSVDict shared(String resource, char delimiter, int keyIndex)
+        throws CSVDictException
+    {
+        ClassLoader cl = Thread.currentThread().getContextClassLoader();
+        return shared(resource, delimiter, keyIndex, cl != null ? cl : CSVDict.class.getClassLoader());
+    }
+
+    /**
+     * Gets the dictionary of a CSV file on the class path, loading it only if
+     * no other caller has. See shared without a class loader.
+     *
+     * @param resource the name of the CSV file
+     * @param delimiter the column delimiter in the CSV file
+     * @param keyIndex the zero-based index of the column that is to be used as
+     *                 the key
+     * @param cl the CSV file must be on this class loader's classpath
+     * @return the shared dictionary, which callers must not change
+     * @throws CSVDict.CSVDictException
+     */
+    public static CSVDict shared(String resource, char delimiter, int keyIndex, ClassLoader cl)
+        throws CSVDictException
+    {
+        return SharedDicts.get(resource, delimiter, keyIndex, cl);
+    }
+
+
+
+    // reads a snapshot on the class path, see fromSnapshot
+    CSVDict(String resource, ClassLoader cl)
+        throws CSVDictException
+    {
+        csvFileName = resource;
+        InputStream is = cl.getResourceAsStream(resource);
+        if (is == null)
+            throw new CSVDictException("class loader can't load " + resource);
+        try {
+            try {
+                Snapshot snapshot = new Snapshot(null, '\0', 0);
+                ColumnTable restored = snapshot.read(is);
+                loadHeader(snapshot.header(), snapshot.keyIndex());
+                restoreTable(restored, new LoadOptions().setStorage(LoadOptions.Storage.COLUMNAR));
+            } finally {
+                is.close();
+            }
+        } catch (IOException e) {
+            throw new CSVDictException(e);
+        }
+    }
+
+
+
+    // a dictionary with the header and settings of base over a table with the
+    // same keys in the same order, see ReloadableCSVDict. The indexes base
+    // has are built again over the new table.
+    CSVDict(CSVDict base, Table table)
+    {
+        csvFileName = base.csvFileName;
+        fieldNames = base.fieldNames;
+        nameToPosMap = base.nameToPosMap;
+        nCols = base.nCols;
+        keyFieldName = base.keyFieldName;
+        keyIndex = base.keyIndex;
+        keyIndexes = base.keyIndexes;
+        autoIndex = base.autoIndex;
+        // lookups keep being counted where they were
+        metrics = base.metrics;
+        this.table = table;
+        valueIndexes = new ValueIndex[nCols];
+        rangeIndexes = new RangeIndex[nCols];
+        bitmapIndexes = new BitmapIndex[nCols];
+        for (int pos = 0; pos < nCols; pos++) {
+            if (base.valueIndexes[pos] != null)
+                valueIndex(pos, true);
+            if (base.rangeIndexes[pos] != null)
+                rangeIndex(pos, true);
+            if (base.bitmapIndexes[pos] != null)
+                bitmapIndex(pos, Integer.MAX_VALUE);
+        }
+    }
+
+
+
+    /**
+     * Writes the table as a snapshot that fromSnapshot can read
+     */
+    void writeSnapshot(File file, char delimiter)
+        throws IOException
+    {
+        new Snapshot(file, delimiter, keyIndex).write(fieldNames, columnTable());
+    }
+
+
+
+    // the table in columnar storage, built from the rows if need be
+    private ColumnTable columnTable()
+    {
+        if (table instanceof ColumnTable)
+            return (ColumnTable)table;
+        List<String[]> rows = new ArrayList<String[]>(table.size());
+        for (int row = 0; row < table.size(); row++) {
+            String[] cells = new String[nCols];
+            for (int pos = 0; pos < nCols; pos++)
+                cells[pos] = table.getString(row, pos);
+            rows.add(cells);
+        }
+        return new ColumnTable(rows, nCols, keyIndex);
     }
 
 
 
-    private String getLine(BufferedReader br)
+    private void loadCSV(RecordSource tokenizer, int keyIndex, LoadOptions options)
         throws CSVDictException
     {
-        String inLine;
         try {
-            inLine = br.readLine();
-            while (inLine != null && (inLine.isEmpty() || inLine.charAt(0) == COMMENT_CHAR || inLine.trim().isEmpty()))
-                inLine = br.readLine();
+            // read away header line and validate key index
+            loadHeader(tokenizer.next(), keyIndex);
+            startRows(options);
+
+            // read rows into Hashtable using column at keyIndex as the key column
+            String[] row = null;
+            while ((row = tokenizer.next()) != null)
+                putRow(row);
         } catch (IOException ioe) {
             throw new CSVDictException(ioe);
         }
-        return inLine;
     }
 
 
 
-    private String[] parseLine(BufferedReader br, String delimRegex)
+    private void loadCSVParallel(MappedByteBuffer mapped, char delimiter, int keyIndex, LoadOptions options)
         throws CSVDictException
     {
-        String inLine = getLine(br);
-        if (inLine == null)
+        MappedCSVTokenizer tokenizer = new MappedCSVTokenizer(mapped, delimiter);
+        loadHeader(tokenizer.next(), keyIndex);
+        startRows(options);
+
+        StringPool strings = stringPool(options);
+        ParallelCSVLoader loader = new ParallelCSVLoader(mapped, tokenizer.position(), mapped.limit(), delimiter,
+                                                         options.getPool(), options.getMinChunkSize(),
+                                                         strings == null ? 0 : options.getDedupThreshold());
+        // chunks come back in file order, so insertion order is kept
+        for (List<String[]> chunk : loader.parse()) {
+            for (String[] row : chunk) {
+                // each chunk pooled its own strings, this shares them across chunks
+                if (strings != null)
+                    for (int pos = 0; pos < row.length; pos++)
+                        row[pos] = strings.get(pos, row[pos]);
+                putRow(row);
+            }
+        }
+    }
+
+
+
+    // the pool that shares repeated cell values while the file is read, or
+    // null. Off-heap tables copy the cells out as bytes, so they don't need one.
+    private static StringPool stringPool(LoadOptions options)
+    {
+        if (options.getDedupThreshold() <= 0 || options.getStorage() == LoadOptions.Storage.OFF_HEAP)
             return null;
-        
-        return inLine.split(delimRegex); 
+        return new StringPool(options.getDedupThreshold());
     }
 
 
 
-    private void loadCSV(BufferedReader br, char delimiter, int keyIndex)
+    private void loadLazy(MappedByteBuffer mapped, char delimiter, int keyIndex, LoadOptions options)
         throws CSVDictException
     {
-        //dict = new LinkedHashMap<String, String[]>();
-        dict = new LinkedHashMap<String, String[]>();
-        String delimStr = new Character(delimiter).toString();
-        String delimRegex = delimStr + "(?=([^\"]*\"[^\"]*\")*[^\"]*$)";        
+        MappedCSVTokenizer tokenizer = new MappedCSVTokenizer(mapped, delimiter);
+        loadHeader(tokenizer.next(), keyIndex);
+        table = new LazyTable(mapped, tokenizer.position(), delimiter, keyIndex, options.getRowCacheSize());
+    }
+
+
+
+    // off-heap tables take the rows as they are read, the others are built
+    // from dict once the file is read, see buildTable
+    private void startRows(LoadOptions options)
+    {
+        if (options.getStorage() == LoadOptions.Storage.OFF_HEAP) {
+            offHeap = new OffHeapTable(nCols, keyIndex);
+            dict = null;
+        }
+    }
+
+
+
+    private void putRow(String[] row)
+    {
+        // the missing cells of a short row read as empty in every storage,
+        // as lazy storage reads them from the file
+        if (row.length < nCols) {
+            int length = row.length;
+            row = Arrays.copyOf(row, nCols);
+            Arrays.fill(row, length, nCols, "");
+        }
+        if (offHeap != null)
+            offHeap.add(row);
+        else
+            dict.put(keyIndexes == null ? row[keyIndex] : compositeKey(row), row);
+    }
 
-        // read away header line and validate key index
-        fieldNames = parseLine(br, delimRegex);
+
+
+    // A composite key is only joined into one String while the file is
+    // loaded, so that rows with the same parts replace each other as rows
+    // with the same key do. Lookups hash the parts, see CompositeKeyIndex.
+    private String compositeKey(String[] row)
+    {
+        StringBuilder key = new StringBuilder(row[keyIndexes[0]]);
+        for (int i = 1; i < keyIndexes.length; i++)
+            key.append('\0').append(row[keyIndexes[i]]);
+        return key.toString();
+    }
+
+
+
+    private void setKeyIndexes(int[] keyIndexes, LoadOptions options)
+    {
+        if (keyIndexes.length == 0)
+            throw new IllegalArgumentException("no key columns");
+        if (keyIndexes.length == 1)
+            return;
+        if (options.getStorage() == LoadOptions.Storage.OFF_HEAP || options.getStorage() == LoadOptions.Storage.LAZY
+                || options.getSnapshotPath() != null)
+            throw new IllegalArgumentException("composite keys need row or columnar storage and no snapshot");
+        this.keyIndexes = keyIndexes.clone();
+    }
+
+
+
+    private void loadHeader(String[] header, int keyIndex)
+        throws CSVDictException
+    {
+        dict = new LinkedHashMap<String, String[]>();
+        fieldNames = header;
+        if (fieldNames == null)
+            throw new CSVDictException("no header row in " + csvFileName);
         // build name-to-pos map
         nameToPosMap = new HashMap<String, Integer>();
         for (int pos = 0; pos < fieldNames.length; pos++)
@@ -190,12 +592,91 @@ public class CSVDict
         nCols = fieldNames.length;
         if (keyIndex >= nCols || keyIndex < 0)
             throw new RuntimeException("trying to key CSV file with " + nCols + " columns on column " + (keyIndex + 1));
+        if (keyIndexes != null)
+            for (int index : keyIndexes)
+                if (index >= nCols || index < 0)
+                    throw new RuntimeException("trying to key CSV file with " + nCols + " columns on column " + (index + 1));
         keyFieldName = fieldNames[keyIndex];
+        this.keyIndex = keyIndex;
+    }
 
-        // read rows into Hashtable using column at keyIndex as the key column
-        String[] row = null;
-        while ((row = parseLine(br, delimRegex)) != null)
-            dict.put(row[keyIndex], row);
+
+
+    private void buildTable(LoadOptions options)
+    {
+        valueIndexes = new ValueIndex[nCols];
+        rangeIndexes = new RangeIndex[nCols];
+        bitmapIndexes = new BitmapIndex[nCols];
+        autoIndex = options.isAutoIndex();
+        if (table instanceof LazyTable) {
+            // indexed while the file was scanned
+        } else if (options.getStorage() == LoadOptions.Storage.OFF_HEAP) {
+            table = offHeap;
+            offHeap = null;
+        } else if (options.getStorage() == LoadOptions.Storage.COLUMNAR)
+            table = new ColumnTable(dict, nCols);
+        else
+            table = new RowTable(dict, nCols);
+        // the table holds the rows from here on
+        dict = null;
+    }
+
+
+
+    // uses a table read from a snapshot, as buildTable would have built it
+    private void restoreTable(ColumnTable restored, LoadOptions options)
+    {
+        if (options.getStorage() == LoadOptions.Storage.COLUMNAR) {
+            valueIndexes = new ValueIndex[nCols];
+            rangeIndexes = new RangeIndex[nCols];
+            bitmapIndexes = new BitmapIndex[nCols];
+            autoIndex = options.isAutoIndex();
+            table = restored;
+            dict = null;
+            return;
+        }
+        startRows(options);
+        for (int row = 0; row < restored.size(); row++) {
+            String[] cells = new String[nCols];
+            for (int pos = 0; pos < nCols; pos++)
+                cells[pos] = restored.getString(row, pos);
+            putRow(cells);
+        }
+        buildTable(options);
+    }
+
+
+
+    // starts the metrics, if the options turn them on, with the load just done
+    private void loaded(LoadOptions options, long start, long bytes)
+    {
+        if (options.isMetrics()) {
+            metrics = new CSVDictMetrics(csvFileName, options.getListener());
+            metrics.loaded(this, System.nanoTime() - start, bytes);
+        }
+    }
+
+
+
+    /**
+     * @return the counts of loads and lookups, or null unless they were
+     *         turned on with {@link LoadOptions#setMetrics}
+     */
+    public CSVDictMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+
+
+    // a snapshot that can't be written is left to be written by a later load
+    private void writeSnapshot(Snapshot snapshot)
+    {
+        try {
+            snapshot.write(fieldNames, columnTable());
+        } catch (IOException e) {
+            logger.warning("can't write snapshot of " + csvFileName + ": " + e.getMessage());
+        }
     }
 
 
@@ -213,14 +694,107 @@ public class CSVDict
     public String getString(String key, int pos)
         throws CSVDictException
     {
-        if (pos >= nCols)
-            throw new CSVDictException(new IllegalArgumentException("pos (" + pos + ") >= number of columns (" + nCols + ")"));
+        checkPos(pos);
+
+        return table.getString(findRow(key, CSVDictMetrics.GET_STRING), pos);
+    }
+
+
+
+    /**
+     * Looks up the row of a key once, so that its cells can be read by row
+     * number with getStringAt and the other methods ending in At.
+     *
+     * @param key the value of the key field that selects the row
+     * @return the zero-based row number, in file order
+     * @throws CSVDictException if no row is found that matches key value
+     */
+    public int getRowId(String key)
+        throws CSVDictException
+    {
+        return findRow(key, CSVDictMetrics.GET_ROW_ID);
+    }
+
+
+
+    // the row number of the key, or an exception if there is no such row
+    private int findRow(String key, int accessor)
+        throws CSVDictException
+    {
+        int row = table.find(key);
+        if (metrics != null)
+            counted(accessor, key, row);
+        if (row < 0)
+            throw missingRow(key);
+        return row;
+    }
+
+
+
+    // counts a lookup by one of the getters
+    void counted(int accessor, Object key, int row)
+    {
+        metrics.lookedUp(accessor);
+        if (row < 0)
+            metrics.missed(this, accessor, key);
+    }
+
+
+
+    // The cell as a number, as the table parses it. With metrics on, a
+    // result that may mean the cell isn't a number is checked and counted.
+    float readFloat(int row, int pos, int accessor)
+    {
+        float value = table.getFloat(row, pos);
+        if (value != value && metrics != null)
+            metrics.parsed(this, accessor, rowKey(row), pos, table.getString(row, pos), false);
+        return value;
+    }
+
+    int readInteger(int row, int pos, int accessor)
+    {
+        int value = table.getInteger(row, pos);
+        if (value == Integer.MAX_VALUE && metrics != null)
+            metrics.parsed(this, accessor, rowKey(row), pos, table.getString(row, pos), true);
+        return value;
+    }
+
+    double readDouble(int row, int pos, int accessor)
+    {
+        double value = table.getDouble(row, pos);
+        if (value != value && metrics != null)
+            metrics.parsed(this, accessor, rowKey(row), pos, table.getString(row, pos), false);
+        return value;
+    }
+
+
+
+    // the key of a row as lookups report it, with the parts of a composite
+    // key joined by commas
+    private String rowKey(int row)
+    {
+        if (keyIndexes == null)
+            return table.getString(row, keyIndex);
+        StringBuilder key = new StringBuilder(table.getString(row, keyIndexes[0]));
+        for (int i = 1; i < keyIndexes.length; i++)
+            key.append(", ").append(table.getString(row, keyIndexes[i]));
+        return key.toString();
+    }
+
 
-        String[] selectedRow = dict.get(key);
-        if (selectedRow == null)
-            throw new CSVDictException("no row in " + csvFileName + " with " + keyFieldName + " value " + key);
 
-        return selectedRow[pos];
+    CSVDictException missingRow(Object key)
+    {
+        return new CSVDictException("no row in " + csvFileName + " with " + keyFieldName + " value " + key);
+    }
+
+
+
+    void checkPos(int pos)
+        throws CSVDictException
+    {
+        if (pos >= nCols)
+            throw new CSVDictException(new IllegalArgumentException("pos (" + pos + ") >= number of columns (" + nCols + ")"));
     }
     
     
@@ -239,14 +813,8 @@ public class CSVDict
     public Float getFloat(String key, int pos)
         throws CSVDictException
     {
-        String str = getString(key, pos);
-        if (str == null || str.trim().isEmpty())
-            return Float.NaN;
-        try {
-            return Float.valueOf(str);
-        } catch (NumberFormatException e) {
-            return Float.NaN;
-        }
+        checkPos(pos);
+        return readFloat(findRow(key, CSVDictMetrics.GET_FLOAT), pos, CSVDictMetrics.GET_FLOAT);
     }
 
 
@@ -265,33 +833,105 @@ public class CSVDict
     public Integer getInteger(String key, int pos)
         throws CSVDictException
     {
-        String str = getString(key, pos);
-        if (str == null || str.trim().isEmpty())
-            return Integer.MAX_VALUE;
-        try {
-            return Integer.valueOf(str);
-        } catch (NumberFormatException e) {
-            return Integer.MAX_VALUE;
-        }
+        checkPos(pos);
+        return readInteger(findRow(key, CSVDictMetrics.GET_INTEGER), pos, CSVDictMetrics.GET_INTEGER);
     }
 
 
 
     /**
-     * @return the number of rows in the CSV file not including the header row
+     * Like getFloat but without boxing. Each cell is parsed only once, the
+     * first time any cell of its column is read as a float.
+     *
+     * @param key the value of the key field that selects the row
+     * @param pos the zero-based position in the row of the desired value
+     * @return the selected cell as a float, or NaN if the cell is empty or
+     *         not a number
+     * @throws CSVDictException if no row is found that matches key
+     *         value or pos is greater than number of columns
      */
-    public int getRowCount()
+    public float getFloatValue(String key, int pos)
+        throws CSVDictException
     {
-        return dict.size();
+        checkPos(pos);
+        return readFloat(findRow(key, CSVDictMetrics.GET_FLOAT_VALUE), pos, CSVDictMetrics.GET_FLOAT_VALUE);
     }
 
 
 
     /**
+     * Like getInteger but without boxing. Each cell is parsed only once.
      *
-     * @return the field names form the header row in the CSV file
-     */
-    public String[] getFieldNames()
+     * @param key the value of the key field that selects the row
+     * @param pos the zero-based position in the row of the desired value
+     * @return the selected cell as an int, or Integer.MAX_VALUE if the cell
+     *         is empty or not an int
+     * @throws CSVDictException if no row is found that matches key
+     *         value or pos is greater than number of columns
+     */
+    public int getIntValue(String key, int pos)
+        throws CSVDictException
+    {
+        checkPos(pos);
+        return readInteger(findRow(key, CSVDictMetrics.GET_INT_VALUE), pos, CSVDictMetrics.GET_INT_VALUE);
+    }
+
+
+
+    /**
+     * This method is for accessing the value as a double. Each cell is
+     * parsed only once.
+     *
+     * @param key the value of the key field that selects the row
+     * @param pos the zero-based position in the row of the desired value
+     * @return the selected cell as a double, or NaN if the cell is empty or
+     *         not a number
+     * @throws CSVDictException if no row is found that matches key
+     *         value or pos is greater than number of columns
+     */
+    public double getDoubleValue(String key, int pos)
+        throws CSVDictException
+    {
+        checkPos(pos);
+        return readDouble(findRow(key, CSVDictMetrics.GET_DOUBLE_VALUE), pos, CSVDictMetrics.GET_DOUBLE_VALUE);
+    }
+
+
+
+    /**
+     * Tells a cell that holds NaN apart from one that is empty or not a
+     * number, which getFloatValue and getDoubleValue both return as NaN.
+     *
+     * @param key the value of the key field that selects the row
+     * @param pos the zero-based position in the row of the desired value
+     * @return true if the selected cell is a number
+     * @throws CSVDictException if no row is found that matches key
+     *         value or pos is greater than number of columns
+     */
+    public boolean isNumeric(String key, int pos)
+        throws CSVDictException
+    {
+        checkPos(pos);
+        return table.isNumeric(findRow(key, CSVDictMetrics.IS_NUMERIC), pos);
+    }
+
+
+
+    /**
+     * @return the number of rows in the CSV file not including the header row
+     */
+    public int getRowCount()
+    {
+        return table.size();
+    }
+
+
+
+    /**
+     *
+     * @return the field names form the header row in the CSV file
+     */
+    public String[] getFieldNames()
     {
         return fieldNames;
     }
@@ -305,10 +945,9 @@ public class CSVDict
     {
         if (colPos >= fieldNames.length)
             return null;
-        String[] col = new String[dict.size()];
-        int rNum = 0;
-        for (String[] row : dict.values())
-            col[rNum++] = row[colPos];
+        String[] col = new String[table.size()];
+        for (int row = 0; row < col.length; row++)
+            col[row] = table.getString(row, colPos);
         return col;
     }
     
@@ -357,18 +996,850 @@ public class CSVDict
             return null;
         }
             
-        List<String> col = new ArrayList<String>();
-        for (String[] row : dict.values()){
-            if(row[filterColPos].equals(filterValue)){
-                col.add(row[colPos]);
+        int[] rows = findRows(filterColPos, filterValue);
+        String[] items = new String[rows.length];
+        for (int i = 0; i < rows.length; i++)
+            items[i] = table.getString(rows[i], colPos);
+        return items;
+    }
+
+
+
+    /**
+     * Builds a hash index on a column so that getFilteredColumn can find the
+     * rows holding a filter value without reading the whole column. Calling
+     * this again for the same column does nothing.
+     *
+     * @param fieldName the field name in the header row specifying the column
+     * @throws CSVDictException if there is no such field
+     */
+    public void createIndex(String fieldName)
+        throws CSVDictException
+    {
+        createIndex(fieldPos(fieldName));
+    }
+
+    /**
+     * Builds a hash index on a column. See createIndex with a String argument.
+     *
+     * @param colPos zero-based column number
+     * @throws CSVDictException if colPos is greater than number of columns
+     */
+    public void createIndex(int colPos)
+        throws CSVDictException
+    {
+        checkColPos(colPos);
+        valueIndex(colPos, true);
+    }
+
+
+
+    /**
+     * @param fieldName the field name in the header row specifying the column
+     * @return true if the column has a hash index
+     */
+    public boolean hasIndex(String fieldName)
+    {
+        int colPos = getColPos(fieldName);
+        return colPos >= 0 && valueIndexes[colPos] != null;
+    }
+
+
+
+    // the rows holding the value in the column, in ascending order, read from
+    // the column's index if it has one. The array must not be changed.
+    int[] findRows(int pos, String value)
+    {
+        ValueIndex index = valueIndex(pos, autoIndex);
+        if (index != null)
+            return index.rows(value);
+
+        int n = 0;
+        int[] rows = new int[16];
+        for (int row = 0; row < table.size(); row++) {
+            if (table.getString(row, pos).equals(value)) {
+                if (n == rows.length)
+                    rows = Arrays.copyOf(rows, n * 2);
+                rows[n++] = row;
             }
         }
-        
-        String[] items = col.toArray(new String[col.size()]);
-        return items;
+        return Arrays.copyOf(rows, n);
+    }
+
+
+
+    // the hash index on the column, built first if it's missing and create is set
+    private ValueIndex valueIndex(int pos, boolean create)
+    {
+        ValueIndex index = valueIndexes[pos];
+        if (index != null || !create)
+            return index;
+        synchronized (this) {
+            ValueIndex[] indexes = valueIndexes;
+            if (indexes[pos] == null) {
+                indexes = indexes.clone();
+                indexes[pos] = new ValueIndex(table, pos);
+                valueIndexes = indexes;
+            }
+            return indexes[pos];
+        }
+    }
+
+
+
+    /**
+     * Builds a sorted index on a numeric column so that range queries on it
+     * take a binary search instead of reading the whole column. Calling this
+     * again for the same column does nothing.
+     *
+     * @param fieldName the field name in the header row specifying the column
+     * @throws CSVDictException if there is no such field
+     */
+    public void createRangeIndex(String fieldName)
+        throws CSVDictException
+    {
+        createRangeIndex(fieldPos(fieldName));
+    }
+
+    /**
+     * Builds a sorted index on a numeric column. See createRangeIndex with a
+     * String argument.
+     *
+     * @param colPos zero-based column number
+     * @throws CSVDictException if colPos is greater than number of columns
+     */
+    public void createRangeIndex(int colPos)
+        throws CSVDictException
+    {
+        checkColPos(colPos);
+        rangeIndex(colPos, true);
+    }
+
+
+
+    /**
+     * @param fieldName the field name in the header row specifying the column
+     * @return true if the column has a sorted index
+     */
+    public boolean hasRangeIndex(String fieldName)
+    {
+        int colPos = getColPos(fieldName);
+        return colPos >= 0 && rangeIndexes[colPos] != null;
+    }
+
+
+
+    /**
+     * Builds a bitmap index on a column: a compressed set of rows for each
+     * distinct value. Queries whose conditions are on bitmap-indexed
+     * columns are answered by combining the sets, and their counts without
+     * reading any rows. Meant for flag and category columns with few
+     * distinct values. Calling this again for the same column does nothing.
+     *
+     * @param fieldName the field name in the header row specifying the column
+     * @throws CSVDictException if there is no such field
+     */
+    public void createBitmapIndex(String fieldName)
+        throws CSVDictException
+    {
+        createBitmapIndex(fieldPos(fieldName));
+    }
+
+    /**
+     * Builds a bitmap index on a column. See createBitmapIndex with a String
+     * argument.
+     *
+     * @param colPos zero-based column number
+     * @throws CSVDictException if colPos is greater than number of columns
+     */
+    public void createBitmapIndex(int colPos)
+        throws CSVDictException
+    {
+        checkColPos(colPos);
+        bitmapIndex(colPos, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Builds a bitmap index on every column with at most 64 distinct values,
+     * such as the flag and category columns of a table.
+     *
+     * @return the field names of the columns that have a bitmap index
+     */
+    public String[] createBitmapIndexes()
+    {
+        List<String> indexed = new ArrayList<String>();
+        for (int pos = 0; pos < nCols; pos++)
+            if (bitmapIndex(pos, BitmapIndex.MAX_AUTO_VALUES) != null)
+                indexed.add(fieldNames[pos]);
+        return indexed.toArray(new String[indexed.size()]);
+    }
+
+
+
+    /**
+     * @param fieldName the field name in the header row specifying the column
+     * @return true if the column has a bitmap index
+     */
+    public boolean hasBitmapIndex(String fieldName)
+    {
+        int colPos = getColPos(fieldName);
+        return colPos >= 0 && bitmapIndexes[colPos] != null;
+    }
+
+
+
+    // the bitmap index on the column, or null if it has none
+    BitmapIndex bitmapIndex(int pos)
+    {
+        return bitmapIndexes[pos];
+    }
+
+    // the bitmap index on the column, built first if it's missing and the
+    // column has at most maxValues distinct values
+    private BitmapIndex bitmapIndex(int pos, int maxValues)
+    {
+        BitmapIndex index = bitmapIndexes[pos];
+        if (index != null)
+            return index;
+        synchronized (this) {
+            BitmapIndex[] indexes = bitmapIndexes;
+            if (indexes[pos] == null) {
+                index = BitmapIndex.build(table, pos, maxValues);
+                if (index == null)
+                    return null;
+                indexes = indexes.clone();
+                indexes[pos] = index;
+                bitmapIndexes = indexes;
+            }
+            return indexes[pos];
+        }
+    }
+
+
+
+    /**
+     * Finds the rows whose value in a column is between min and max,
+     * inclusive. Empty cells and cells that aren't numbers never match.
+     *
+     * @param fieldName the field name in the header row specifying the column
+     * @param min the smallest value to match
+     * @param max the largest value to match
+     * @return the zero-based row numbers, in ascending order of the value
+     * @throws CSVDictException if there is no such field
+     */
+    public int[] getRowIds(String fieldName, double min, double max)
+        throws CSVDictException
+    {
+        return getRowIds(fieldPos(fieldName), min, true, max, true);
+    }
+
+    /**
+     * Finds the rows whose value in a column is within a range. For "TreeBD
+     * &gt; 0.05" pass 0.05 as an exclusive min and positive infinity as max.
+     * Empty cells and cells that aren't numbers never match. The column's
+     * sorted index is used if it has one.
+     *
+     * @param colPos zero-based column number
+     * @param min the lower end of the range
+     * @param minInclusive true if a value equal to min matches
+     * @param max the upper end of the range
+     * @param maxInclusive true if a value equal to max matches
+     * @return the zero-based row numbers, in ascending order of the value;
+     *         rows with equal values are in file order
+     * @throws CSVDictException if colPos is greater than number of columns
+     */
+    public int[] getRowIds(int colPos, double min, boolean minInclusive, double max, boolean maxInclusive)
+        throws CSVDictException
+    {
+        checkColPos(colPos);
+        RangeIndex index = rangeIndex(colPos, autoIndex);
+        if (index != null)
+            return index.rows(min, minInclusive, max, maxInclusive);
+
+        int n = 0;
+        int[] rows = new int[16];
+        double[] values = new double[16];
+        for (int row = 0; row < table.size(); row++) {
+            double v = table.getDouble(row, colPos);
+            if ((minInclusive ? v >= min : v > min) && (maxInclusive ? v <= max : v < max)) {
+                if (n == rows.length) {
+                    rows = Arrays.copyOf(rows, n * 2);
+                    values = Arrays.copyOf(values, n * 2);
+                }
+                rows[n] = row;
+                values[n++] = v;
+            }
+        }
+        int[] order = RangeIndex.sortOrder(values, n);
+        int[] sorted = new int[n];
+        for (int i = 0; i < n; i++)
+            sorted[i] = rows[order[i]];
+        return sorted;
+    }
+
+
+
+    /**
+     * Gets the specified column for the rows whose value in another column is
+     * between min and max, inclusive. An example would be, select all values
+     * in column fieldName where 20 &lt;= PDWood &lt;= 30.
+     *
+     * @param fieldName the field name in the header row specifying the column to get
+     * @param rangeColumn the field name in the header row specifying the
+     * numeric column to filter on
+     * @param min the smallest value to match
+     * @param max the largest value to match
+     * @return the values of the specified column, in ascending order of the
+     *         rangeColumn value
+     * @throws CSVDictException if either field doesn't exist
+     */
+    public String[] getRangeFilteredColumn(String fieldName, String rangeColumn, double min, double max)
+        throws CSVDictException
+    {
+        int colPos = fieldPos(fieldName);
+        return getColumn(colPos, getRowIds(rangeColumn, min, max));
+    }
+
+
+
+    /**
+     * Gets the specified column for the given rows
+     *
+     * @param colPos zero-based column number
+     * @param rowIds zero-based row numbers, as returned by getRowIds
+     * @return the values of the column in the order of rowIds
+     * @throws CSVDictException if colPos is greater than number of columns
+     *         or a row doesn't exist
+     */
+    public String[] getColumn(int colPos, int[] rowIds)
+        throws CSVDictException
+    {
+        checkColPos(colPos);
+        String[] col = new String[rowIds.length];
+        for (int i = 0; i < rowIds.length; i++)
+            col[i] = table.getString(checkRow(rowIds[i]), colPos);
+        return col;
+    }
+
+
+
+    /**
+     * Computes the count, sum, min, max, mean and distinct count of the
+     * numeric cells of a column.
+     *
+     * @param fieldName the field name in the header row specifying the column
+     * @return the statistics of the column
+     * @throws CSVDictException if there is no such field
+     */
+    public ColumnStats aggregate(String fieldName)
+        throws CSVDictException
+    {
+        return aggregate(fieldPos(fieldName), null);
+    }
+
+    /**
+     * Computes the statistics of a column over the rows the filter accepts.
+     * The cells are read as already parsed numbers rather than copied out as
+     * Strings, and tables of more than 16384 rows are split over the common
+     * fork-join pool, so the filter must be safe to call from several
+     * threads.
+     *
+     * @param colPos zero-based column number
+     * @param filter accepts the rows to include, or null for all rows
+     * @return the statistics of the column
+     * @throws CSVDictException if colPos is greater than number of columns
+     */
+    public ColumnStats aggregate(int colPos, Predicate<? super Row> filter)
+        throws CSVDictException
+    {
+        checkColPos(colPos);
+        ColumnStats stats = Aggregation.run(table, colPos, -1, rowFilter(filter)).get(null);
+        return stats != null ? stats : new ColumnStats();
+    }
+
+    /**
+     * Computes the statistics of a column for each value of another column.
+     * An example would be, the mean PDWood for each FlammID.
+     *
+     * @param fieldName the field name in the header row specifying the column
+     * @param groupBy the field name in the header row specifying the column
+     *                whose values form the groups
+     * @param filter accepts the rows to include, or null for all rows
+     * @return the statistics by group, in order of each group's first row.
+     *         Groups with no numeric cells have a count of 0.
+     * @throws CSVDictException if either field doesn't exist
+     */
+    public Map<String, ColumnStats> aggregate(String fieldName, String groupBy, Predicate<? super Row> filter)
+        throws CSVDictException
+    {
+        return aggregate(fieldPos(fieldName), fieldPos(groupBy), filter);
+    }
+
+    /**
+     * Computes the statistics of a column for each value of another column.
+     * See aggregate with String arguments.
+     *
+     * @param colPos zero-based column number
+     * @param groupByPos zero-based column number of the column whose values
+     *                   form the groups
+     * @param filter accepts the rows to include, or null for all rows
+     * @return the statistics by group, in order of each group's first row
+     * @throws CSVDictException if either position is greater than number of
+     *         columns
+     */
+    public Map<String, ColumnStats> aggregate(int colPos, int groupByPos, Predicate<? super Row> filter)
+        throws CSVDictException
+    {
+        checkColPos(colPos);
+        checkColPos(groupByPos);
+        return Aggregation.run(table, colPos, groupByPos, rowFilter(filter));
+    }
+
+
+
+    /**
+     * Prepares a query that selects rows by a condition on any number of
+     * columns and returns the given fields of the rows that match. An
+     * example would be, select ScientificName and PDWood where FlammID is 2
+     * or 3 and PDWood &gt; 25:
+     * <pre>
+     * Query q = dict.query(Condition.and(Condition.in("FlammID", "2", "3"),
+     *                                    Condition.gt("PDWood", 25)),
+     *                      "ScientificName", "PDWood");
+     * String[][] columns = q.getColumns();
+     * </pre>
+     * Keep the query to run it again: the condition is checked against the
+     * header only once. Conditions on columns with a bitmap index, see
+     * createBitmapIndex, are worked out here as sets of rows; when the whole
+     * condition is, or it is an and of parts some of which are, only the
+     * rows in the set are read when the query runs.
+     *
+     * @param where the condition the rows must meet, or null for all rows
+     * @param fieldNames the field names in the header row of the columns to
+     *                   return
+     * @return the query
+     * @throws CSVDictException if a field in the condition or the output
+     *         doesn't exist
+     */
+    public Query query(Condition where, String... fieldNames)
+        throws CSVDictException
+    {
+        int[] outputs = new int[fieldNames.length];
+        for (int j = 0; j < outputs.length; j++)
+            outputs[j] = fieldPos(fieldNames[j]);
+        if (where == null)
+            return new Query(table, null, null, outputs);
+        if (!(where instanceof Condition.And)) {
+            Bitmap rows = where.bitmap(this);
+            return rows != null ? new Query(table, rows, null, outputs) : new Query(table, null, where.bind(this), outputs);
+        }
+
+        // and the indexed parts' sets, and test the others row by row, so
+        // each part is evaluated once
+        Bitmap rows = null;
+        List<Condition> rest = new ArrayList<Condition>();
+        for (Condition part : ((Condition.And)where).conditions) {
+            Bitmap partRows = part.bitmap(this);
+            if (partRows == null)
+                rest.add(part);
+            else
+                rows = rows == null ? partRows : rows.and(partRows);
+        }
+        if (rest.isEmpty())
+            return new Query(table, rows, null, outputs);
+        Condition others = rest.size() == 1 ? rest.get(0) : Condition.and(rest.toArray(new Condition[rest.size()]));
+        return new Query(table, rows, others.bind(this), outputs);
+    }
+
+
+
+    // the filter as a test of row numbers, or null for all rows
+    private IntPredicate rowFilter(final Predicate<? super Row> filter)
+    {
+        if (filter == null)
+            return null;
+        final Table rows = table;
+        return row -> filter.test(new Row(rows, row, nameToPosMap));
+    }
+
+
+
+    /**
+     * This method is for accessing a value by row number as a String
+     *
+     * @param row the zero-based row number, as returned by getRowIds
+     * @param pos the zero-based position in the row of the desired value
+     * @return the selected cell in the CSV file as a String
+     * @throws CSVDictException if there is no such row or pos is greater
+     *         than number of columns
+     */
+    public String getStringAt(int row, int pos)
+        throws CSVDictException
+    {
+        checkColPos(pos);
+        return table.getString(checkRow(row), pos);
+    }
+
+    /**
+     * This method is for accessing a value by row number as a float
+     *
+     * @param row the zero-based row number, as returned by getRowIds
+     * @param pos the zero-based position in the row of the desired value
+     * @return the selected cell as a float, or NaN if the cell is empty or
+     *         not a number
+     * @throws CSVDictException if there is no such row or pos is greater
+     *         than number of columns
+     */
+    public float getFloatValueAt(int row, int pos)
+        throws CSVDictException
+    {
+        checkColPos(pos);
+        return table.getFloat(checkRow(row), pos);
+    }
+
+    /**
+     * This method is for accessing a value by row number as an int
+     *
+     * @param row the zero-based row number, as returned by getRowIds
+     * @param pos the zero-based position in the row of the desired value
+     * @return the selected cell as an int, or Integer.MAX_VALUE if the cell
+     *         is empty or not an int
+     * @throws CSVDictException if there is no such row or pos is greater
+     *         than number of columns
+     */
+    public int getIntValueAt(int row, int pos)
+        throws CSVDictException
+    {
+        checkColPos(pos);
+        return table.getInteger(checkRow(row), pos);
+    }
+
+    /**
+     * This method is for accessing a value by row number as a double
+     *
+     * @param row the zero-based row number, as returned by getRowIds
+     * @param pos the zero-based position in the row of the desired value
+     * @return the selected cell as a double, or NaN if the cell is empty or
+     *         not a number
+     * @throws CSVDictException if there is no such row or pos is greater
+     *         than number of columns
+     */
+    public double getDoubleValueAt(int row, int pos)
+        throws CSVDictException
+    {
+        checkColPos(pos);
+        return table.getDouble(checkRow(row), pos);
+    }
+
+
+
+    /**
+     * Reads one column for a whole batch of keys. A key that isn't found
+     * gets NaN and is reported in the returned bits rather than thrown for.
+     * Batches of more than 32768 keys are split across the common fork-join
+     * pool.
+     *
+     * @param keys the values of the key field that select the rows
+     * @param pos the zero-based position in the row of the desired values
+     * @param out receives the cell of each key as a float, or NaN if the
+     *            cell is empty or not a number
+     * @return the indexes in keys of the keys that weren't found
+     * @throws CSVDictException if pos is greater than number of columns
+     */
+    public BitSet getFloats(final String[] keys, final int pos, final float[] out)
+        throws CSVDictException
+    {
+        checkPos(pos);
+        checkBatch(keys.length, out.length);
+        return batch(keys.length, (rows, from, to) -> {
+            for (int i = from; i < to; i++) {
+                int row = table.find(keys[i]);
+                rows[i] = row;
+                out[i] = row < 0 ? Float.NaN : readFloat(row, pos, CSVDictMetrics.GET_FLOATS);
+            }
+        }, CSVDictMetrics.GET_FLOATS, i -> keys[i]);
+    }
+
+    /**
+     * Reads several columns for a whole batch of keys, finding each key only
+     * once. See getFloats with one position.
+     *
+     * @param keys the values of the key field that select the rows
+     * @param positions the zero-based positions in the row of the desired
+     *                  values
+     * @param out out[j][i] receives the cell of keys[i] at positions[j]
+     * @return the indexes in keys of the keys that weren't found
+     * @throws CSVDictException if a position is greater than number of
+     *         columns
+     */
+    public BitSet getFloats(final String[] keys, final int[] positions, final float[][] out)
+        throws CSVDictException
+    {
+        if (out.length < positions.length)
+            throw new IllegalArgumentException("output holds " + out.length + " columns for " + positions.length
+                                               + " positions");
+        for (int j = 0; j < positions.length; j++) {
+            checkPos(positions[j]);
+            checkBatch(keys.length, out[j].length);
+        }
+        return batch(keys.length, (rows, from, to) -> {
+            for (int i = from; i < to; i++) {
+                int row = table.find(keys[i]);
+                rows[i] = row;
+                for (int j = 0; j < positions.length; j++)
+                    out[j][i] = row < 0 ? Float.NaN : readFloat(row, positions[j], CSVDictMetrics.GET_FLOATS);
+            }
+        }, CSVDictMetrics.GET_FLOATS, i -> keys[i]);
+    }
+
+    /**
+     * Reads one column for a whole batch of keys. See getFloats.
+     *
+     * @param keys the values of the key field that select the rows
+     * @param pos the zero-based position in the row of the desired values
+     * @param out receives the cell of each key as an int, or
+     *            Integer.MAX_VALUE if the cell is empty or not an int or the
+     *            key wasn't found
+     * @return the indexes in keys of the keys that weren't found
+     * @throws CSVDictException if pos is greater than number of columns
+     */
+    public BitSet getInts(final String[] keys, final int pos, final int[] out)
+        throws CSVDictException
+    {
+        checkPos(pos);
+        checkBatch(keys.length, out.length);
+        return batch(keys.length, (rows, from, to) -> {
+            for (int i = from; i < to; i++) {
+                int row = table.find(keys[i]);
+                rows[i] = row;
+                out[i] = row < 0 ? Integer.MAX_VALUE : readInteger(row, pos, CSVDictMetrics.GET_INTS);
+            }
+        }, CSVDictMetrics.GET_INTS, i -> keys[i]);
+    }
+
+    /**
+     * Reads one column for a whole batch of keys. See getFloats.
+     *
+     * @param keys the values of the key field that select the rows
+     * @param pos the zero-based position in the row of the desired values
+     * @param out receives the cell of each key as a double, or NaN if the
+     *            cell is empty or not a number or the key wasn't found
+     * @return the indexes in keys of the keys that weren't found
+     * @throws CSVDictException if pos is greater than number of columns
+     */
+    public BitSet getDoubles(final String[] keys, final int pos, final double[] out)
+        throws CSVDictException
+    {
+        checkPos(pos);
+        checkBatch(keys.length, out.length);
+        return batch(keys.length, (rows, from, to) -> {
+            for (int i = from; i < to; i++) {
+                int row = table.find(keys[i]);
+                rows[i] = row;
+                out[i] = row < 0 ? Double.NaN : readDouble(row, pos, CSVDictMetrics.GET_DOUBLES);
+            }
+        }, CSVDictMetrics.GET_DOUBLES, i -> keys[i]);
+    }
+
+
+
+    /**
+     * Fills part of a batch: finds the rows of keys from to to, stores them
+     * in rows, -1 where a key isn't found, and reads their cells.
+     */
+    interface BatchChunk
+    {
+        void fill(int[] rows, int from, int to);
+    }
+
+    // Fills a batch of n keys in chunks, in parallel for big batches, then
+    // counts it and returns the keys that weren't found. keyOf gives the
+    // key at an index, for listeners.
+    BitSet batch(int n, final BatchChunk chunk, int accessor, IntFunction<Object> keyOf)
+    {
+        final int[] rows = new int[n];
+        int nChunks = (n + BATCH_CHUNK - 1) / BATCH_CHUNK;
+        if (nChunks >= PARALLEL_BATCH_CHUNKS)
+            IntStream.range(0, nChunks).parallel().forEach(c -> chunk.fill(rows, c * BATCH_CHUNK,
+                                                                         Math.min(n, (c + 1) * BATCH_CHUNK)));
+        else
+            chunk.fill(rows, 0, n);
+        BitSet missing = new BitSet();
+        for (int i = 0; i < n; i++)
+            if (rows[i] < 0)
+                missing.set(i);
+        if (metrics != null) {
+            metrics.lookedUp(accessor, n);
+            for (int i = missing.nextSetBit(0); i >= 0; i = missing.nextSetBit(i + 1))
+                metrics.missed(this, accessor, keyOf.apply(i));
+        }
+        return missing;
+    }
+
+    static void checkBatch(int nKeys, int outLength)
+    {
+        if (outLength < nKeys)
+            throw new IllegalArgumentException("output holds " + outLength + " values for " + nKeys + " keys");
+    }
+
+
+
+    // the sorted index on the column, built first if it's missing and create is set
+    private RangeIndex rangeIndex(int pos, boolean create)
+    {
+        RangeIndex index = rangeIndexes[pos];
+        if (index != null || !create)
+            return index;
+        synchronized (this) {
+            RangeIndex[] indexes = rangeIndexes;
+            if (indexes[pos] == null) {
+                indexes = indexes.clone();
+                indexes[pos] = new RangeIndex(table, pos);
+                rangeIndexes = indexes;
+            }
+            return indexes[pos];
+        }
+    }
+
+
+
+    int fieldPos(String fieldName)
+        throws CSVDictException
+    {
+        int colPos = getColPos(fieldName);
+        if (colPos < 0)
+            throw new CSVDictException("no field " + fieldName + " in " + csvFileName);
+        return colPos;
+    }
+
+
+
+    void checkColPos(int pos)
+        throws CSVDictException
+    {
+        if (pos < 0)
+            throw new CSVDictException(new IllegalArgumentException("pos (" + pos + ") < 0"));
+        checkPos(pos);
+    }
+
+
+
+    int checkRow(int row)
+        throws CSVDictException
+    {
+        if (row < 0 || row >= table.size())
+            throw new CSVDictException(new IllegalArgumentException("row (" + row + ") not in [0, " + table.size() + ")"));
+        return row;
     }
     
     
+    /**
+     * Hands every row to the action, in file order. Nothing is copied: the
+     * rows read their cells from this dictionary.
+     *
+     * @param action receives each row
+     */
+    public void forEachRow(Consumer<? super Row> action)
+    {
+        spliterator().forEachRemaining(action);
+    }
+
+
+
+    /**
+     * @return the rows in file order, for use in a for-each loop
+     */
+    public Iterable<Row> rows()
+    {
+        return () -> Spliterators.iterator(spliterator());
+    }
+
+
+
+    /**
+     * @return a spliterator over the rows in file order, which splits in
+     *         halves for parallel streams
+     */
+    public Spliterator<Row> spliterator()
+    {
+        return new RowSpliterator(table, nameToPosMap, 0, table.size());
+    }
+
+
+
+    /**
+     * Streams the rows in file order. Call parallel() on the stream to spread
+     * the rows over the common fork-join pool.
+     *
+     * @return a sequential stream of the rows
+     */
+    public Stream<Row> stream()
+    {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+
+
+    /**
+     * Reads a CSV file one record at a time and hands each to the action
+     * without keeping it, so files bigger than the heap can be processed in
+     * one pass. No key is needed and records with the same key are all
+     * handed out. The file is memory-mapped and read as UTF-8.
+     *
+     * @param csvfp full path to the csv file
+     * @param delimiter the column delimiter in the CSV file
+     * @param action receives each record after the header, numbered from zero
+     * @throws IOException if the file can't be read or has no header row
+     */
+    public static void scan(String csvfp, char delimiter, Consumer<? super Row> action)
+        throws IOException
+    {
+        FileInputStream fis = new FileInputStream(csvfp);
+        try {
+            FileChannel channel = fis.getChannel();
+            long size = channel.size();
+            if (size <= Integer.MAX_VALUE && delimiter < 0x80) {
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                scan(new MappedCSVTokenizer(mapped, delimiter), csvfp, action);
+            } else
+                scan(new CSVTokenizer(new BufferedReader(new InputStreamReader(fis, "UTF-8")), delimiter), csvfp, action);
+        } finally {
+            fis.close();
+        }
+    }
+
+    /**
+     * Reads CSV text one record at a time. See scan with a file path.
+     *
+     * @param br an initialized buffered reader of the CSV file
+     * @param delimiter the column delimiter in the CSV file
+     * @param action receives each record after the header, numbered from zero
+     * @throws IOException if the text can't be read or has no header row
+     */
+    public static void scan(BufferedReader br, char delimiter, Consumer<? super Row> action)
+        throws IOException
+    {
+        scan(new CSVTokenizer(br, delimiter), "CSV text", action);
+    }
+
+
+
+    private static void scan(RecordSource tokenizer, String source, Consumer<? super Row> action)
+        throws IOException
+    {
+        String[] header = tokenizer.next();
+        if (header == null)
+            throw new IOException("no header row in " + source);
+        HashMap<String, Integer> positions = new HashMap<String, Integer>();
+        for (int pos = 0; pos < header.length; pos++)
+            positions.put(header[pos], pos);
+        String[] cells;
+        for (int row = 0; (cells = tokenizer.next()) != null; row++)
+            action.accept(new Row(cells, row, positions));
+    }
+
+
+
     /**
      * Gets the col number of the given field
      * 
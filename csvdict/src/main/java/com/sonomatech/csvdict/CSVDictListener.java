@@ -0,0 +1,88 @@
+/*
+Copyright (c) 2012, Sonoma Technology, Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without 
+modification, are permitted provided that the following conditions 
+are met:
+
+    * Redistributions of source code must retain the above copyright 
+      notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above copyright 
+      notice, this list of conditions and the following disclaimer in 
+      the documentation and/or other materials provided with the 
+      distribution.
+
+    * Neither the name of Sonoma Technology, Inc. nor the names of 
+      its contributors may be used to endorse or promote products 
+      derived from this software without specific prior written 
+      permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS 
+FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE 
+COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR 
+BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF 
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF 
+THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF 
+SUCH DAMAGE. 
+*/
+
+
+
+package com.sonomatech.csvdict;
+
+
+
+/**
+ * Told about what a dictionary does, when set with
+ * {@link LoadOptions#setListener}. The methods are called on the thread that
+ * loads or reads the dictionary, so they should return quickly. Each does
+ * nothing unless overridden.
+ */
+public interface CSVDictListener
+{
+    /**
+     * Called once the dictionary is loaded.
+     *
+     * @param dict the dictionary
+     * @param nanos how long the load took
+     * @param bytes the size of the CSV text, in bytes for files and in
+     *              characters for readers
+     * @param rows the number of rows loaded
+     */
+    default void loaded(CSVDict dict, long nanos, long bytes, int rows)
+    {
+    }
+
+    /**
+     * Called when a key isn't found, before the getter throws.
+     *
+     * @param dict the dictionary
+     * @param accessor the name of the getter, like "getFloat"
+     * @param key the key that wasn't found
+     */
+    default void missed(CSVDict dict, String accessor, Object key)
+    {
+    }
+
+    /**
+     * Called when a numeric getter finds a cell that isn't empty but isn't a
+     * number either.
+     *
+     * @param dict the dictionary
+     * @param accessor the name of the getter, like "getFloat"
+     * @param key the key of the row
+     * @param pos the position of the cell in the row
+     * @param cell the text of the cell
+     */
+    default void parseFailed(CSVDict dict, String accessor, Object key, int pos, String cell)
+    {
+    }
+}
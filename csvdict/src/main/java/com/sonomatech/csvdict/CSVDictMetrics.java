@@ -0,0 +1,321 @@
+/*
+Copyright (c) 2012, Sonoma Technology, Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without 
+modification, are permitted provided that the following conditions 
+are met:
+
+    * Redistributions of source code must retain the above copyright 
+      notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above copyright 
+      notice, this list of conditions and the following disclaimer in 
+      the documentation and/or other materials provided with the 
+      distribution.
+
+    * Neither the name of Sonoma Technology, Inc. nor the names of 
+      its contributors may be used to endorse or promote products 
+      derived from this software without specific prior written 
+      permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS 
+FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE 
+COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR 
+BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF 
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF 
+THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF 
+SUCH DAMAGE. 
+*/
+
+
+
+package com.sonomatech.csvdict;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+
+
+/**
+ * Counts the loads and lookups of one dictionary, when metrics are turned on
+ * with {@link LoadOptions#setMetrics}. Counters are striped, so threads that
+ * read the same dictionary don't contend on them. The metrics can be
+ * published as an MXBean:
+ * <PRE>
+ * <code>
+ *      CSVDict dict = new CSVDict(path, ',', 0, new LoadOptions().setMetrics(true));
+ *      ObjectName name = dict.getMetrics().registerMBean();
+ * </code>
+ * </PRE>
+ * The platform MBean server then holds on to the dictionary until
+ * unregisterMBean is called.
+ */
+public final class CSVDictMetrics implements CSVDictMetricsMXBean
+{
+    // the getters that look up a key, as indexes into the counters
+    static final int GET_STRING = 0;
+    static final int GET_FLOAT = 1;
+    static final int GET_INTEGER = 2;
+    static final int GET_FLOAT_VALUE = 3;
+    static final int GET_INT_VALUE = 4;
+    static final int GET_DOUBLE_VALUE = 5;
+    static final int IS_NUMERIC = 6;
+    static final int GET_ROW_ID = 7;
+    static final int GET_FLOATS = 8;
+    static final int GET_INTS = 9;
+    static final int GET_DOUBLES = 10;
+    private static final String[] ACCESSORS = {
+        "getString", "getFloat", "getInteger", "getFloatValue", "getIntValue", "getDoubleValue", "isNumeric",
+        "getRowId", "getFloats", "getInts", "getDoubles"
+    };
+
+    // tells dictionaries with the same source apart in their MBean names
+    private static final AtomicInteger ids = new AtomicInteger();
+
+    private final String source;
+    private final CSVDictListener listener;
+    private final LongAdder[] lookups = adders();
+    private final LongAdder[] misses = adders();
+    private final LongAdder[] parseFailures = adders();
+    private volatile CSVDict dict;
+    private volatile long loadNanos;
+    private volatile long bytes;
+    private volatile int rows;
+    private final AtomicInteger reloads = new AtomicInteger();
+    private ObjectName name;
+
+
+
+    CSVDictMetrics(String source, CSVDictListener listener)
+    {
+        this.source = source;
+        this.listener = listener;
+    }
+
+
+
+    private static LongAdder[] adders()
+    {
+        LongAdder[] adders = new LongAdder[ACCESSORS.length];
+        for (int i = 0; i < adders.length; i++)
+            adders[i] = new LongAdder();
+        return adders;
+    }
+
+
+
+    /**
+     * Publishes the metrics on the platform MBean server, named after the
+     * source of the dictionary. Calling this again does nothing.
+     *
+     * @return the name of the MBean
+     * @throws JMException if the MBean can't be registered
+     */
+    public synchronized ObjectName registerMBean()
+        throws JMException
+    {
+        if (name == null) {
+            ObjectName n = new ObjectName("com.sonomatech.csvdict:type=CSVDict,name=" + ObjectName.quote(source)
+                                          + ",id=" + ids.incrementAndGet());
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, n);
+            name = n;
+        }
+        return name;
+    }
+
+    /**
+     * Removes the MBean registerMBean published, if there is one.
+     *
+     * @throws JMException if the MBean can't be unregistered
+     */
+    public synchronized void unregisterMBean()
+        throws JMException
+    {
+        if (name != null) {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+            name = null;
+        }
+    }
+
+
+
+    void loaded(CSVDict dict, long nanos, long bytes)
+    {
+        this.dict = dict;
+        this.loadNanos = nanos;
+        this.bytes = bytes;
+        this.rows = dict.getRowCount();
+        if (listener != null)
+            listener.loaded(dict, nanos, bytes, rows);
+    }
+
+    /**
+     * Points the metrics at the dictionary a reload patched in, so that they
+     * stop describing, and holding on to, the one it replaced.
+     */
+    void reloaded(CSVDict dict, long nanos, long bytes)
+    {
+        reloads.incrementAndGet();
+        loaded(dict, nanos, bytes);
+    }
+
+    /**
+     * Points the metrics at the dictionary a reload loaded in full, taking
+     * the load figures from the metrics it was loaded with. Those already
+     * told the listener about the load.
+     */
+    void reloaded(CSVDict dict, CSVDictMetrics load)
+    {
+        reloads.incrementAndGet();
+        this.dict = dict;
+        loadNanos = load.loadNanos;
+        bytes = load.bytes;
+        rows = load.rows;
+        dict.metrics = this;
+    }
+
+
+
+    void lookedUp(int accessor)
+    {
+        lookups[accessor].increment();
+    }
+
+    void lookedUp(int accessor, int count)
+    {
+        lookups[accessor].add(count);
+    }
+
+    void missed(CSVDict dict, int accessor, Object key)
+    {
+        misses[accessor].increment();
+        if (listener != null)
+            listener.missed(dict, ACCESSORS[accessor], key);
+    }
+
+    /**
+     * Called with a cell a numeric getter returned NaN or Integer.MAX_VALUE
+     * for, which is a failure unless the cell is empty or is that value.
+     */
+    void parsed(CSVDict dict, int accessor, Object key, int pos, String cell, boolean integer)
+    {
+        if (cell == null || cell.trim().isEmpty())
+            return;
+        if (integer ? cell.trim().equals(String.valueOf(Integer.MAX_VALUE)) : Table.isNumber(cell))
+            return;
+        parseFailures[accessor].increment();
+        if (listener != null)
+            listener.parseFailed(dict, ACCESSORS[accessor], key, pos, cell);
+    }
+
+
+
+    @Override
+    public String getSource()
+    {
+        return source;
+    }
+
+    @Override
+    public double getLoadMillis()
+    {
+        return loadNanos / 1e6;
+    }
+
+    @Override
+    public long getBytesParsed()
+    {
+        return bytes;
+    }
+
+    @Override
+    public int getRowsParsed()
+    {
+        return rows;
+    }
+
+    @Override
+    public double getRowsPerSecond()
+    {
+        return loadNanos == 0 ? 0 : rows * 1e9 / loadNanos;
+    }
+
+    @Override
+    public long getLookups()
+    {
+        return sum(lookups);
+    }
+
+    @Override
+    public long getMisses()
+    {
+        return sum(misses);
+    }
+
+    @Override
+    public long getParseFailures()
+    {
+        return sum(parseFailures);
+    }
+
+    @Override
+    public Map<String, Long> getLookupsByAccessor()
+    {
+        return byAccessor(lookups);
+    }
+
+    @Override
+    public Map<String, Long> getMissesByAccessor()
+    {
+        return byAccessor(misses);
+    }
+
+    @Override
+    public Map<String, Long> getParseFailuresByAccessor()
+    {
+        return byAccessor(parseFailures);
+    }
+
+    @Override
+    public long getRetainedBytes()
+    {
+        CSVDict d = dict;
+        return d == null ? 0 : d.table.estimateBytes();
+    }
+
+    @Override
+    public int getReloads()
+    {
+        return reloads.get();
+    }
+
+
+
+    private static long sum(LongAdder[] adders)
+    {
+        long sum = 0;
+        for (LongAdder adder : adders)
+            sum += adder.sum();
+        return sum;
+    }
+
+    private static Map<String, Long> byAccessor(LongAdder[] adders)
+    {
+        Map<String, Long> counts = new LinkedHashMap<String, Long>();
+        for (int i = 0; i < adders.length; i++)
+            counts.put(ACCESSORS[i], adders[i].sum());
+        return counts;
+    }
+}
@@ -0,0 +1,119 @@
+/*
+Copyright (c) 2012, Sonoma Technology, Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without 
+modification, are permitted provided that the following conditions 
+are met:
+
+    * Redistributions of source code must retain the above copyright 
+      notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above copyright 
+      notice, this list of conditions and the following disclaimer in 
+      the documentation and/or other materials provided with the 
+      distribution.
+
+    * Neither the name of Sonoma Technology, Inc. nor the names of 
+      its contributors may be used to endorse or promote products 
+      derived from this software without specific prior written 
+      permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS 
+FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE 
+COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR 
+BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF 
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF 
+THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF 
+SUCH DAMAGE. 
+*/
+
+
+
+package com.sonomatech.csvdict;
+
+import java.util.Map;
+
+
+
+/**
+ * The metrics of one dictionary as seen over JMX. See {@link CSVDictMetrics}.
+ */
+public interface CSVDictMetricsMXBean
+{
+    /**
+     * @return the file or resource the dictionary was loaded from
+     */
+    String getSource();
+
+    /**
+     * @return how long the load took, in milliseconds
+     */
+    double getLoadMillis();
+
+    /**
+     * @return the size of the CSV text that was loaded, in bytes for files
+     *         and in characters for readers
+     */
+    long getBytesParsed();
+
+    /**
+     * @return the number of rows that were loaded
+     */
+    int getRowsParsed();
+
+    /**
+     * @return the rows loaded per second of load time
+     */
+    double getRowsPerSecond();
+
+    /**
+     * @return the number of lookups by key, over all getters
+     */
+    long getLookups();
+
+    /**
+     * @return the number of lookups of keys that weren't found
+     */
+    long getMisses();
+
+    /**
+     * @return the number of cells that numeric getters couldn't parse
+     */
+    long getParseFailures();
+
+    /**
+     * @return the lookups by key, by the name of the getter
+     */
+    Map<String, Long> getLookupsByAccessor();
+
+    /**
+     * @return the lookups of keys that weren't found, by the name of the
+     *         getter
+     */
+    Map<String, Long> getMissesByAccessor();
+
+    /**
+     * @return the cells that couldn't be parsed, by the name of the getter
+     */
+    Map<String, Long> getParseFailuresByAccessor();
+
+    /**
+     * @return an estimate of the bytes the dictionary's storage holds,
+     *         counting direct memory for off-heap storage
+     */
+    long getRetainedBytes();
+
+    /**
+     * @return the number of times a {@link ReloadableCSVDict} replaced the
+     *         dictionary with a newer one, which the load figures and
+     *         retained bytes then describe
+     */
+    int getReloads();
+}
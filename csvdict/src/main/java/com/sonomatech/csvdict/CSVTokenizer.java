@@ -0,0 +1,153 @@
+/*
+Copyright (c) 2012, Sonoma Technology, Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without 
+modification, are permitted provided that the following conditions 
+are met:
+
+    * Redistributions of source code must retain the above copyright 
+      notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above copyright 
+      notice, this list of conditions and the following disclaimer in 
+      the documentation and/or other materials provided with the 
+      distribution.
+
+    * Neither the name of Sonoma Technology, Inc. nor the names of 
+      its contributors may be used to endorse or promote products 
+      derived from this software without specific prior written 
+      permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS 
+FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE 
+COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR 
+BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF 
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF 
+THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF 
+SUCH DAMAGE. 
+*/
+
+
+
+package com.sonomatech.csvdict;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+
+
+/**
+ * Splits CSV text read from a Reader into records, see
+ * {@link AbstractCSVTokenizer} for the rules. A byte order mark at the start
+ * of the text is skipped.
+ */
+final class CSVTokenizer extends AbstractCSVTokenizer
+{
+    private static final char BOM = '\uFEFF';
+
+    private final Reader in;
+
+    // input buffer and field buffer are reused across records
+    private final char[] buf = new char[8192];
+    private int bufPos;
+    private int bufLen;
+    private char[] field = new char[64];
+    private int fieldLen;
+    // shares repeated cell values, or null
+    private final StringPool strings;
+    private long charsRead;
+
+
+
+    CSVTokenizer(Reader in, char delimiter)
+    {
+        this(in, delimiter, null);
+    }
+
+    /**
+     * @param strings shares repeated values among the cells of a column, or
+     *                null to create a String for every cell
+     */
+    CSVTokenizer(Reader in, char delimiter, StringPool strings)
+    {
+        super(delimiter);
+        this.in = in;
+        this.strings = strings;
+    }
+
+
+
+    /**
+     * @return the number of characters read so far
+     */
+    long charsRead()
+    {
+        return charsRead;
+    }
+
+
+
+    @Override
+    int read()
+        throws IOException
+    {
+        if (bufPos == bufLen) {
+            boolean first = charsRead == 0;
+            bufLen = in.read(buf, 0, buf.length);
+            bufPos = 0;
+            if (bufLen <= 0) {
+                bufLen = 0;
+                return -1;
+            }
+            charsRead += bufLen;
+            if (first && buf[0] == BOM && ++bufPos == bufLen)
+                return read();
+        }
+        return buf[bufPos++];
+    }
+
+
+
+    @Override
+    void skipLF()
+        throws IOException
+    {
+        int c = read();
+        if (c != '\n' && c != -1)
+            bufPos--;
+    }
+
+
+
+    @Override
+    void append(int c)
+    {
+        if (fieldLen == field.length)
+            field = Arrays.copyOf(field, fieldLen * 2);
+        field[fieldLen++] = (char)c;
+    }
+
+
+
+    @Override
+    void clearField()
+    {
+        fieldLen = 0;
+    }
+
+
+
+    @Override
+    String field(int pos)
+    {
+        return strings == null ? new String(field, 0, fieldLen) : strings.get(pos, field, fieldLen);
+    }
+}
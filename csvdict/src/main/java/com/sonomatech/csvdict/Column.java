@@ -0,0 +1,784 @@
+/*
+Copyright (c) 2012, Sonoma Technology, Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without 
+modification, are permitted provided that the following conditions 
+are met:
+
+    * Redistributions of source code must retain the above copyright 
+      notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above copyright 
+      notice, this list of conditions and the following disclaimer in 
+      the documentation and/or other materials provided with the 
+      distribution.
+
+    * Neither the name of Sonoma Technology, Inc. nor the names of 
+      its contributors may be used to endorse or promote products 
+      derived from this software without specific prior written 
+      permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS 
+FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE 
+COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR 
+BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF 
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF 
+THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF 
+SUCH DAMAGE. 
+*/
+
+
+
+package com.sonomatech.csvdict;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+
+
+
+/**
+ * One column of a {@link ColumnTable}. The type of a column is inferred when
+ * it is built: columns whose cells are ints, longs or floats are kept in
+ * primitive arrays, and other columns are dictionary-encoded strings.
+ * <p>
+ * A numeric column only stores the number, so a cell is numeric only if the
+ * number prints back to exactly the text in the file. Empty cells are
+ * flagged in a bit set. The few cells that are neither, like "0.50" or "NA",
+ * keep their text on the side. When too many cells need that, the column is
+ * stored as strings instead.
+ */
+abstract class Column
+{
+    // cell kinds found while inferring the column type
+    private static final int EMPTY = 0;
+    private static final int SMALL_INT = 1;     // exact as a float too
+    private static final int INT = 2;
+    private static final int LONG = 3;
+    private static final int FLOAT = 4;
+    private static final int OTHER = 5;
+
+    private static final int FLOAT_EXACT_INT = 1 << 24;
+
+    // column types in a snapshot
+    private static final byte INT_COLUMN = 1;
+    private static final byte LONG_COLUMN = 2;
+    private static final byte FLOAT_COLUMN = 3;
+    private static final byte PLAIN_STRING_COLUMN = 4;
+    private static final byte DICT_STRING_COLUMN = 5;
+
+
+
+    abstract String getString(int row);
+
+    abstract float getFloat(int row);
+
+    abstract int getInteger(int row);
+
+    abstract double getDouble(int row);
+
+    abstract boolean isNumeric(int row);
+
+    /**
+     * Writes the column to a {@link Snapshot}, to be restored by read.
+     */
+    abstract void write(DataOutputStream out)
+        throws IOException;
+
+    /**
+     * @return roughly how many bytes of heap the column holds
+     */
+    abstract long estimateBytes();
+
+
+
+    /**
+     * Restores a column written by write.
+     *
+     * @param in the snapshot, positioned at the column
+     */
+    static Column read(ByteBuffer in)
+        throws IOException
+    {
+        byte type = in.get();
+        switch (type) {
+        case INT_COLUMN:
+            return new IntColumn(in);
+        case LONG_COLUMN:
+            return new LongColumn(in);
+        case FLOAT_COLUMN:
+            return new FloatColumn(in);
+        case PLAIN_STRING_COLUMN:
+            return new PlainStringColumn(Snapshot.readStrings(in));
+        case DICT_STRING_COLUMN:
+            return new DictStringColumn(in);
+        default:
+            throw new IOException("unknown column type " + type);
+        }
+    }
+
+
+
+    /**
+     * Builds the column at position pos, choosing the most compact type that
+     * holds the cells.
+     *
+     * @param rows the rows in file order; cells missing from short rows are
+     *             taken to be empty
+     * @param pos the zero-based column position
+     */
+    static Column build(String[][] rows, int pos)
+    {
+        byte[] kinds = new byte[rows.length];
+        int[] counts = new int[OTHER + 1];
+        for (int r = 0; r < rows.length; r++) {
+            kinds[r] = (byte)kind(cell(rows[r], pos));
+            counts[kinds[r]]++;
+        }
+
+        int n = rows.length;
+        int nonEmpty = n - counts[EMPTY];
+        int intMisfits = counts[LONG] + counts[FLOAT] + counts[OTHER];
+        int longMisfits = counts[FLOAT] + counts[OTHER];
+        int floatMisfits = counts[INT] + counts[LONG] + counts[OTHER];
+        int limit = n / 8;
+
+        if (nonEmpty == 0)
+            return StringColumn.build(rows, pos);
+        if (intMisfits <= limit && intMisfits <= floatMisfits)
+            return new IntColumn(rows, pos, kinds);
+        if (longMisfits <= limit && longMisfits <= floatMisfits)
+            return new LongColumn(rows, pos, kinds);
+        if (floatMisfits <= limit)
+            return new FloatColumn(rows, pos, kinds);
+        return StringColumn.build(rows, pos);
+    }
+
+
+
+    private static String cell(String[] row, int pos)
+    {
+        return pos < row.length && row[pos] != null ? row[pos] : "";
+    }
+
+
+
+    private static int kind(String s)
+    {
+        if (s.isEmpty())
+            return EMPTY;
+        if (isCanonicalInteger(s)) {
+            if (s.length() > 19)
+                return OTHER;
+            try {
+                long v = Long.parseLong(s);
+                if (v < Integer.MIN_VALUE || v > Integer.MAX_VALUE)
+                    return LONG;
+                return Math.abs(v) <= FLOAT_EXACT_INT ? SMALL_INT : INT;
+            } catch (NumberFormatException e) {
+                return OTHER;
+            }
+        }
+        return isCanonicalFloat(s) ? FLOAT : OTHER;
+    }
+
+
+
+    // an optional minus sign and digits without leading zeros, the way
+    // Long.toString prints
+    private static boolean isCanonicalInteger(String s)
+    {
+        int start = s.charAt(0) == '-' ? 1 : 0;
+        int len = s.length();
+        if (start == len)
+            return false;
+        if (s.charAt(start) == '0' && (len > start + 1 || start == 1))
+            return false;
+        for (int i = start; i < len; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9')
+                return false;
+        }
+        return true;
+    }
+
+
+
+    // text that Float.toString prints back unchanged
+    private static boolean isCanonicalFloat(String s)
+    {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if ((c < '0' || c > '9') && c != '.' && c != '-' && c != 'E')
+                return false;
+        }
+        try {
+            return Float.toString(Float.parseFloat(s)).equals(s);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+
+
+    /**
+     * Base of the primitive columns: keeps track of empty cells and of the
+     * text of cells that don't print back the same from their number.
+     */
+    private static abstract class NumericColumn extends Column
+    {
+        private final BitSet empty;
+        private final int[] textRows;
+        private final String[] texts;
+        private final ParsedCells textNumbers;
+
+        /**
+         * @param fits bit mask of the cell kinds the column type can print
+         */
+        NumericColumn(String[][] rows, int pos, byte[] kinds, int fits)
+        {
+            BitSet emptyCells = new BitSet();
+            List<Integer> oddRows = new ArrayList<Integer>();
+            for (int r = 0; r < rows.length; r++) {
+                if (kinds[r] == EMPTY)
+                    emptyCells.set(r);
+                else if ((fits & (1 << kinds[r])) == 0)
+                    oddRows.add(r);
+            }
+            empty = emptyCells.isEmpty() ? null : emptyCells;
+            textRows = new int[oddRows.size()];
+            texts = new String[oddRows.size()];
+            for (int i = 0; i < textRows.length; i++) {
+                textRows[i] = oddRows.get(i);
+                texts[i] = cell(rows[textRows[i]], pos);
+            }
+            textNumbers = new ParsedCells(i -> texts[i], texts.length);
+        }
+
+        NumericColumn(ByteBuffer in)
+        {
+            BitSet emptyCells = Snapshot.readBits(in);
+            empty = emptyCells.isEmpty() ? null : emptyCells;
+            textRows = Snapshot.readInts(in);
+            texts = Snapshot.readStrings(in);
+            textNumbers = new ParsedCells(i -> texts[i], texts.length);
+        }
+
+        // the bytes the base class holds
+        final long cellBytes()
+        {
+            long bytes = (empty == null ? 0 : empty.size() / 8) + Table.arrayBytes(textRows.length, 4);
+            for (String text : texts)
+                bytes += Table.stringBytes(text);
+            return bytes + Table.arrayBytes(texts.length, 4);
+        }
+
+        // writes what the base class keeps, read back by the constructor above
+        final void writeCells(DataOutputStream out)
+            throws IOException
+        {
+            Snapshot.writeBits(out, empty);
+            Snapshot.writeInts(out, textRows);
+            Snapshot.writeStrings(out, texts);
+        }
+
+        final boolean isEmpty(int row)
+        {
+            return empty != null && empty.get(row);
+        }
+
+        // the text of the cell if it can't be printed from the number
+        final String text(int row)
+        {
+            int i = textIndex(row);
+            return i < 0 ? null : texts[i];
+        }
+
+        // the index of the cell among those kept as text, or -1
+        final int textIndex(int row)
+        {
+            return texts.length == 0 ? -1 : Math.max(-1, Arrays.binarySearch(textRows, row));
+        }
+
+        @Override
+        final boolean isNumeric(int row)
+        {
+            int i = textIndex(row);
+            return i >= 0 ? textNumbers.isNumeric(i) : !isEmpty(row);
+        }
+
+        final float textFloat(int i)
+        {
+            return textNumbers.getFloat(i);
+        }
+
+        final int textInteger(int i)
+        {
+            return textNumbers.getInteger(i);
+        }
+
+        final double textDouble(int i)
+        {
+            return textNumbers.getDouble(i);
+        }
+    }
+
+
+
+    private static final class IntColumn extends NumericColumn
+    {
+        // holds the getInteger value of every cell
+        private final int[] values;
+
+        IntColumn(String[][] rows, int pos, byte[] kinds)
+        {
+            super(rows, pos, kinds, 1 << SMALL_INT | 1 << INT);
+            values = new int[rows.length];
+            for (int r = 0; r < rows.length; r++)
+                values[r] = Table.toInteger(cell(rows[r], pos));
+        }
+
+        IntColumn(ByteBuffer in)
+        {
+            super(in);
+            values = Snapshot.readPackedInts(in);
+        }
+
+        @Override
+        void write(DataOutputStream out)
+            throws IOException
+        {
+            out.writeByte(INT_COLUMN);
+            writeCells(out);
+            Snapshot.writePackedInts(out, values);
+        }
+
+        @Override
+        long estimateBytes()
+        {
+            return cellBytes() + Table.arrayBytes(values.length, 4);
+        }
+
+        @Override
+        String getString(int row)
+        {
+            String text = text(row);
+            if (text != null)
+                return text;
+            return isEmpty(row) ? "" : Integer.toString(values[row]);
+        }
+
+        @Override
+        float getFloat(int row)
+        {
+            int i = textIndex(row);
+            if (i >= 0)
+                return textFloat(i);
+            return isEmpty(row) ? Float.NaN : values[row];
+        }
+
+        @Override
+        int getInteger(int row)
+        {
+            return values[row];
+        }
+
+        @Override
+        double getDouble(int row)
+        {
+            int i = textIndex(row);
+            if (i >= 0)
+                return textDouble(i);
+            return isEmpty(row) ? Double.NaN : values[row];
+        }
+    }
+
+
+
+    private static final class LongColumn extends NumericColumn
+    {
+        private final long[] values;
+
+        LongColumn(String[][] rows, int pos, byte[] kinds)
+        {
+            super(rows, pos, kinds, 1 << SMALL_INT | 1 << INT | 1 << LONG);
+            values = new long[rows.length];
+            for (int r = 0; r < rows.length; r++) {
+                if (kinds[r] == SMALL_INT || kinds[r] == INT || kinds[r] == LONG)
+                    values[r] = Long.parseLong(rows[r][pos]);
+            }
+        }
+
+        LongColumn(ByteBuffer in)
+        {
+            super(in);
+            values = Snapshot.readLongs(in);
+        }
+
+        @Override
+        void write(DataOutputStream out)
+            throws IOException
+        {
+            out.writeByte(LONG_COLUMN);
+            writeCells(out);
+            Snapshot.writeLongs(out, values);
+        }
+
+        @Override
+        long estimateBytes()
+        {
+            return cellBytes() + Table.arrayBytes(values.length, 8);
+        }
+
+        @Override
+        String getString(int row)
+        {
+            String text = text(row);
+            if (text != null)
+                return text;
+            return isEmpty(row) ? "" : Long.toString(values[row]);
+        }
+
+        @Override
+        float getFloat(int row)
+        {
+            int i = textIndex(row);
+            if (i >= 0)
+                return textFloat(i);
+            return isEmpty(row) ? Float.NaN : values[row];
+        }
+
+        @Override
+        int getInteger(int row)
+        {
+            int i = textIndex(row);
+            if (i >= 0)
+                return textInteger(i);
+            long v = values[row];
+            return isEmpty(row) || v < Integer.MIN_VALUE || v > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int)v;
+        }
+
+        @Override
+        double getDouble(int row)
+        {
+            int i = textIndex(row);
+            if (i >= 0)
+                return textDouble(i);
+            return isEmpty(row) ? Double.NaN : values[row];
+        }
+    }
+
+
+
+    private static final class FloatColumn extends NumericColumn
+    {
+        // holds the getFloat value of every cell
+        private final float[] values;
+        // cells written as ints, like "25" in a column of "26.6"
+        private final BitSet intText;
+        // a float prints shorter than the double the same text parses to, so
+        // doubles are parsed from the text when first needed
+        private final ParsedCells doubles;
+
+        FloatColumn(String[][] rows, int pos, byte[] kinds)
+        {
+            super(rows, pos, kinds, 1 << SMALL_INT | 1 << FLOAT);
+            values = new float[rows.length];
+            BitSet ints = new BitSet();
+            for (int r = 0; r < rows.length; r++) {
+                values[r] = Table.toFloat(cell(rows[r], pos));
+                if (kinds[r] == SMALL_INT)
+                    ints.set(r);
+            }
+            intText = ints;
+            doubles = new ParsedCells(this::getString, rows.length);
+        }
+
+        FloatColumn(ByteBuffer in)
+        {
+            super(in);
+            values = Snapshot.readFloats(in);
+            intText = Snapshot.readBits(in);
+            doubles = new ParsedCells(this::getString, values.length);
+        }
+
+        @Override
+        void write(DataOutputStream out)
+            throws IOException
+        {
+            out.writeByte(FLOAT_COLUMN);
+            writeCells(out);
+            Snapshot.writeFloats(out, values);
+            Snapshot.writeBits(out, intText);
+        }
+
+        @Override
+        long estimateBytes()
+        {
+            return cellBytes() + Table.arrayBytes(values.length, 4) + intText.size() / 8;
+        }
+
+        @Override
+        String getString(int row)
+        {
+            String text = text(row);
+            if (text != null)
+                return text;
+            if (isEmpty(row))
+                return "";
+            return intText.get(row) ? Integer.toString((int)values[row]) : Float.toString(values[row]);
+        }
+
+        @Override
+        float getFloat(int row)
+        {
+            return values[row];
+        }
+
+        @Override
+        int getInteger(int row)
+        {
+            int i = textIndex(row);
+            if (i >= 0)
+                return textInteger(i);
+            return intText.get(row) ? (int)values[row] : Integer.MAX_VALUE;
+        }
+
+        @Override
+        double getDouble(int row)
+        {
+            return doubles.getDouble(row);
+        }
+    }
+
+
+
+    /**
+     * A string column. Columns with few distinct values keep each value once
+     * and store a byte, char or int code per row.
+     */
+    private static abstract class StringColumn extends Column
+    {
+        static Column build(String[][] rows, int pos)
+        {
+            int n = rows.length;
+            HashMap<String, Integer> codes = new HashMap<String, Integer>();
+            List<String> pool = new ArrayList<String>();
+            int[] rowCodes = new int[n];
+            for (int r = 0; r < n; r++) {
+                String s = cell(rows[r], pos);
+                Integer code = codes.get(s);
+                if (code == null) {
+                    code = pool.size();
+                    codes.put(s, code);
+                    pool.add(s);
+                }
+                rowCodes[r] = code;
+            }
+
+            String[] values = pool.toArray(new String[pool.size()]);
+            if (values.length * 2 > n) {
+                // mostly distinct, codes would only add to the size
+                String[] cells = new String[n];
+                for (int r = 0; r < n; r++)
+                    cells[r] = values[rowCodes[r]];
+                return new PlainStringColumn(cells);
+            }
+            return new DictStringColumn(values, rowCodes);
+        }
+
+        // numbers parsed from the strings, indexed by numberIndex
+        abstract ParsedCells numbers();
+
+        abstract int numberIndex(int row);
+
+        @Override
+        float getFloat(int row)
+        {
+            return numbers().getFloat(numberIndex(row));
+        }
+
+        @Override
+        int getInteger(int row)
+        {
+            return numbers().getInteger(numberIndex(row));
+        }
+
+        @Override
+        double getDouble(int row)
+        {
+            return numbers().getDouble(numberIndex(row));
+        }
+
+        @Override
+        boolean isNumeric(int row)
+        {
+            return numbers().isNumeric(numberIndex(row));
+        }
+    }
+
+
+
+    private static final class PlainStringColumn extends StringColumn
+    {
+        private final String[] cells;
+        private final ParsedCells numbers;
+
+        PlainStringColumn(String[] cells)
+        {
+            this.cells = cells;
+            numbers = new ParsedCells(i -> cells[i], cells.length);
+        }
+
+        @Override
+        String getString(int row)
+        {
+            return cells[row];
+        }
+
+        @Override
+        void write(DataOutputStream out)
+            throws IOException
+        {
+            out.writeByte(PLAIN_STRING_COLUMN);
+            Snapshot.writeStrings(out, cells);
+        }
+
+        @Override
+        long estimateBytes()
+        {
+            long bytes = Table.arrayBytes(cells.length, 4);
+            for (String cell : cells)
+                bytes += Table.stringBytes(cell);
+            return bytes;
+        }
+
+        @Override
+        ParsedCells numbers()
+        {
+            return numbers;
+        }
+
+        @Override
+        int numberIndex(int row)
+        {
+            return row;
+        }
+    }
+
+
+
+    private static final class DictStringColumn extends StringColumn
+    {
+        private final String[] pool;
+        // each distinct string is parsed only once
+        private final ParsedCells numbers;
+        // only one of these is used, the narrowest that holds every code
+        private final byte[] byteCodes;
+        private final char[] charCodes;
+        private final int[] intCodes;
+
+        DictStringColumn(String[] pool, int[] codes)
+        {
+            this.pool = pool;
+            numbers = new ParsedCells(i -> pool[i], pool.length);
+            if (pool.length <= 256) {
+                byteCodes = new byte[codes.length];
+                for (int r = 0; r < codes.length; r++)
+                    byteCodes[r] = (byte)codes[r];
+                charCodes = null;
+                intCodes = null;
+            } else if (pool.length <= 65536) {
+                charCodes = new char[codes.length];
+                for (int r = 0; r < codes.length; r++)
+                    charCodes[r] = (char)codes[r];
+                byteCodes = null;
+                intCodes = null;
+            } else {
+                intCodes = codes;
+                byteCodes = null;
+                charCodes = null;
+            }
+        }
+
+        DictStringColumn(ByteBuffer in)
+        {
+            pool = Snapshot.readStrings(in);
+            numbers = new ParsedCells(i -> pool[i], pool.length);
+            byte width = in.get();
+            byteCodes = width == 1 ? Snapshot.readBytes(in) : null;
+            charCodes = width == 2 ? Snapshot.readChars(in) : null;
+            intCodes = width == 4 ? Snapshot.readInts(in) : null;
+        }
+
+        @Override
+        void write(DataOutputStream out)
+            throws IOException
+        {
+            out.writeByte(DICT_STRING_COLUMN);
+            Snapshot.writeStrings(out, pool);
+            if (byteCodes != null) {
+                out.writeByte(1);
+                Snapshot.writeBytes(out, byteCodes);
+            } else if (charCodes != null) {
+                out.writeByte(2);
+                Snapshot.writeChars(out, charCodes);
+            } else {
+                out.writeByte(4);
+                Snapshot.writeInts(out, intCodes);
+            }
+        }
+
+        @Override
+        long estimateBytes()
+        {
+            long bytes = Table.arrayBytes(pool.length, 4);
+            for (String value : pool)
+                bytes += Table.stringBytes(value);
+            if (byteCodes != null)
+                return bytes + Table.arrayBytes(byteCodes.length, 1);
+            if (charCodes != null)
+                return bytes + Table.arrayBytes(charCodes.length, 2);
+            return bytes + Table.arrayBytes(intCodes.length, 4);
+        }
+
+        int code(int row)
+        {
+            if (byteCodes != null)
+                return byteCodes[row] & 0xFF;
+            if (charCodes != null)
+                return charCodes[row];
+            return intCodes[row];
+        }
+
+        @Override
+        String getString(int row)
+        {
+            return pool[code(row)];
+        }
+
+        @Override
+        ParsedCells numbers()
+        {
+            return numbers;
+        }
+
+        @Override
+        int numberIndex(int row)
+        {
+            return code(row);
+        }
+    }
+}
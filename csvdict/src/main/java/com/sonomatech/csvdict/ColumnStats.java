@@ -0,0 +1,207 @@
+/*
+Copyright (c) 2012, Sonoma Technology, Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without 
+modification, are permitted provided that the following conditions 
+are met:
+
+    * Redistributions of source code must retain the above copyright 
+      notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above copyright 
+      notice, this list of conditions and the following disclaimer in 
+      the documentation and/or other materials provided with the 
+      distribution.
+
+    * Neither the name of Sonoma Technology, Inc. nor the names of 
+      its contributors may be used to endorse or promote products 
+      derived from this software without specific prior written 
+      permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS 
+FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE 
+COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR 
+BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF 
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF 
+THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF 
+SUCH DAMAGE. 
+*/
+
+
+
+package com.sonomatech.csvdict;
+
+
+
+/**
+ * Summary statistics of the numeric cells of a column, as returned by
+ * {@link CSVDict#aggregate}. Cells that are empty or not numbers are left
+ * out of every statistic.
+ */
+public final class ColumnStats
+{
+    private long count;
+    private double sum;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+    // the distinct values by their bits, in an open-addressing table where 0
+    // marks a free slot; 0.0 itself is tracked by hasZero. They are only
+    // filled in by the scan when the distinct count is first asked for, so
+    // add stays cheap.
+    private long[] distinct;
+    private int nDistinct;
+    private boolean hasZero;
+    private Aggregation.DistinctScan scan;
+
+
+
+    ColumnStats()
+    {
+    }
+
+
+
+    /**
+     * @return the number of numeric cells
+     */
+    public long getCount()
+    {
+        return count;
+    }
+
+    /**
+     * @return the sum of the numeric cells, or 0 if there are none
+     */
+    public double getSum()
+    {
+        return sum;
+    }
+
+    /**
+     * @return the smallest numeric cell, or NaN if there are none
+     */
+    public double getMin()
+    {
+        return count == 0 ? Double.NaN : min;
+    }
+
+    /**
+     * @return the largest numeric cell, or NaN if there are none
+     */
+    public double getMax()
+    {
+        return count == 0 ? Double.NaN : max;
+    }
+
+    /**
+     * @return the mean of the numeric cells, or NaN if there are none
+     */
+    public double getMean()
+    {
+        return count == 0 ? Double.NaN : sum / count;
+    }
+
+    /**
+     * The first call reads the column again, for every group of the
+     * aggregation at once.
+     *
+     * @return the number of different values among the numeric cells; 0 and
+     *         -0 count as one value
+     */
+    public int getDistinctCount()
+    {
+        if (scan != null)
+            scan.run();
+        return nDistinct + (hasZero ? 1 : 0);
+    }
+
+
+
+    void add(double value)
+    {
+        if (Double.isNaN(value))
+            return;
+        count++;
+        sum += value;
+        if (value < min)
+            min = value;
+        if (value > max)
+            max = value;
+    }
+
+
+
+    void merge(ColumnStats other)
+    {
+        count += other.count;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+
+
+    void setScan(Aggregation.DistinctScan scan)
+    {
+        this.scan = scan;
+    }
+
+
+
+    // called by the scan for every numeric cell
+    void addDistinct(double value)
+    {
+        if (Double.isNaN(value))
+            return;
+        if (distinct == null)
+            distinct = new long[8];
+        // adding 0.0 turns -0.0 into 0.0
+        addDistinct(Double.doubleToLongBits(value + 0.0));
+    }
+
+    private void addDistinct(long bits)
+    {
+        if (bits == 0) {
+            hasZero = true;
+            return;
+        }
+        int mask = distinct.length - 1;
+        long h = bits * 0x9E3779B97F4A7C15L;
+        for (int i = (int)(h ^ (h >>> 32)) & mask;; i = (i + 1) & mask) {
+            if (distinct[i] == bits)
+                return;
+            if (distinct[i] == 0) {
+                distinct[i] = bits;
+                if (++nDistinct * 2 > distinct.length)
+                    grow();
+                return;
+            }
+        }
+    }
+
+    private void grow()
+    {
+        long[] old = distinct;
+        distinct = new long[old.length * 2];
+        nDistinct = 0;
+        for (long bits : old)
+            if (bits != 0)
+                addDistinct(bits);
+    }
+
+
+
+    @Override
+    public String toString()
+    {
+        return "count " + count + ", sum " + getSum() + ", min " + getMin() + ", max " + getMax()
+            + ", mean " + getMean() + ", distinct " + getDistinctCount();
+    }
+}
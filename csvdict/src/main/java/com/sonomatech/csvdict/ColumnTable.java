@@ -0,0 +1,170 @@
+/*
+Copyright (c) 2012, Sonoma Technology, Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without 
+modification, are permitted provided that the following conditions 
+are met:
+
+    * Redistributions of source code must retain the above copyright 
+      notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above copyright 
+      notice, this list of conditions and the following disclaimer in 
+      the documentation and/or other materials provided with the 
+      distribution.
+
+    * Neither the name of Sonoma Technology, Inc. nor the names of 
+      its contributors may be used to endorse or promote products 
+      derived from this software without specific prior written 
+      permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS 
+FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE 
+COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR 
+BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF 
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF 
+THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF 
+SUCH DAMAGE. 
+*/
+
+
+
+package com.sonomatech.csvdict;
+
+import java.util.Collection;
+import java.util.Map;
+
+
+
+/**
+ * Columnar storage: each column is kept in an array of its inferred type,
+ * see {@link Column}, and rows are found through a key-to-row index.
+ */
+final class ColumnTable extends Table
+{
+    private final Column[] columns;
+    private final KeyIndex keys;
+    private final int size;
+
+
+
+    /**
+     * @param rows the rows in file order, no two with the same key
+     * @param nCols the number of columns in the header
+     * @param keyIndex the position of the key column
+     */
+    ColumnTable(Collection<String[]> rows, int nCols, int keyIndex)
+    {
+        this(rows.toArray(new String[rows.size()][]), nCols, keyIndex, null);
+    }
+
+    /**
+     * @param dict the rows in file order by key, as row storage keeps them.
+     *             The keys are looked up as they are in dict, so a
+     *             composite key is found by its joined parts.
+     * @param nCols the number of columns in the header
+     */
+    ColumnTable(Map<String, String[]> dict, int nCols)
+    {
+        this(dict.values().toArray(new String[dict.size()][]), nCols, -1, dict.keySet());
+    }
+
+    // keyed on keyValues in row order, or on the cells at keyIndex if it is null
+    private ColumnTable(String[][] data, int nCols, int keyIndex, Collection<String> keyValues)
+    {
+        size = data.length;
+        columns = new Column[nCols];
+        for (int pos = 0; pos < nCols; pos++)
+            columns[pos] = Column.build(data, pos);
+        keys = new KeyIndex(size);
+        if (keyValues == null) {
+            for (int row = 0; row < size; row++)
+                keys.put(data[row][keyIndex], row);
+        } else {
+            int row = 0;
+            for (String key : keyValues)
+                keys.put(key, row++);
+        }
+    }
+
+    /**
+     * @param columns columns restored from a {@link Snapshot}
+     * @param size the number of rows
+     * @param keyIndex the position of the key column
+     */
+    ColumnTable(Column[] columns, int size, int keyIndex)
+    {
+        this.columns = columns;
+        this.size = size;
+        keys = new KeyIndex(size);
+        for (int row = 0; row < size; row++)
+            keys.put(columns[keyIndex].getString(row), row);
+    }
+
+
+
+    Column column(int pos)
+    {
+        return columns[pos];
+    }
+
+
+
+    @Override
+    int size()
+    {
+        return size;
+    }
+
+    @Override
+    int find(String key)
+    {
+        return keys.get(key);
+    }
+
+    @Override
+    String getString(int row, int pos)
+    {
+        return columns[pos].getString(row);
+    }
+
+    @Override
+    float getFloat(int row, int pos)
+    {
+        return columns[pos].getFloat(row);
+    }
+
+    @Override
+    int getInteger(int row, int pos)
+    {
+        return columns[pos].getInteger(row);
+    }
+
+    @Override
+    double getDouble(int row, int pos)
+    {
+        return columns[pos].getDouble(row);
+    }
+
+    @Override
+    boolean isNumeric(int row, int pos)
+    {
+        return columns[pos].isNumeric(row);
+    }
+
+    @Override
+    long estimateBytes()
+    {
+        long bytes = keys.estimateBytes(true);
+        for (Column column : columns)
+            bytes += column.estimateBytes();
+        return bytes;
+    }
+}
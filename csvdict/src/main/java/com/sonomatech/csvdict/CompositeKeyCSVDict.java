@@ -0,0 +1,452 @@
+/*
+Copyright (c) 2012, Sonoma Technology, Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without 
+modification, are permitted provided that the following conditions 
+are met:
+
+    * Redistributions of source code must retain the above copyright 
+      notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above copyright 
+      notice, this list of conditions and the following disclaimer in 
+      the documentation and/or other materials provided with the 
+      distribution.
+
+    * Neither the name of Sonoma Technology, Inc. nor the names of 
+      its contributors may be used to endorse or promote products 
+      derived from this software without specific prior written 
+      permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS 
+FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE 
+COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR 
+BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF 
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF 
+THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF 
+SUCH DAMAGE. 
+*/
+
+
+
+package com.sonomatech.csvdict;
+
+import java.io.BufferedReader;
+
+
+
+/**
+ * A subclass of CSVDict keyed on several columns together, like a species
+ * and a region. Rows are looked up with the key parts given separately:
+ * <PRE>
+ * <code>
+ *      CompositeKeyCSVDict dict = new CompositeKeyCSVDict(path, ',', new int[] {0, 1});
+ *      float cover = dict.getFloatValue("Abies alba", 7, 4);
+ * </code>
+ * </PRE>
+ * The parts are hashed and compared where they are, so a lookup builds no
+ * key String. A part given as an int matches the cell holding its decimal
+ * text. Two rows only replace each other when every part of their keys is
+ * the same. The getters inherited from CSVDict that take a single key find
+ * the parts joined by the NUL character. Composite keys need
+ * {@link LoadOptions.Storage#ROWS row} or
+ * {@link LoadOptions.Storage#COLUMNAR columnar} storage and can't be used
+ * with snapshots.
+ */
+public class CompositeKeyCSVDict extends CSVDict
+{
+    private CompositeKeyIndex compositeKeys;
+
+
+
+    /**
+     * Create the CompositeKeyCSVDict from a BufferedReader initialized to
+     * read from the CSV file.
+     *
+     * @param br the reader
+     * @param delimiter the delimiter character in the CSV file
+     * @param keyIndexes the zero-based indexes of the columns that make up
+     *                   the key, at least two
+     * @throws CSVDict.CSVDictException
+     */
+    public CompositeKeyCSVDict(BufferedReader br, char delimiter, int[] keyIndexes)
+        throws CSVDictException
+    {
+        this(br, delimiter, keyIndexes, new LoadOptions());
+    }
+
+    /**
+     * Create the CompositeKeyCSVDict from a BufferedReader initialized to
+     * read from the CSV file, stored as the options specify.
+     *
+     * @param br the reader
+     * @param delimiter the delimiter character in the CSV file
+     * @param keyIndexes the zero-based indexes of the columns that make up
+     *                   the key, at least two
+     * @param options settings that control the loading
+     * @throws CSVDict.CSVDictException
+     */
+    public CompositeKeyCSVDict(BufferedReader br, char delimiter, int[] keyIndexes, LoadOptions options)
+        throws CSVDictException
+    {
+        super(br, delimiter, checkParts(keyIndexes), options);
+        compositeKeys = new CompositeKeyIndex(table, keyIndexes);
+    }
+
+    /**
+     * Create the CompositeKeyCSVDict from a CSV file on the class path.
+     *
+     * @param csvFileName the name of the CSV file
+     * @param delimiter the delimiter character in the CSV file
+     * @param keyIndexes the zero-based indexes of the columns that make up
+     *                   the key, at least two
+     * @param cl the CSV file must be on this class loader's classpath
+     * @throws CSVDict.CSVDictException
+     */
+    public CompositeKeyCSVDict(String csvFileName, char delimiter, int[] keyIndexes, ClassLoader cl)
+        throws CSVDictException
+    {
+        this(csvFileName, delimiter, keyIndexes, cl, new LoadOptions());
+    }
+
+    /**
+     * Create the CompositeKeyCSVDict from a CSV file on the class path,
+     * stored as the options specify.
+     *
+     * @param csvFileName the name of the CSV file
+     * @param delimiter the delimiter character in the CSV file
+     * @param keyIndexes the zero-based indexes of the columns that make up
+     *                   the key, at least two
+     * @param cl the CSV file must be on this class loader's classpath
+     * @param options settings that control the loading
+     * @throws CSVDict.CSVDictException
+     */
+    public CompositeKeyCSVDict(String csvFileName, char delimiter, int[] keyIndexes, ClassLoader cl,
+                               LoadOptions options)
+        throws CSVDictException
+    {
+        super(csvFileName, delimiter, checkParts(keyIndexes), cl, options);
+        compositeKeys = new CompositeKeyIndex(table, keyIndexes);
+    }
+
+    /**
+     * Create the CompositeKeyCSVDict from a memory-mapped CSV file.
+     *
+     * @param csvfp full path to the csv file
+     * @param delimiter the delimiter character in the CSV file
+     * @param keyIndexes the zero-based indexes of the columns that make up
+     *                   the key, at least two
+     * @throws CSVDict.CSVDictException
+     */
+    public CompositeKeyCSVDict(String csvfp, char delimiter, int[] keyIndexes)
+        throws CSVDictException
+    {
+        this(csvfp, delimiter, keyIndexes, new LoadOptions());
+    }
+
+    /**
+     * Create the CompositeKeyCSVDict from a memory-mapped CSV file, loaded as
+     * the options specify.
+     *
+     * @param csvfp full path to the csv file
+     * @param delimiter the delimiter character in the CSV file
+     * @param keyIndexes the zero-based indexes of the columns that make up
+     *                   the key, at least two
+     * @param options settings that control the loading
+     * @throws CSVDict.CSVDictException
+     */
+    public CompositeKeyCSVDict(String csvfp, char delimiter, int[] keyIndexes, LoadOptions options)
+        throws CSVDictException
+    {
+        super(csvfp, delimiter, checkParts(keyIndexes), options);
+        compositeKeys = new CompositeKeyIndex(table, keyIndexes);
+    }
+
+
+
+    private static int[] checkParts(int[] keyIndexes)
+    {
+        if (keyIndexes.length < 2)
+            throw new IllegalArgumentException("a composite key needs at least two columns");
+        return keyIndexes;
+    }
+
+
+
+    /**
+     * Looks up the row of a key once, so that its cells can be read by row
+     * number with getStringAt and the other methods ending in At.
+     *
+     * @param key the key parts, in the order of the key columns
+     * @return the zero-based row number, in file order
+     * @throws CSVDict.CSVDictException if no row is found that matches the key
+     */
+    public int getRowId(String[] key)
+        throws CSVDictException
+    {
+        int row = compositeKeys.get(key);
+        if (metrics != null)
+            counted(CSVDictMetrics.GET_ROW_ID, row < 0 ? String.join(", ", key) : null, row);
+        if (row < 0)
+            throw missingRow(String.join(", ", key));
+        return row;
+    }
+
+    /**
+     * @param k1 the first part of the key
+     * @param k2 the second part of the key
+     * @return the zero-based row number, in file order
+     * @throws CSVDict.CSVDictException if no row is found that matches the key
+     */
+    public int getRowId(String k1, String k2)
+        throws CSVDictException
+    {
+        return findRow(k1, k2, CSVDictMetrics.GET_ROW_ID);
+    }
+
+    /**
+     * @param k1 the first part of the key
+     * @param k2 the second part of the key
+     * @return the zero-based row number, in file order
+     * @throws CSVDict.CSVDictException if no row is found that matches the key
+     */
+    public int getRowId(String k1, int k2)
+        throws CSVDictException
+    {
+        return findRow(k1, k2, CSVDictMetrics.GET_ROW_ID);
+    }
+
+
+
+    // the row number of the key, or an exception if there is no such row
+    private int findRow(String k1, String k2, int accessor)
+        throws CSVDictException
+    {
+        int row = compositeKeys.get(k1, k2);
+        if (metrics != null)
+            counted(accessor, row < 0 ? k1 + ", " + k2 : null, row);
+        if (row < 0)
+            throw missingRow(k1 + ", " + k2);
+        return row;
+    }
+
+    private int findRow(String k1, int k2, int accessor)
+        throws CSVDictException
+    {
+        int row = compositeKeys.get(k1, k2);
+        if (metrics != null)
+            counted(accessor, row < 0 ? k1 + ", " + k2 : null, row);
+        if (row < 0)
+            throw missingRow(k1 + ", " + k2);
+        return row;
+    }
+
+
+
+    /**
+     * @param k1 the first part of the key
+     * @param k2 the second part of the key
+     * @param pos the zero-based position in the row of the desired value
+     * @return the selected cell in the CSV file as a String
+     * @throws CSVDict.CSVDictException if no row is found that matches the
+     *         key or pos is greater than number of columns
+     */
+    public String getString(String k1, String k2, int pos)
+        throws CSVDictException
+    {
+        checkPos(pos);
+        return table.getString(findRow(k1, k2, CSVDictMetrics.GET_STRING), pos);
+    }
+
+    /**
+     * @param k1 the first part of the key
+     * @param k2 the second part of the key
+     * @param pos the zero-based position in the row of the desired value
+     * @return the selected cell in the CSV file as a String
+     * @throws CSVDict.CSVDictException if no row is found that matches the
+     *         key or pos is greater than number of columns
+     */
+    public String getString(String k1, int k2, int pos)
+        throws CSVDictException
+    {
+        checkPos(pos);
+        return table.getString(findRow(k1, k2, CSVDictMetrics.GET_STRING), pos);
+    }
+
+
+
+    /**
+     * @param k1 the first part of the key
+     * @param k2 the second part of the key
+     * @param pos the zero-based position in the row of the desired value
+     * @return the selected cell as a Float, NaN if the cell is empty or
+     *         not a number
+     * @throws CSVDict.CSVDictException if no row is found that matches the
+     *         key or pos is greater than number of columns
+     */
+    public Float getFloat(String k1, String k2, int pos)
+        throws CSVDictException
+    {
+        checkPos(pos);
+        return readFloat(findRow(k1, k2, CSVDictMetrics.GET_FLOAT), pos, CSVDictMetrics.GET_FLOAT);
+    }
+
+    /**
+     * @param k1 the first part of the key
+     * @param k2 the second part of the key
+     * @param pos the zero-based position in the row of the desired value
+     * @return the selected cell as a Float, NaN if the cell is empty or
+     *         not a number
+     * @throws CSVDict.CSVDictException if no row is found that matches the
+     *         key or pos is greater than number of columns
+     */
+    public Float getFloat(String k1, int k2, int pos)
+        throws CSVDictException
+    {
+        checkPos(pos);
+        return readFloat(findRow(k1, k2, CSVDictMetrics.GET_FLOAT), pos, CSVDictMetrics.GET_FLOAT);
+    }
+
+
+
+    /**
+     * @param k1 the first part of the key
+     * @param k2 the second part of the key
+     * @param pos the zero-based position in the row of the desired value
+     * @return the selected cell as an Integer, Integer.MAX_VALUE if the
+     *         cell is empty or not an int
+     * @throws CSVDict.CSVDictException if no row is found that matches the
+     *         key or pos is greater than number of columns
+     */
+    public Integer getInteger(String k1, String k2, int pos)
+        throws CSVDictException
+    {
+        checkPos(pos);
+        return readInteger(findRow(k1, k2, CSVDictMetrics.GET_INTEGER), pos, CSVDictMetrics.GET_INTEGER);
+    }
+
+    /**
+     * @param k1 the first part of the key
+     * @param k2 the second part of the key
+     * @param pos the zero-based position in the row of the desired value
+     * @return the selected cell as an Integer, Integer.MAX_VALUE if the
+     *         cell is empty or not an int
+     * @throws CSVDict.CSVDictException if no row is found that matches the
+     *         key or pos is greater than number of columns
+     */
+    public Integer getInteger(String k1, int k2, int pos)
+        throws CSVDictException
+    {
+        checkPos(pos);
+        return readInteger(findRow(k1, k2, CSVDictMetrics.GET_INTEGER), pos, CSVDictMetrics.GET_INTEGER);
+    }
+
+
+
+    /**
+     * @param k1 the first part of the key
+     * @param k2 the second part of the key
+     * @param pos the zero-based position in the row of the desired value
+     * @return the selected cell as a float, or NaN if the cell is empty
+     *         or not a number
+     * @throws CSVDict.CSVDictException if no row is found that matches the
+     *         key or pos is greater than number of columns
+     */
+    public float getFloatValue(String k1, String k2, int pos)
+        throws CSVDictException
+    {
+        checkPos(pos);
+        return readFloat(findRow(k1, k2, CSVDictMetrics.GET_FLOAT_VALUE), pos, CSVDictMetrics.GET_FLOAT_VALUE);
+    }
+
+    /**
+     * @param k1 the first part of the key
+     * @param k2 the second part of the key
+     * @param pos the zero-based position in the row of the desired value
+     * @return the selected cell as a float, or NaN if the cell is empty
+     *         or not a number
+     * @throws CSVDict.CSVDictException if no row is found that matches the
+     *         key or pos is greater than number of columns
+     */
+    public float getFloatValue(String k1, int k2, int pos)
+        throws CSVDictException
+    {
+        checkPos(pos);
+        return readFloat(findRow(k1, k2, CSVDictMetrics.GET_FLOAT_VALUE), pos, CSVDictMetrics.GET_FLOAT_VALUE);
+    }
+
+
+
+    /**
+     * @param k1 the first part of the key
+     * @param k2 the second part of the key
+     * @param pos the zero-based position in the row of the desired value
+     * @return the selected cell as an int, or Integer.MAX_VALUE if the
+     *         cell is empty or not an int
+     * @throws CSVDict.CSVDictException if no row is found that matches the
+     *         key or pos is greater than number of columns
+     */
+    public int getIntValue(String k1, String k2, int pos)
+        throws CSVDictException
+    {
+        checkPos(pos);
+        return readInteger(findRow(k1, k2, CSVDictMetrics.GET_INT_VALUE), pos, CSVDictMetrics.GET_INT_VALUE);
+    }
+
+    /**
+     * @param k1 the first part of the key
+     * @param k2 the second part of the key
+     * @param pos the zero-based position in the row of the desired value
+     * @return the selected cell as an int, or Integer.MAX_VALUE if the
+     *         cell is empty or not an int
+     * @throws CSVDict.CSVDictException if no row is found that matches the
+     *         key or pos is greater than number of columns
+     */
+    public int getIntValue(String k1, int k2, int pos)
+        throws CSVDictException
+    {
+        checkPos(pos);
+        return readInteger(findRow(k1, k2, CSVDictMetrics.GET_INT_VALUE), pos, CSVDictMetrics.GET_INT_VALUE);
+    }
+
+
+
+    /**
+     * @param k1 the first part of the key
+     * @param k2 the second part of the key
+     * @param pos the zero-based position in the row of the desired value
+     * @return the selected cell as a double, or NaN if the cell is empty
+     *         or not a number
+     * @throws CSVDict.CSVDictException if no row is found that matches the
+     *         key or pos is greater than number of columns
+     */
+    public double getDoubleValue(String k1, String k2, int pos)
+        throws CSVDictException
+    {
+        checkPos(pos);
+        return readDouble(findRow(k1, k2, CSVDictMetrics.GET_DOUBLE_VALUE), pos, CSVDictMetrics.GET_DOUBLE_VALUE);
+    }
+
+    /**
+     * @param k1 the first part of the key
+     * @param k2 the second part of the key
+     * @param pos the zero-based position in the row of the desired value
+     * @return the selected cell as a double, or NaN if the cell is empty
+     *         or not a number
+     * @throws CSVDict.CSVDictException if no row is found that matches the
+     *         key or pos is greater than number of columns
+     */
+    public double getDoubleValue(String k1, int k2, int pos)
+        throws CSVDictException
+    {
+        checkPos(pos);
+        return readDouble(findRow(k1, k2, CSVDictMetrics.GET_DOUBLE_VALUE), pos, CSVDictMetrics.GET_DOUBLE_VALUE);
+    }
+}
@@ -0,0 +1,224 @@
+/*
+Copyright (c) 2012, Sonoma Technology, Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without 
+modification, are permitted provided that the following conditions 
+are met:
+
+    * Redistributions of source code must retain the above copyright 
+      notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above copyright 
+      notice, this list of conditions and the following disclaimer in 
+      the documentation and/or other materials provided with the 
+      distribution.
+
+    * Neither the name of Sonoma Technology, Inc. nor the names of 
+      its contributors may be used to endorse or promote products 
+      derived from this software without specific prior written 
+      permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS 
+FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE 
+COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR 
+BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF 
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF 
+THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF 
+SUCH DAMAGE. 
+*/
+
+
+
+package com.sonomatech.csvdict;
+
+
+
+/**
+ * An open-addressing hash table from the parts of composite keys to row
+ * numbers. Lookups hash and compare each part where it is, so no key String
+ * is built. A part may be given as an int, which matches the cell holding
+ * its decimal text; its hash is worked out from the digits.
+ */
+final class CompositeKeyIndex
+{
+    // the key cells, by part and then by row
+    private final String[][] parts;
+    // each slot holds row + 1, or 0 if empty, and the hash of that row's key
+    private final int[] slotRows;
+    private final int[] slotHashes;
+    private final int mask;
+
+
+
+    /**
+     * @param table the rows, no two with the same key
+     * @param keyIndexes the positions of the key parts
+     */
+    CompositeKeyIndex(Table table, int[] keyIndexes)
+    {
+        int n = table.size();
+        parts = new String[keyIndexes.length][n];
+        for (int p = 0; p < keyIndexes.length; p++)
+            for (int row = 0; row < n; row++) {
+                String cell = table.getString(row, keyIndexes[p]);
+                parts[p][row] = cell == null ? "" : cell;
+            }
+        int capacity = 16;
+        while (capacity < n * 2)
+            capacity <<= 1;
+        slotRows = new int[capacity];
+        slotHashes = new int[capacity];
+        mask = capacity - 1;
+        for (int row = 0; row < n; row++) {
+            int hash = 0;
+            for (int p = 0; p < parts.length; p++)
+                hash = combine(hash, parts[p][row].hashCode());
+            hash = spread(hash);
+            int i = hash & mask;
+            while (slotRows[i] != 0)
+                i = (i + 1) & mask;
+            slotRows[i] = row + 1;
+            slotHashes[i] = hash;
+        }
+    }
+
+
+
+    /**
+     * @return the row of the two-part key, or -1 if there is none
+     */
+    int get(String k1, String k2)
+    {
+        if (k1 == null || k2 == null)
+            return -1;
+        int hash = spread(combine(combine(0, k1.hashCode()), k2.hashCode()));
+        for (int i = hash & mask;; i = (i + 1) & mask) {
+            int row = slotRows[i] - 1;
+            if (row < 0)
+                return -1;
+            if (slotHashes[i] == hash && parts[0][row].equals(k1) && parts[1][row].equals(k2))
+                return row;
+        }
+    }
+
+    /**
+     * @return the row of the two-part key, or -1 if there is none
+     */
+    int get(String k1, int k2)
+    {
+        if (k1 == null)
+            return -1;
+        int hash = spread(combine(combine(0, k1.hashCode()), decimalHash(k2)));
+        for (int i = hash & mask;; i = (i + 1) & mask) {
+            int row = slotRows[i] - 1;
+            if (row < 0)
+                return -1;
+            if (slotHashes[i] == hash && parts[0][row].equals(k1) && isDecimal(parts[1][row], k2))
+                return row;
+        }
+    }
+
+    /**
+     * @return the row of the key, or -1 if there is none or the key has the
+     *         wrong number of parts
+     */
+    int get(String[] key)
+    {
+        if (key.length != parts.length)
+            return -1;
+        int hash = 0;
+        for (String part : key) {
+            if (part == null)
+                return -1;
+            hash = combine(hash, part.hashCode());
+        }
+        hash = spread(hash);
+        for (int i = hash & mask;; i = (i + 1) & mask) {
+            int row = slotRows[i] - 1;
+            if (row < 0)
+                return -1;
+            if (slotHashes[i] == hash && sameParts(row, key))
+                return row;
+        }
+    }
+
+
+
+    /**
+     * @return roughly how many bytes the index holds, not counting the key
+     *         cells, which the table holds as well
+     */
+    long estimateBytes()
+    {
+        return Table.arrayBytes(slotRows.length, 4) * 2 + parts.length * Table.arrayBytes(parts[0].length, 4);
+    }
+
+
+
+    private boolean sameParts(int row, String[] key)
+    {
+        for (int p = 0; p < key.length; p++)
+            if (!parts[p][row].equals(key[p]))
+                return false;
+        return true;
+    }
+
+    private static int combine(int hash, int partHash)
+    {
+        return hash * 31 + partHash;
+    }
+
+    private static int spread(int hash)
+    {
+        // spread the hash so linear probing doesn't cluster on similar keys
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+
+
+    // String.hashCode of the decimal text of the value, without the text
+    static int decimalHash(int value)
+    {
+        long v = value;
+        int hash = 0;
+        if (v < 0) {
+            hash = '-';
+            v = -v;
+        }
+        long scale = 1;
+        while (scale * 10 <= v)
+            scale *= 10;
+        for (; scale > 0; scale /= 10)
+            hash = 31 * hash + (char)('0' + v / scale % 10);
+        return hash;
+    }
+
+    // whether the text is the decimal text of the value, as Integer.toString
+    // would print it
+    static boolean isDecimal(String text, int value)
+    {
+        long v = value;
+        int i = 0;
+        if (v < 0) {
+            if (text.isEmpty() || text.charAt(0) != '-')
+                return false;
+            v = -v;
+            i = 1;
+        }
+        long scale = 1;
+        while (scale * 10 <= v)
+            scale *= 10;
+        for (; scale > 0; scale /= 10, i++)
+            if (i >= text.length() || text.charAt(i) != '0' + v / scale % 10)
+                return false;
+        return i == text.length();
+    }
+}
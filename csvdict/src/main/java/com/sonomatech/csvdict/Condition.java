@@ -0,0 +1,485 @@
+/*
+Copyright (c) 2012, Sonoma Technology, Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without 
+modification, are permitted provided that the following conditions 
+are met:
+
+    * Redistributions of source code must retain the above copyright 
+      notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above copyright 
+      notice, this list of conditions and the following disclaimer in 
+      the documentation and/or other materials provided with the 
+      distribution.
+
+    * Neither the name of Sonoma Technology, Inc. nor the names of 
+      its contributors may be used to endorse or promote products 
+      derived from this software without specific prior written 
+      permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS 
+FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE 
+COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR 
+BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF 
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF 
+THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF 
+SUCH DAMAGE. 
+*/
+
+
+
+package com.sonomatech.csvdict;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.function.IntPredicate;
+
+
+
+/**
+ * A test of the cells of a row, built from comparisons on named columns and
+ * combined with and, or and not. A condition only names its columns; it is
+ * bound to a dictionary by {@link CSVDict#query}, which checks the names
+ * once so that evaluating the query is a single pass over the rows.
+ * Conditions never change and may be shared between threads and queries.
+ */
+public abstract class Condition
+{
+    Condition()
+    {
+    }
+
+
+
+    /**
+     * @return a condition that the cell in the field equals value exactly
+     */
+    public static Condition eq(String field, String value)
+    {
+        return new In(field, new String[]{value});
+    }
+
+    /**
+     * @return a condition that the cell in the field equals one of values
+     *         exactly
+     */
+    public static Condition in(String field, String... values)
+    {
+        return new In(field, values.clone());
+    }
+
+    /**
+     * @return a condition that the cell in the field is a number equal to
+     *         value
+     */
+    public static Condition eq(String field, double value)
+    {
+        return new Range(field, value, true, value, true);
+    }
+
+    /**
+     * @return a condition that the cell in the field is a number less than
+     *         value
+     */
+    public static Condition lt(String field, double value)
+    {
+        return new Range(field, Double.NEGATIVE_INFINITY, true, value, false);
+    }
+
+    /**
+     * @return a condition that the cell in the field is a number less than or
+     *         equal to value
+     */
+    public static Condition le(String field, double value)
+    {
+        return new Range(field, Double.NEGATIVE_INFINITY, true, value, true);
+    }
+
+    /**
+     * @return a condition that the cell in the field is a number greater
+     *         than value
+     */
+    public static Condition gt(String field, double value)
+    {
+        return new Range(field, value, false, Double.POSITIVE_INFINITY, true);
+    }
+
+    /**
+     * @return a condition that the cell in the field is a number greater
+     *         than or equal to value
+     */
+    public static Condition ge(String field, double value)
+    {
+        return new Range(field, value, true, Double.POSITIVE_INFINITY, true);
+    }
+
+    /**
+     * @return a condition that the cell in the field is a number between min
+     *         and max, inclusive
+     */
+    public static Condition between(String field, double min, double max)
+    {
+        return new Range(field, min, true, max, true);
+    }
+
+    /**
+     * @return a condition that the cell in the field is empty. Negate it to
+     *         match the cells that hold something.
+     */
+    public static Condition isEmpty(String field)
+    {
+        return new Empty(field);
+    }
+
+    /**
+     * @return a condition that holds when all of the conditions hold, or
+     *         always if there are none
+     */
+    public static Condition and(Condition... conditions)
+    {
+        return new And(conditions.clone());
+    }
+
+    /**
+     * @return a condition that holds when any of the conditions holds, or
+     *         never if there are none
+     */
+    public static Condition or(Condition... conditions)
+    {
+        return new Or(conditions.clone());
+    }
+
+    /**
+     * @return a condition that holds when condition doesn't
+     */
+    public static Condition not(Condition condition)
+    {
+        return new Not(condition);
+    }
+
+
+
+    /**
+     * @return the test of a row of the dictionary's table, by row number
+     * @throws CSVDict.CSVDictException if a field doesn't exist
+     */
+    abstract IntPredicate bind(CSVDict dict)
+        throws CSVDict.CSVDictException;
+
+    /**
+     * @return the rows of the dictionary that meet the condition, worked out
+     *         from bitmap indexes alone, or null if a column it tests has no
+     *         bitmap index
+     * @throws CSVDict.CSVDictException if a field doesn't exist
+     */
+    abstract Bitmap bitmap(CSVDict dict)
+        throws CSVDict.CSVDictException;
+
+
+
+    static final class In extends Condition
+    {
+        final String field;
+        final String[] values;
+
+        In(String field, String[] values)
+        {
+            this.field = field;
+            this.values = values;
+        }
+
+        @Override
+        IntPredicate bind(CSVDict dict)
+            throws CSVDict.CSVDictException
+        {
+            final Table table = dict.table;
+            final int pos = dict.fieldPos(field);
+            if (values.length == 1) {
+                final String value = values[0];
+                return row -> value.equals(table.getString(row, pos));
+            }
+            final HashSet<String> set = new HashSet<String>(Arrays.asList(values));
+            return row -> set.contains(table.getString(row, pos));
+        }
+
+        @Override
+        Bitmap bitmap(CSVDict dict)
+            throws CSVDict.CSVDictException
+        {
+            BitmapIndex index = dict.bitmapIndex(dict.fieldPos(field));
+            if (index == null)
+                return null;
+            Bitmap rows = Bitmap.EMPTY;
+            for (String value : new HashSet<String>(Arrays.asList(values)))
+                rows = rows.or(index.rows(value));
+            return rows;
+        }
+
+        @Override
+        public String toString()
+        {
+            return values.length == 1 ? field + " = " + values[0] : field + " in " + Arrays.toString(values);
+        }
+    }
+
+
+
+    static final class Range extends Condition
+    {
+        final String field;
+        final double min;
+        final boolean minInclusive;
+        final double max;
+        final boolean maxInclusive;
+
+        Range(String field, double min, boolean minInclusive, double max, boolean maxInclusive)
+        {
+            this.field = field;
+            this.min = min;
+            this.minInclusive = minInclusive;
+            this.max = max;
+            this.maxInclusive = maxInclusive;
+        }
+
+        @Override
+        IntPredicate bind(CSVDict dict)
+            throws CSVDict.CSVDictException
+        {
+            final Table table = dict.table;
+            final int pos = dict.fieldPos(field);
+            // NaN, for cells that aren't numbers, fails every comparison
+            return row -> {
+                double v = table.getDouble(row, pos);
+                return matches(v);
+            };
+        }
+
+        @Override
+        Bitmap bitmap(CSVDict dict)
+            throws CSVDict.CSVDictException
+        {
+            BitmapIndex index = dict.bitmapIndex(dict.fieldPos(field));
+            if (index == null)
+                return null;
+            // test each distinct value once rather than each row
+            Bitmap rows = Bitmap.EMPTY;
+            for (Map.Entry<String, Bitmap> entry : index.values().entrySet())
+                if (matches(Table.toDouble(entry.getKey())))
+                    rows = rows.or(entry.getValue());
+            return rows;
+        }
+
+        private boolean matches(double v)
+        {
+            return (minInclusive ? v >= min : v > min) && (maxInclusive ? v <= max : v < max);
+        }
+
+        @Override
+        public String toString()
+        {
+            return field + " in " + (minInclusive ? "[" : "(") + min + ", " + max + (maxInclusive ? "]" : ")");
+        }
+    }
+
+
+
+    static final class Empty extends Condition
+    {
+        final String field;
+
+        Empty(String field)
+        {
+            this.field = field;
+        }
+
+        @Override
+        IntPredicate bind(CSVDict dict)
+            throws CSVDict.CSVDictException
+        {
+            final Table table = dict.table;
+            final int pos = dict.fieldPos(field);
+            return row -> {
+                String cell = table.getString(row, pos);
+                return cell == null || cell.isEmpty();
+            };
+        }
+
+        @Override
+        Bitmap bitmap(CSVDict dict)
+            throws CSVDict.CSVDictException
+        {
+            BitmapIndex index = dict.bitmapIndex(dict.fieldPos(field));
+            return index == null ? null : index.rows("").or(index.rows(null));
+        }
+
+        @Override
+        public String toString()
+        {
+            return field + " is empty";
+        }
+    }
+
+
+
+    static final class And extends Condition
+    {
+        final Condition[] conditions;
+
+        And(Condition[] conditions)
+        {
+            this.conditions = conditions;
+        }
+
+        @Override
+        IntPredicate bind(CSVDict dict)
+            throws CSVDict.CSVDictException
+        {
+            final IntPredicate[] tests = bindAll(conditions, dict);
+            if (tests.length == 2) {
+                final IntPredicate a = tests[0];
+                final IntPredicate b = tests[1];
+                return row -> a.test(row) && b.test(row);
+            }
+            return row -> {
+                for (IntPredicate test : tests)
+                    if (!test.test(row))
+                        return false;
+                return true;
+            };
+        }
+
+        @Override
+        Bitmap bitmap(CSVDict dict)
+            throws CSVDict.CSVDictException
+        {
+            Bitmap rows = null;
+            for (Condition condition : conditions) {
+                Bitmap part = condition.bitmap(dict);
+                if (part == null)
+                    return null;
+                rows = rows == null ? part : rows.and(part);
+            }
+            return rows == null ? Bitmap.range(dict.table.size()) : rows;
+        }
+
+        @Override
+        public String toString()
+        {
+            return join(conditions, " and ");
+        }
+    }
+
+
+
+    static final class Or extends Condition
+    {
+        final Condition[] conditions;
+
+        Or(Condition[] conditions)
+        {
+            this.conditions = conditions;
+        }
+
+        @Override
+        IntPredicate bind(CSVDict dict)
+            throws CSVDict.CSVDictException
+        {
+            final IntPredicate[] tests = bindAll(conditions, dict);
+            if (tests.length == 2) {
+                final IntPredicate a = tests[0];
+                final IntPredicate b = tests[1];
+                return row -> a.test(row) || b.test(row);
+            }
+            return row -> {
+                for (IntPredicate test : tests)
+                    if (test.test(row))
+                        return true;
+                return false;
+            };
+        }
+
+        @Override
+        Bitmap bitmap(CSVDict dict)
+            throws CSVDict.CSVDictException
+        {
+            Bitmap rows = Bitmap.EMPTY;
+            for (Condition condition : conditions) {
+                Bitmap part = condition.bitmap(dict);
+                if (part == null)
+                    return null;
+                rows = rows.or(part);
+            }
+            return rows;
+        }
+
+        @Override
+        public String toString()
+        {
+            return join(conditions, " or ");
+        }
+    }
+
+
+
+    static final class Not extends Condition
+    {
+        final Condition condition;
+
+        Not(Condition condition)
+        {
+            this.condition = condition;
+        }
+
+        @Override
+        IntPredicate bind(CSVDict dict)
+            throws CSVDict.CSVDictException
+        {
+            final IntPredicate test = condition.bind(dict);
+            return row -> !test.test(row);
+        }
+
+        @Override
+        Bitmap bitmap(CSVDict dict)
+            throws CSVDict.CSVDictException
+        {
+            Bitmap rows = condition.bitmap(dict);
+            return rows == null ? null : Bitmap.range(dict.table.size()).andNot(rows);
+        }
+
+        @Override
+        public String toString()
+        {
+            return "not (" + condition + ")";
+        }
+    }
+
+
+
+    private static IntPredicate[] bindAll(Condition[] conditions, CSVDict dict)
+        throws CSVDict.CSVDictException
+    {
+        IntPredicate[] tests = new IntPredicate[conditions.length];
+        for (int i = 0; i < tests.length; i++)
+            tests[i] = conditions[i].bind(dict);
+        return tests;
+    }
+
+
+
+    private static String join(Condition[] conditions, String op)
+    {
+        StringBuilder sb = new StringBuilder("(");
+        for (int i = 0; i < conditions.length; i++)
+            sb.append(i == 0 ? "" : op).append(conditions[i]);
+        return sb.append(')').toString();
+    }
+}
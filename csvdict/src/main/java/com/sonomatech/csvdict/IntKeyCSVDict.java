@@ -40,7 +40,7 @@ package com.sonomatech.csvdict;
 
 import java.io.BufferedReader;
 import java.io.FileNotFoundException;
-import java.util.Iterator;
+import java.util.BitSet;
 
 
 
@@ -49,6 +49,10 @@ import java.util.Iterator;
  */
 public class IntKeyCSVDict extends CSVDict
 {
+    private IntKeyIndex intKeys;
+
+
+
     /**
      * Create the IntKeyCSVDict from a BufferedReader initialized to read from
      * the CSV file.
@@ -65,6 +69,23 @@ public class IntKeyCSVDict extends CSVDict
         keyIsInt();
     }
 
+    /**
+     * Create the IntKeyCSVDict from a BufferedReader initialized to read from
+     * the CSV file.
+     *
+     * @param br the reader
+     * @param delimiter the delimiter character in the CSV file
+     * @param keyIndex the zero-based index of the column that is to be used as the key
+     * @param options settings that control the loading
+     * @throws CSVDict.CSVDictException
+     */
+    public IntKeyCSVDict(BufferedReader br, char delimiter, int keyIndex, LoadOptions options)
+        throws CSVDictException
+    {
+        super(br, delimiter, keyIndex, options);
+        keyIsInt();
+    }
+
     /**
      * Create the IntKeyCSVDict from the specified CSV file.
      *
@@ -80,22 +101,114 @@ public class IntKeyCSVDict extends CSVDict
         keyIsInt();
     }
 
+    /**
+     * Create the IntKeyCSVDict from the specified CSV file.
+     *
+     * @param csvFileName the name of the CSV file (file must be on classpath)
+     * @param delimiter the delimiter character in the CSV file
+     * @param keyIndex the zero-based index of the column that is to be used as the key
+     * @param options settings that control the loading
+     * @throws CSVDict.CSVDictException
+     */
+    public IntKeyCSVDict(String csvFileName, char delimiter, int keyIndex, ClassLoader cl, LoadOptions options)
+        throws CSVDictException
+    {
+        super(csvFileName, delimiter, keyIndex, cl, options);
+        keyIsInt();
+    }
+
+    /**
+     * Create the IntKeyCSVDict from the CSV file at the given path.
+     *
+     * @param csvfp full path to the csv file
+     * @param delimiter the delimiter character in the CSV file
+     * @param keyIndex the zero-based index of the column that is to be used as the key
+     * @param options settings that control the loading
+     * @throws CSVDict.CSVDictException
+     */
+    public IntKeyCSVDict(String csvfp, char delimiter, int keyIndex, LoadOptions options)
+        throws CSVDictException
+    {
+        super(csvfp, delimiter, keyIndex, options);
+        keyIsInt();
+    }
+
+    /**
+     * Reads a table that {@link RowClassSourceGenerator} parsed at build time
+     * and stored on the class path. See {@link CSVDict#fromSnapshot}.
+     *
+     * @param resource the name of the binary resource
+     * @param cl the resource must be on this class loader's classpath
+     * @return the dictionary, keyed on the column it was keyed on when stored
+     * @throws CSVDict.CSVDictException
+     */
+    public static IntKeyCSVDict fromSnapshot(String resource, ClassLoader cl)
+        throws CSVDictException
+    {
+        return new IntKeyCSVDict(resource, cl);
+    }
+
+    private IntKeyCSVDict(String resource, ClassLoader cl)
+        throws CSVDictException
+    {
+        super(resource, cl);
+        keyIsInt();
+    }
+
+    // checks that every key is an int and indexes the rows by int key. Keys
+    // must be written the way Integer.toString writes them, otherwise "007"
+    // and "7" would be different rows with the same int key.
     private boolean keyIsInt()
         throws CSVDictException
     {
-        Iterator<String> dictKeysIter = dict.keySet().iterator();
-        if (dictKeysIter.hasNext())
+        int[] keyValues = new int[table.size()];
+        if (keyValues.length == 0)
+            throw new CSVDictException(new FileNotFoundException("Trying to instance a IntKeyCSVDict with empty CSV file"));
+        for (int row = 0; row < keyValues.length; row++) {
+            String key = table.getString(row, keyIndex);
             try {
-                Integer.parseInt(dictKeysIter.next());
+                keyValues[row] = Integer.parseInt(key);
             } catch (NumberFormatException e) {
-                throw new IllegalArgumentException("Trying to instance a IntKeyCSVDict with non-int key");
+                throw new IllegalArgumentException("Trying to instance a IntKeyCSVDict with non-int key " + key);
             }
-        else
-            throw new CSVDictException(new FileNotFoundException("Trying to instance a IntKeyCSVDict with empty CSV file"));
+            if (!Integer.toString(keyValues[row]).equals(key))
+                throw new IllegalArgumentException("Trying to instance a IntKeyCSVDict with non-canonical int key " + key);
+        }
+        intKeys = new IntKeyIndex(keyValues);
         return true;
     }
 
 
+
+    /**
+     * Looks up the row of a key once, so that its cells can be read by row
+     * number with getStringAt and the other methods ending in At.
+     *
+     * @param key the value of the key field that selects the row
+     * @return the zero-based row number, in file order
+     * @throws CSVDict.CSVDictException if no row is found that matches key value
+     */
+    public int getRowId(int key)
+        throws CSVDict.CSVDictException
+    {
+        return findRow(key, CSVDictMetrics.GET_ROW_ID);
+    }
+
+
+
+    // the row number of the key, or an exception if there is no such row
+    private int findRow(int key, int accessor)
+        throws CSVDictException
+    {
+        int row = intKeys.get(key);
+        if (metrics != null)
+            counted(accessor, key, row);
+        if (row < 0)
+            throw missingRow(key);
+        return row;
+    }
+
+
     /**
      * This method is for accessing the value as a String
      *
@@ -109,7 +222,8 @@ public class IntKeyCSVDict extends CSVDict
     public String getString(int key, int pos)
         throws CSVDictException
     {
-        return getString(key + "", pos);
+        checkPos(pos);
+        return table.getString(findRow(key, CSVDictMetrics.GET_STRING), pos);
     }
 
 
@@ -129,7 +243,8 @@ public class IntKeyCSVDict extends CSVDict
     public Float getFloat(int key, int pos)
         throws CSVDict.CSVDictException
     {
-        return getFloat(key + "", pos);
+        checkPos(pos);
+        return readFloat(findRow(key, CSVDictMetrics.GET_FLOAT), pos, CSVDictMetrics.GET_FLOAT);
     }
 
 
@@ -149,6 +264,188 @@ public class IntKeyCSVDict extends CSVDict
     public Integer getInteger(int key, int pos)
         throws CSVDict.CSVDictException
     {
-        return getInteger(key + "", pos);
+        checkPos(pos);
+        return readInteger(findRow(key, CSVDictMetrics.GET_INTEGER), pos, CSVDictMetrics.GET_INTEGER);
+    }
+
+
+
+
+    /**
+     * Like getFloat but without boxing either the key or the value
+     *
+     * @param key the value of the key field that selects the row
+     * @param pos the zero-based position in the row of the desired value
+     * @return the selected cell as a float, or NaN if the cell is empty or
+     *         not a number
+     * @throws CSVDict.CSVDictException if no row is found that matches key
+     *         value or pos is greater than number of columns
+     */
+    public float getFloatValue(int key, int pos)
+        throws CSVDict.CSVDictException
+    {
+        checkPos(pos);
+        return readFloat(findRow(key, CSVDictMetrics.GET_FLOAT_VALUE), pos, CSVDictMetrics.GET_FLOAT_VALUE);
+    }
+
+
+
+
+    /**
+     * Like getInteger but without boxing either the key or the value
+     *
+     * @param key the value of the key field that selects the row
+     * @param pos the zero-based position in the row of the desired value
+     * @return the selected cell as an int, or Integer.MAX_VALUE if the cell
+     *         is empty or not an int
+     * @throws CSVDict.CSVDictException if no row is found that matches key
+     *         value or pos is greater than number of columns
+     */
+    public int getIntValue(int key, int pos)
+        throws CSVDict.CSVDictException
+    {
+        checkPos(pos);
+        return readInteger(findRow(key, CSVDictMetrics.GET_INT_VALUE), pos, CSVDictMetrics.GET_INT_VALUE);
+    }
+
+
+
+
+    /**
+     * This method is for accessing the value as a double
+     *
+     * @param key the value of the key field that selects the row
+     * @param pos the zero-based position in the row of the desired value
+     * @return the selected cell as a double, or NaN if the cell is empty or
+     *         not a number
+     * @throws CSVDict.CSVDictException if no row is found that matches key
+     *         value or pos is greater than number of columns
+     */
+    public double getDoubleValue(int key, int pos)
+        throws CSVDict.CSVDictException
+    {
+        checkPos(pos);
+        return readDouble(findRow(key, CSVDictMetrics.GET_DOUBLE_VALUE), pos, CSVDictMetrics.GET_DOUBLE_VALUE);
+    }
+
+
+
+
+    /**
+     * Reads one column for a whole batch of keys. A key that isn't found
+     * gets NaN and is reported in the returned bits rather than thrown for.
+     *
+     * @param keys the values of the key field that select the rows
+     * @param pos the zero-based position in the row of the desired values
+     * @param out receives the cell of each key as a float, or NaN if the
+     *            cell is empty or not a number
+     * @return the indexes in keys of the keys that weren't found
+     * @throws CSVDict.CSVDictException if pos is greater than number of
+     *         columns
+     */
+    public BitSet getFloats(final int[] keys, final int pos, final float[] out)
+        throws CSVDict.CSVDictException
+    {
+        checkPos(pos);
+        checkBatch(keys.length, out.length);
+        return batch(keys.length, (rows, from, to) -> {
+            for (int i = from; i < to; i++) {
+                int row = intKeys.get(keys[i]);
+                rows[i] = row;
+                out[i] = row < 0 ? Float.NaN : readFloat(row, pos, CSVDictMetrics.GET_FLOATS);
+            }
+        }, CSVDictMetrics.GET_FLOATS, i -> keys[i]);
+    }
+
+
+
+
+    /**
+     * Reads several columns for a whole batch of keys, finding each key only
+     * once. See getFloats with one position.
+     *
+     * @param keys the values of the key field that select the rows
+     * @param positions the zero-based positions in the row of the desired
+     *                  values
+     * @param out out[j][i] receives the cell of keys[i] at positions[j]
+     * @return the indexes in keys of the keys that weren't found
+     * @throws CSVDict.CSVDictException if a position is greater than number
+     *         of columns
+     */
+    public BitSet getFloats(final int[] keys, final int[] positions, final float[][] out)
+        throws CSVDict.CSVDictException
+    {
+        if (out.length < positions.length)
+            throw new IllegalArgumentException("output holds " + out.length + " columns for " + positions.length
+                                               + " positions");
+        for (int j = 0; j < positions.length; j++) {
+            checkPos(positions[j]);
+            checkBatch(keys.length, out[j].length);
+        }
+        return batch(keys.length, (rows, from, to) -> {
+            for (int i = from; i < to; i++) {
+                int row = intKeys.get(keys[i]);
+                rows[i] = row;
+                for (int j = 0; j < positions.length; j++)
+                    out[j][i] = row < 0 ? Float.NaN : readFloat(row, positions[j], CSVDictMetrics.GET_FLOATS);
+            }
+        }, CSVDictMetrics.GET_FLOATS, i -> keys[i]);
+    }
+
+
+
+
+    /**
+     * Reads one column for a whole batch of keys. See getFloats.
+     *
+     * @param keys the values of the key field that select the rows
+     * @param pos the zero-based position in the row of the desired values
+     * @param out receives the cell of each key as an int, or
+     *            Integer.MAX_VALUE if the cell is empty or not an int or the
+     *            key wasn't found
+     * @return the indexes in keys of the keys that weren't found
+     * @throws CSVDict.CSVDictException if pos is greater than number of
+     *         columns
+     */
+    public BitSet getInts(final int[] keys, final int pos, final int[] out)
+        throws CSVDict.CSVDictException
+    {
+        checkPos(pos);
+        checkBatch(keys.length, out.length);
+        return batch(keys.length, (rows, from, to) -> {
+            for (int i = from; i < to; i++) {
+                int row = intKeys.get(keys[i]);
+                rows[i] = row;
+                out[i] = row < 0 ? Integer.MAX_VALUE : readInteger(row, pos, CSVDictMetrics.GET_INTS);
+            }
+        }, CSVDictMetrics.GET_INTS, i -> keys[i]);
+    }
+
+
+
+
+    /**
+     * Reads one column for a whole batch of keys. See getFloats.
+     *
+     * @param keys the values of the key field that select the rows
+     * @param pos the zero-based position in the row of the desired values
+     * @param out receives the cell of each key as a double, or NaN if the
+     *            cell is empty or not a number or the key wasn't found
+     * @return the indexes in keys of the keys that weren't found
+     * @throws CSVDict.CSVDictException if pos is greater than number of
+     *         columns
+     */
+    public BitSet getDoubles(final int[] keys, final int pos, final double[] out)
+        throws CSVDict.CSVDictException
+    {
+        checkPos(pos);
+        checkBatch(keys.length, out.length);
+        return batch(keys.length, (rows, from, to) -> {
+            for (int i = from; i < to; i++) {
+                int row = intKeys.get(keys[i]);
+                rows[i] = row;
+                out[i] = row < 0 ? Double.NaN : readDouble(row, pos, CSVDictMetrics.GET_DOUBLES);
+            }
+        }, CSVDictMetrics.GET_DOUBLES, i -> keys[i]);
     }
 }
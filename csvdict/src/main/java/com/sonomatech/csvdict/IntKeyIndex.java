@@ -0,0 +1,131 @@
+/*
+Copyright (c) 2012, Sonoma Technology, Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without 
+modification, are permitted provided that the following conditions 
+are met:
+
+    * Redistributions of source code must retain the above copyright 
+      notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above copyright 
+      notice, this list of conditions and the following disclaimer in 
+      the documentation and/or other materials provided with the 
+      distribution.
+
+    * Neither the name of Sonoma Technology, Inc. nor the names of 
+      its contributors may be used to endorse or promote products 
+      derived from this software without specific prior written 
+      permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS 
+FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE 
+COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR 
+BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF 
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF 
+THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF 
+SUCH DAMAGE. 
+*/
+
+
+
+package com.sonomatech.csvdict;
+
+
+
+/**
+ * Maps int keys to row numbers without boxing. When the keys are dense the
+ * row is read straight out of an array indexed by key; otherwise an
+ * open-addressing hash table is used.
+ */
+final class IntKeyIndex
+{
+    // rows are stored plus one so that zero marks a missing key
+    private final int min;
+    private final int[] direct;
+    private final int[] keys;
+    private final int[] rows;
+    private final int mask;
+
+
+
+    /**
+     * @param keyValues the key of each row, by row number; a key that occurs
+     *                  more than once maps to its last row
+     */
+    IntKeyIndex(int[] keyValues)
+    {
+        int n = keyValues.length;
+        int lo = 0;
+        int hi = -1;
+        if (n > 0) {
+            lo = hi = keyValues[0];
+            for (int k : keyValues) {
+                lo = Math.min(lo, k);
+                hi = Math.max(hi, k);
+            }
+        }
+
+        long range = (long)hi - lo + 1;
+        if (range <= 2L * n + 64) {
+            min = lo;
+            direct = new int[(int)range];
+            for (int row = 0; row < n; row++)
+                direct[keyValues[row] - lo] = row + 1;
+            keys = null;
+            rows = null;
+            mask = 0;
+        } else {
+            int capacity = 16;
+            while (capacity < n * 2)
+                capacity <<= 1;
+            min = 0;
+            direct = null;
+            keys = new int[capacity];
+            rows = new int[capacity];
+            mask = capacity - 1;
+            for (int row = 0; row < n; row++) {
+                int i = slot(keyValues[row]);
+                while (rows[i] != 0 && keys[i] != keyValues[row])
+                    i = (i + 1) & mask;
+                keys[i] = keyValues[row];
+                rows[i] = row + 1;
+            }
+        }
+    }
+
+
+
+    /**
+     * @return the row of the key, or -1 if the key isn't in the index
+     */
+    int get(int key)
+    {
+        if (direct != null) {
+            int i = key - min;
+            // also catches keys so far below min that the subtraction overflows
+            return i >= 0 && i < direct.length && key >= min ? direct[i] - 1 : -1;
+        }
+        for (int i = slot(key);; i = (i + 1) & mask) {
+            if (rows[i] == 0)
+                return -1;
+            if (keys[i] == key)
+                return rows[i] - 1;
+        }
+    }
+
+
+
+    private int slot(int key)
+    {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+}
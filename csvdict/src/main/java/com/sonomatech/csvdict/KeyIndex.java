@@ -0,0 +1,164 @@
+/*
+Copyright (c) 2012, Sonoma Technology, Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without 
+modification, are permitted provided that the following conditions 
+are met:
+
+    * Redistributions of source code must retain the above copyright 
+      notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above copyright 
+      notice, this list of conditions and the following disclaimer in 
+      the documentation and/or other materials provided with the 
+      distribution.
+
+    * Neither the name of Sonoma Technology, Inc. nor the names of 
+      its contributors may be used to endorse or promote products 
+      derived from this software without specific prior written 
+      permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS 
+FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE 
+COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR 
+BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF 
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF 
+THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF 
+SUCH DAMAGE. 
+*/
+
+
+
+package com.sonomatech.csvdict;
+
+
+
+/**
+ * An open-addressing hash table from key strings to row numbers.
+ */
+final class KeyIndex
+{
+    private String[] keys;
+    private int[] rows;
+    private int mask;
+    private int size;
+
+
+
+    /**
+     * @param expected the number of keys expected
+     */
+    KeyIndex(int expected)
+    {
+        int capacity = 16;
+        while (capacity < expected * 2)
+            capacity <<= 1;
+        keys = new String[capacity];
+        rows = new int[capacity];
+        mask = capacity - 1;
+    }
+
+
+
+    /**
+     * @param withKeys whether to count the key Strings, which are usually
+     *                 held by the table as well
+     * @return roughly how many bytes the index holds
+     */
+    long estimateBytes(boolean withKeys)
+    {
+        long bytes = Table.arrayBytes(keys.length, 4) + Table.arrayBytes(rows.length, 4);
+        if (withKeys)
+            for (String key : keys)
+                bytes += Table.stringBytes(key);
+        return bytes;
+    }
+
+
+
+    /**
+     * @return the row of the key, or -1 if the key isn't in the table
+     */
+    int get(String key)
+    {
+        if (key == null)
+            return -1;
+        for (int i = slot(key);; i = (i + 1) & mask) {
+            String k = keys[i];
+            if (k == null)
+                return -1;
+            if (k.equals(key))
+                return rows[i];
+        }
+    }
+
+
+
+    /**
+     * Maps the key to the row, replacing any earlier mapping of the key.
+     *
+     * @return the row the key was mapped to before, or -1
+     */
+    int put(String key, int row)
+    {
+        int i = slot(key);
+        for (; keys[i] != null; i = (i + 1) & mask) {
+            if (keys[i].equals(key)) {
+                int old = rows[i];
+                rows[i] = row;
+                return old;
+            }
+        }
+        keys[i] = key;
+        rows[i] = row;
+        if (++size * 2 > keys.length)
+            grow();
+        return -1;
+    }
+
+
+
+    /**
+     * @return the number of keys in the table
+     */
+    int size()
+    {
+        return size;
+    }
+
+
+
+    private int slot(String key)
+    {
+        // spread the hash so linear probing doesn't cluster on similar keys
+        int h = key.hashCode() * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+
+
+    private void grow()
+    {
+        String[] oldKeys = keys;
+        int[] oldRows = rows;
+        keys = new String[oldKeys.length * 2];
+        rows = new int[keys.length];
+        mask = keys.length - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] == null)
+                continue;
+            int i = slot(oldKeys[j]);
+            while (keys[i] != null)
+                i = (i + 1) & mask;
+            keys[i] = oldKeys[j];
+            rows[i] = oldRows[j];
+        }
+    }
+}
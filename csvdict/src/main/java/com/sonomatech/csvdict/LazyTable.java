@@ -0,0 +1,171 @@
+/*
+Copyright (c) 2012, Sonoma Technology, Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without 
+modification, are permitted provided that the following conditions 
+are met:
+
+    * Redistributions of source code must retain the above copyright 
+      notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above copyright 
+      notice, this list of conditions and the following disclaimer in 
+      the documentation and/or other materials provided with the 
+      distribution.
+
+    * Neither the name of Sonoma Technology, Inc. nor the names of 
+      its contributors may be used to endorse or promote products 
+      derived from this software without specific prior written 
+      permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS 
+FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE 
+COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR 
+BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF 
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF 
+THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF 
+SUCH DAMAGE. 
+*/
+
+
+
+package com.sonomatech.csvdict;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+
+/**
+ * Lazy storage: loading only finds where each row starts in the mapped file
+ * and what its key is. A row is tokenized the first time one of its cells is
+ * read and is then kept in a cache of the most recently used rows, so a table
+ * of which few rows are read costs little more than its keys. The file must
+ * not change while the table is in use.
+ */
+final class LazyTable extends Table
+{
+    private final ByteBuffer buf;
+    private final char delimiter;
+    private final int keyIndex;
+    private final KeyIndex keys;
+    // by row: the key, and the offset in buf where the row starts
+    private String[] rowKeys;
+    private int[] offsets;
+    private int size;
+    // guarded by itself
+    private final LinkedHashMap<Integer, String[]> cache;
+
+
+
+    /**
+     * @param buf the whole CSV file
+     * @param start offset of the first record after the header
+     * @param delimiter the column delimiter, must be ASCII
+     * @param keyIndex the position of the key column
+     * @param cacheSize the most parsed rows to keep
+     */
+    LazyTable(ByteBuffer buf, int start, char delimiter, int keyIndex, final int cacheSize)
+    {
+        this.buf = buf;
+        this.delimiter = delimiter;
+        this.keyIndex = keyIndex;
+        rowKeys = new String[1024];
+        offsets = new int[1024];
+        keys = new KeyIndex(1024);
+        MappedCSVTokenizer tokenizer = new MappedCSVTokenizer(buf, start, buf.limit(), delimiter, null);
+        String key;
+        while ((key = tokenizer.nextKey(keyIndex)) != null) {
+            int row = keys.get(key);
+            if (row >= 0) {
+                // a key that appears again replaces the row in place, as in
+                // the LinkedHashMap of row storage
+                offsets[row] = tokenizer.recordStart();
+                continue;
+            }
+            if (size == offsets.length) {
+                rowKeys = Arrays.copyOf(rowKeys, size * 2);
+                offsets = Arrays.copyOf(offsets, size * 2);
+            }
+            rowKeys[size] = key;
+            offsets[size] = tokenizer.recordStart();
+            keys.put(key, size++);
+        }
+        cache = new LinkedHashMap<Integer, String[]>(16, 0.75f, true) {
+            private static final long serialVersionUID = 0L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, String[]> eldest)
+            {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+
+
+    @Override
+    int size()
+    {
+        return size;
+    }
+
+    @Override
+    int find(String key)
+    {
+        return keys.get(key);
+    }
+
+    @Override
+    String getString(int row, int pos)
+    {
+        if (pos == keyIndex)
+            return rowKeys[row];
+        String[] cells = row(row);
+        return pos < cells.length ? cells[pos] : "";
+    }
+
+    @Override
+    long estimateBytes()
+    {
+        // the mapped file is left to the operating system's page cache
+        long bytes = keys.estimateBytes(false) + Table.arrayBytes(offsets.length, 4)
+                   + Table.arrayBytes(rowKeys.length, 4);
+        for (int row = 0; row < size; row++)
+            bytes += Table.stringBytes(rowKeys[row]);
+        synchronized (cache) {
+            for (String[] cells : cache.values()) {
+                bytes += Table.arrayBytes(cells.length, 4);
+                for (String cell : cells)
+                    bytes += Table.stringBytes(cell);
+            }
+        }
+        return bytes;
+    }
+
+
+
+    private String[] row(int row)
+    {
+        synchronized (cache) {
+            String[] cells = cache.get(row);
+            if (cells != null)
+                return cells;
+        }
+        // tokenized outside the lock; two threads may both parse a row
+        String[] cells = new MappedCSVTokenizer(buf, offsets[row], buf.limit(), delimiter, null).next();
+        synchronized (cache) {
+            cache.put(row, cells);
+        }
+        return cells;
+    }
+}
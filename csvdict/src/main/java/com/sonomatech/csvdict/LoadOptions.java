@@ -0,0 +1,329 @@
+/*
+Copyright (c) 2012, Sonoma Technology, Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without 
+modification, are permitted provided that the following conditions 
+are met:
+
+    * Redistributions of source code must retain the above copyright 
+      notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above copyright 
+      notice, this list of conditions and the following disclaimer in 
+      the documentation and/or other materials provided with the 
+      distribution.
+
+    * Neither the name of Sonoma Technology, Inc. nor the names of 
+      its contributors may be used to endorse or promote products 
+      derived from this software without specific prior written 
+      permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS 
+FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE 
+COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR 
+BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF 
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF 
+THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF 
+SUCH DAMAGE. 
+*/
+
+
+
+package com.sonomatech.csvdict;
+
+import java.util.concurrent.ForkJoinPool;
+
+
+
+/**
+ * Settings that control how a CSVDict is loaded. The defaults give the same
+ * result as the constructors that don't take options. Setters return this
+ * object so they can be chained:
+ * <PRE>
+ * <code>
+ *      CSVDict dict = new CSVDict(path, ',', 0, new LoadOptions().setParallel());
+ * </code>
+ * </PRE>
+ */
+public class LoadOptions
+{
+    /**
+     * How the cells are kept in memory once the file is loaded.
+     */
+    public enum Storage
+    {
+        /** every row is a String array, kept in a LinkedHashMap */
+        ROWS,
+        /** every column is a typed array: ints, longs and floats are stored as
+         *  primitives and other columns as dictionary-encoded strings */
+        COLUMNAR,
+        /** the cells and the key index are kept in direct buffers outside the
+         *  heap, and cells are decoded each time they are read */
+        OFF_HEAP,
+        /** only the keys and where each row starts in the file are loaded; a
+         *  row is parsed when it is first read and kept in a cache of recently
+         *  used rows. Only applies when loading from a file path, and then
+         *  the file must not change while the dictionary is in use. Other
+         *  loads use row storage. Can't be combined with a snapshot path. */
+        LAZY
+    }
+
+    private ForkJoinPool pool;
+    private int minChunkSize = 1 << 20;
+    private Storage storage = Storage.ROWS;
+    private boolean autoIndex;
+    private String snapshotPath;
+    private int dedupThreshold = 256;
+    private int rowCacheSize = 1024;
+    private boolean metrics;
+    private CSVDictListener listener;
+
+
+
+    /**
+     * Parses the file in chunks on the given fork-join pool. Only applies when
+     * loading from a file path; readers and class path resources are always
+     * parsed on the calling thread.
+     *
+     * @param pool the pool to parse on, or null to parse on the calling thread
+     * @return these options
+     */
+    public LoadOptions setParallel(ForkJoinPool pool)
+    {
+        this.pool = pool;
+        return this;
+    }
+
+    /**
+     * Parses the file in chunks on the common fork-join pool.
+     *
+     * @return these options
+     */
+    public LoadOptions setParallel()
+    {
+        return setParallel(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @return the pool used for parallel loading, or null if loading is
+     *         sequential
+     */
+    public ForkJoinPool getPool()
+    {
+        return pool;
+    }
+
+
+
+    /**
+     * Sets the smallest number of bytes handed to one parallel parsing task.
+     * Files smaller than this are parsed sequentially.
+     *
+     * @param bytes the minimum chunk size in bytes
+     * @return these options
+     */
+    public LoadOptions setMinChunkSize(int bytes)
+    {
+        if (bytes <= 0)
+            throw new IllegalArgumentException("chunk size must be positive: " + bytes);
+        minChunkSize = bytes;
+        return this;
+    }
+
+    /**
+     * @return the minimum chunk size in bytes for parallel loading
+     */
+    public int getMinChunkSize()
+    {
+        return minChunkSize;
+    }
+
+
+
+    /**
+     * Sets how the loaded cells are stored. The query methods behave the same
+     * for every kind of storage.
+     *
+     * @param storage the kind of storage
+     * @return these options
+     */
+    public LoadOptions setStorage(Storage storage)
+    {
+        if (storage == null)
+            throw new IllegalArgumentException("storage can't be null");
+        this.storage = storage;
+        return this;
+    }
+
+    /**
+     * @return how the loaded cells are stored
+     */
+    public Storage getStorage()
+    {
+        return storage;
+    }
+
+
+
+    /**
+     * Builds a hash index on a column the first time getFilteredColumn filters
+     * on it, and a sorted index the first time getRowIds runs a range query on
+     * it, rather than only on the columns passed to createIndex and
+     * createRangeIndex. Each index holds one entry per row of the file.
+     *
+     * @param autoIndex true to index filtered columns automatically
+     * @return these options
+     */
+    public LoadOptions setAutoIndex(boolean autoIndex)
+    {
+        this.autoIndex = autoIndex;
+        return this;
+    }
+
+    /**
+     * @return true if filtered columns are indexed automatically
+     */
+    public boolean isAutoIndex()
+    {
+        return autoIndex;
+    }
+
+
+
+    /**
+     * Keeps a binary snapshot of the parsed file, so that later loads skip
+     * the parsing. The snapshot is read if it was made from the CSV file as
+     * it is now, judged by the file's size and modification time, and is
+     * written again otherwise. Only applies when loading from a file path,
+     * and can't be combined with {@link Storage#LAZY lazy storage}: loading
+     * a file with both throws an IllegalArgumentException.
+     *
+     * @param path where the snapshot is kept, or null for no snapshot
+     * @return these options
+     */
+    public LoadOptions setSnapshotPath(String path)
+    {
+        snapshotPath = path;
+        return this;
+    }
+
+    /**
+     * @return where the snapshot is kept, or null if there is none
+     */
+    public String getSnapshotPath()
+    {
+        return snapshotPath;
+    }
+
+
+
+    /**
+     * Sets the most distinct values a column may have for its cells to share
+     * String instances while the file is read. In a column under the
+     * threshold, every cell with the same text is the same String, and a
+     * repeated value doesn't allocate a new one. Columns that pass the
+     * threshold, like names and IDs, get a String per cell. Columnar storage
+     * goes further and keeps such columns as small integer codes.
+     *
+     * @param threshold the most distinct values per pooled column, or 0 to
+     *                  give every cell its own String
+     * @return these options
+     */
+    public LoadOptions setDedupThreshold(int threshold)
+    {
+        if (threshold < 0)
+            throw new IllegalArgumentException("threshold can't be negative: " + threshold);
+        dedupThreshold = threshold;
+        return this;
+    }
+
+    /**
+     * @return the most distinct values a column may have for its cells to
+     *         share String instances, 0 if they never do
+     */
+    public int getDedupThreshold()
+    {
+        return dedupThreshold;
+    }
+
+
+
+    /**
+     * Sets how many parsed rows {@link Storage#LAZY lazy storage} keeps. The
+     * least recently used row is dropped when the cache is full.
+     *
+     * @param rows the most rows to keep parsed
+     * @return these options
+     */
+    public LoadOptions setRowCacheSize(int rows)
+    {
+        if (rows <= 0)
+            throw new IllegalArgumentException("cache size must be positive: " + rows);
+        rowCacheSize = rows;
+        return this;
+    }
+
+    /**
+     * @return the most rows lazy storage keeps parsed
+     */
+    public int getRowCacheSize()
+    {
+        return rowCacheSize;
+    }
+
+
+
+    /**
+     * Sets whether the dictionary counts its loads and lookups, so they can
+     * be read from {@link CSVDict#getMetrics} or over JMX. Without metrics
+     * the getters skip the counting altogether.
+     *
+     * @param metrics whether to keep metrics
+     * @return these options
+     */
+    public LoadOptions setMetrics(boolean metrics)
+    {
+        this.metrics = metrics;
+        return this;
+    }
+
+    /**
+     * @return whether the dictionary keeps metrics, which it does when a
+     *         listener is set
+     */
+    public boolean isMetrics()
+    {
+        return metrics || listener != null;
+    }
+
+
+
+    /**
+     * Sets a listener that is told when the dictionary is loaded, when a key
+     * isn't found and when a cell can't be parsed as a number. Setting one
+     * turns metrics on.
+     *
+     * @param listener the listener, or null for none
+     * @return these options
+     */
+    public LoadOptions setListener(CSVDictListener listener)
+    {
+        this.listener = listener;
+        return this;
+    }
+
+    /**
+     * @return the listener, or null if there is none
+     */
+    public CSVDictListener getListener()
+    {
+        return listener;
+    }
+}
@@ -0,0 +1,242 @@
+/*
+Copyright (c) 2012, Sonoma Technology, Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without 
+modification, are permitted provided that the following conditions 
+are met:
+
+    * Redistributions of source code must retain the above copyright 
+      notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above copyright 
+      notice, this list of conditions and the following disclaimer in 
+      the documentation and/or other materials provided with the 
+      distribution.
+
+    * Neither the name of Sonoma Technology, Inc. nor the names of 
+      its contributors may be used to endorse or promote products 
+      derived from this software without specific prior written 
+      permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS 
+FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE 
+COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR 
+BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF 
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF 
+THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF 
+SUCH DAMAGE. 
+*/
+
+
+
+package com.sonomatech.csvdict;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+
+
+/**
+ * Splits CSV records straight out of a byte buffer, typically a memory-mapped
+ * file, see {@link AbstractCSVTokenizer} for the rules. The bytes are taken to
+ * be UTF-8; fields that are pure ASCII are turned into Strings without going
+ * through the UTF-8 decoder. The delimiter must be an ASCII character.
+ */
+final class MappedCSVTokenizer extends AbstractCSVTokenizer
+{
+    // decoding ASCII bytes as Latin-1 is a plain widening copy
+    private static final Charset LATIN1 = Charset.forName("ISO-8859-1");
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final ByteBuffer in;
+
+    // the field buffer is reused across records
+    private byte[] field = new byte[64];
+    private int fieldLen;
+    private int fieldBits;
+    // shares repeated cell values, or null
+    private final StringPool strings;
+    // when not -1, the only field made into a String, see nextKey
+    private int onlyField = -1;
+    private int recordStart;
+
+
+
+    /**
+     * @param buf the whole CSV file
+     * @param delimiter the column delimiter, must be ASCII
+     */
+    MappedCSVTokenizer(ByteBuffer buf, char delimiter)
+    {
+        this(buf, 0, buf.limit(), delimiter, null);
+    }
+
+    /**
+     * @param buf the whole CSV file
+     * @param delimiter the column delimiter, must be ASCII
+     * @param strings shares repeated values among the cells of a column, or
+     *                null to create a String for every cell
+     */
+    MappedCSVTokenizer(ByteBuffer buf, char delimiter, StringPool strings)
+    {
+        this(buf, 0, buf.limit(), delimiter, strings);
+    }
+
+
+
+    /**
+     * @param buf the CSV file
+     * @param start offset of the first byte to tokenize, which must be the
+     *              start of a record
+     * @param end offset just past the last byte to tokenize
+     * @param delimiter the column delimiter, must be ASCII
+     * @param strings shares repeated values among the cells of a column, or
+     *                null to create a String for every cell
+     */
+    MappedCSVTokenizer(ByteBuffer buf, int start, int end, char delimiter, StringPool strings)
+    {
+        super(delimiter);
+        if (delimiter >= 0x80)
+            throw new IllegalArgumentException("delimiter must be an ASCII character");
+        this.strings = strings;
+        in = buf.duplicate();
+        in.limit(end);
+        in.position(start);
+        if (start == 0)
+            skipBOM();
+    }
+
+
+
+    /**
+     * Reads the next record but only makes a String of one field, for
+     * indexing a file without parsing its rows.
+     *
+     * @param field the zero-based position of the field
+     * @return the field, "" if the record is too short to have it, or null
+     *         at the end of the input
+     */
+    String nextKey(int field)
+    {
+        onlyField = field;
+        try {
+            String[] record = next();
+            if (record == null)
+                return null;
+            return field < record.length ? record[field] : "";
+        } finally {
+            onlyField = -1;
+        }
+    }
+
+
+
+    /**
+     * @return the offset in the buffer where the record last returned starts
+     */
+    int recordStart()
+    {
+        return recordStart;
+    }
+
+
+
+    /**
+     * @return the offset in the buffer of the next byte to be tokenized
+     */
+    int position()
+    {
+        return in.position();
+    }
+
+
+
+    // the same as the inherited next, which can't throw here
+    @Override
+    public String[] next()
+    {
+        try {
+            return super.next();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+
+
+    @Override
+    int read()
+    {
+        return in.hasRemaining() ? in.get() & 0xFF : -1;
+    }
+
+
+
+    private void skipBOM()
+    {
+        if (in.remaining() >= 3
+                && (in.get(0) & 0xFF) == 0xEF && (in.get(1) & 0xFF) == 0xBB && (in.get(2) & 0xFF) == 0xBF)
+            in.position(3);
+    }
+
+
+
+    @Override
+    void skipLF()
+    {
+        if (in.hasRemaining() && in.get(in.position()) == '\n')
+            in.get();
+    }
+
+
+
+    @Override
+    void startRecord()
+    {
+        recordStart = in.position() - 1;
+    }
+
+
+
+    @Override
+    void append(int c)
+    {
+        if (fieldLen == field.length)
+            field = Arrays.copyOf(field, fieldLen * 2);
+        field[fieldLen++] = (byte)c;
+        fieldBits |= c;
+    }
+
+
+
+    @Override
+    void clearField()
+    {
+        fieldLen = 0;
+        fieldBits = 0;
+    }
+
+
+
+    @Override
+    String field(int pos)
+    {
+        if (onlyField >= 0 && pos != onlyField)
+            return null;
+        // only bytes above 0x7F need real UTF-8 decoding
+        if (fieldBits >= 0x80) {
+            String s = new String(field, 0, fieldLen, UTF8);
+            return strings == null ? s : strings.get(pos, s);
+        }
+        return strings == null ? new String(field, 0, fieldLen, LATIN1) : strings.getAscii(pos, field, fieldLen);
+    }
+}
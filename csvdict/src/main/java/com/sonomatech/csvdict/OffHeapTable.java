@@ -0,0 +1,441 @@
+/*
+Copyright (c) 2012, Sonoma Technology, Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without 
+modification, are permitted provided that the following conditions 
+are met:
+
+    * Redistributions of source code must retain the above copyright 
+      notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above copyright 
+      notice, this list of conditions and the following disclaimer in 
+      the documentation and/or other materials provided with the 
+      distribution.
+
+    * Neither the name of Sonoma Technology, Inc. nor the names of 
+      its contributors may be used to endorse or promote products 
+      derived from this software without specific prior written 
+      permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS 
+FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE 
+COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR 
+BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF 
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF 
+THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF 
+SUCH DAMAGE. 
+*/
+
+
+
+package com.sonomatech.csvdict;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+
+
+/**
+ * Off-heap storage: the cells, the row offsets and the key hash index are
+ * kept in direct buffers, outside the Java heap, so the heap holds only a
+ * few objects however many rows there are. Cells are kept as UTF-8 bytes and
+ * decoded each time they are read.
+ * <p>
+ * Rows are appended while the file is loaded. Each row is stored as the end
+ * offset of every cell followed by the bytes of the cells, in chunks of
+ * direct memory that start small and double up to 64 MB, so small tables
+ * take little direct memory; a row never spans two chunks. A key that appears
+ * again replaces the row in place, as in the LinkedHashMap of row storage.
+ * <p>
+ * The numeric getters read plain decimal cells straight out of the buffer,
+ * without making a String; only cells such as "NaN", hex or non-ASCII text
+ * are decoded and handed to the usual parsers.
+ */
+final class OffHeapTable extends Table
+{
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int FIRST_CHUNK_SIZE = 1 << 16;
+    private static final int CHUNK_SIZE = 1 << 26;
+    // powers of ten that are exact, for parsing decimals whose digits fit in
+    // the mantissa with a single correctly rounded multiply or divide
+    private static final double[] DOUBLE_POWERS = new double[23];
+    private static final float[] FLOAT_POWERS = new float[11];
+    static {
+        DOUBLE_POWERS[0] = 1;
+        for (int i = 1; i < DOUBLE_POWERS.length; i++)
+            DOUBLE_POWERS[i] = DOUBLE_POWERS[i - 1] * 10;
+        FLOAT_POWERS[0] = 1;
+        for (int i = 1; i < FLOAT_POWERS.length; i++)
+            FLOAT_POWERS[i] = FLOAT_POWERS[i - 1] * 10;
+    }
+
+    private final int nCols;
+    private final int keyIndex;
+
+    private final List<ByteBuffer> chunks = new ArrayList<ByteBuffer>();
+    private ByteBuffer chunk;
+    // chunk number in the high int, offset in the low int
+    private LongBuffer rowOffsets = allocate(1024 * 8).asLongBuffer();
+    private int size;
+
+    // open addressing: each slot holds row + 1, or 0 if empty, and the hash
+    // of the key in that row so most mismatches don't decode the key
+    private IntBuffer slotRows;
+    private IntBuffer slotHashes;
+    private int mask;
+
+
+
+    OffHeapTable(int nCols, int keyIndex)
+    {
+        this.nCols = nCols;
+        this.keyIndex = keyIndex;
+        createSlots(1024);
+    }
+
+
+
+    /**
+     * Appends a row, or replaces the row with the same key.
+     */
+    void add(String[] cells)
+    {
+        byte[][] bytes = new byte[nCols][];
+        long length = 4L * nCols;
+        for (int pos = 0; pos < nCols; pos++) {
+            bytes[pos] = pos < cells.length && cells[pos] != null ? cells[pos].getBytes(UTF8) : new byte[0];
+            length += bytes[pos].length;
+        }
+
+        if (chunk == null || chunk.remaining() < length) {
+            long next = chunk == null ? FIRST_CHUNK_SIZE : Math.min(CHUNK_SIZE, chunk.capacity() * 2L);
+            chunk = allocate(Math.max(next, length));
+            chunks.add(chunk);
+        }
+        long offset = (long)(chunks.size() - 1) << 32 | chunk.position();
+        int end = 0;
+        for (byte[] b : bytes) {
+            end += b.length;
+            chunk.putInt(end);
+        }
+        for (byte[] b : bytes)
+            chunk.put(b);
+
+        String key = keyIndex < cells.length ? cells[keyIndex] : "";
+        int hash = hash(key);
+        int slot = findSlot(key, hash);
+        if (slotRows.get(slot) != 0) {
+            rowOffsets.put(slotRows.get(slot) - 1, offset);
+            return;
+        }
+        if (size == rowOffsets.capacity()) {
+            LongBuffer grown = allocate(size * 2L * 8).asLongBuffer();
+            rowOffsets.position(0);
+            grown.put(rowOffsets);
+            grown.position(0);
+            rowOffsets = grown;
+        }
+        rowOffsets.put(size, offset);
+        slotRows.put(slot, ++size);
+        slotHashes.put(slot, hash);
+        if (size * 2 > slotRows.capacity())
+            rehash();
+    }
+
+
+
+    @Override
+    int size()
+    {
+        return size;
+    }
+
+    @Override
+    int find(String key)
+    {
+        if (key == null)
+            return -1;
+        return slotRows.get(findSlot(key, hash(key))) - 1;
+    }
+
+    @Override
+    String getString(int row, int pos)
+    {
+        long offset = rowOffsets.get(row);
+        ByteBuffer data = chunks.get((int)(offset >>> 32));
+        int header = (int)offset;
+        int start = cellStart(data, header, pos);
+        byte[] bytes = new byte[cellEnd(data, header, pos) - start];
+        ByteBuffer cell = data.duplicate();
+        cell.position(start);
+        cell.get(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    @Override
+    float getFloat(int row, int pos)
+    {
+        long offset = rowOffsets.get(row);
+        ByteBuffer data = chunks.get((int)(offset >>> 32));
+        int header = (int)offset;
+        int start = cellStart(data, header, pos);
+        int end = cellEnd(data, header, pos);
+        double value = parseDecimal(data, start, end, true);
+        if (value == value)
+            return (float)value;
+        return mayBeNumber(data, start, end) ? toFloat(getString(row, pos)) : Float.NaN;
+    }
+
+    @Override
+    int getInteger(int row, int pos)
+    {
+        long offset = rowOffsets.get(row);
+        ByteBuffer data = chunks.get((int)(offset >>> 32));
+        int header = (int)offset;
+        int start = cellStart(data, header, pos);
+        int end = cellEnd(data, header, pos);
+        if (start == end)
+            return Integer.MAX_VALUE;
+        int i = start;
+        byte b = data.get(i);
+        boolean negative = b == '-';
+        if ((negative || b == '+') && ++i == end)
+            return Integer.MAX_VALUE;
+        // longer cells have leading zeros or don't fit, let parseInt decide
+        if (end - i > 10)
+            return toInteger(getString(row, pos));
+        long value = 0;
+        for (; i < end; i++) {
+            b = data.get(i);
+            if (b < '0' || b > '9')
+                // parseInt takes non-ASCII digits too
+                return b < 0 ? toInteger(getString(row, pos)) : Integer.MAX_VALUE;
+            value = value * 10 + (b - '0');
+        }
+        if (negative)
+            value = -value;
+        return value < Integer.MIN_VALUE || value > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int)value;
+    }
+
+    @Override
+    double getDouble(int row, int pos)
+    {
+        long offset = rowOffsets.get(row);
+        ByteBuffer data = chunks.get((int)(offset >>> 32));
+        int header = (int)offset;
+        int start = cellStart(data, header, pos);
+        int end = cellEnd(data, header, pos);
+        double value = parseDecimal(data, start, end, false);
+        if (value == value)
+            return value;
+        return mayBeNumber(data, start, end) ? toDouble(getString(row, pos)) : Double.NaN;
+    }
+
+    @Override
+    boolean isNumeric(int row, int pos)
+    {
+        long offset = rowOffsets.get(row);
+        ByteBuffer data = chunks.get((int)(offset >>> 32));
+        int header = (int)offset;
+        int start = cellStart(data, header, pos);
+        int end = cellEnd(data, header, pos);
+        if (!Double.isNaN(parseDecimal(data, start, end, false)))
+            return true;
+        return mayBeNumber(data, start, end) && super.isNumeric(row, pos);
+    }
+
+    @Override
+    long estimateBytes()
+    {
+        long bytes = 8L * rowOffsets.capacity() + 8L * slotRows.capacity();
+        for (ByteBuffer data : chunks)
+            bytes += data.capacity();
+        return bytes;
+    }
+
+
+
+    // the offset in its chunk of the first byte of a cell
+    private int cellStart(ByteBuffer data, int header, int pos)
+    {
+        return header + 4 * nCols + (pos == 0 ? 0 : data.getInt(header + 4 * (pos - 1)));
+    }
+
+    // the offset in its chunk just past the last byte of a cell
+    private int cellEnd(ByteBuffer data, int header, int pos)
+    {
+        return header + 4 * nCols + data.getInt(header + 4 * pos);
+    }
+
+
+
+    /**
+     * Parses a cell holding a plain decimal such as "-12.5e3", with the same
+     * result as Double.parseDouble, or Float.parseFloat if asFloat is set.
+     *
+     * @return the value, or NaN if the cell isn't a plain decimal or has too
+     *         many digits to be parsed exactly this way
+     */
+    private static double parseDecimal(ByteBuffer data, int start, int end, boolean asFloat)
+    {
+        // the parsers ignore surrounding whitespace
+        while (start < end && (data.get(start) & 0xFF) <= ' ')
+            start++;
+        while (end > start && (data.get(end - 1) & 0xFF) <= ' ')
+            end--;
+        if (start == end)
+            return Double.NaN;
+        int i = start;
+        byte b = data.get(i);
+        boolean negative = b == '-';
+        if (negative || b == '+')
+            i++;
+
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean point = false;
+        boolean any = false;
+        for (; i < end; i++) {
+            b = data.get(i);
+            if (b == '.' && !point) {
+                point = true;
+                continue;
+            }
+            if (b < '0' || b > '9')
+                break;
+            any = true;
+            if (mantissa != 0 || b != '0') {
+                if (++digits > 18)
+                    return Double.NaN;
+                mantissa = mantissa * 10 + (b - '0');
+            }
+            if (point)
+                exponent--;
+        }
+        if (!any)
+            return Double.NaN;
+        if (i < end && (b == 'e' || b == 'E')) {
+            if (++i == end)
+                return Double.NaN;
+            b = data.get(i);
+            boolean negativeExponent = b == '-';
+            if ((negativeExponent || b == '+') && ++i == end)
+                return Double.NaN;
+            int e = 0;
+            for (; i < end; i++) {
+                b = data.get(i);
+                if (b < '0' || b > '9')
+                    return Double.NaN;
+                e = Math.min(e * 10 + (b - '0'), 1000);
+            }
+            exponent += negativeExponent ? -e : e;
+        }
+        // suffixes such as "f" and "d" are left to the parsers
+        if (i != end)
+            return Double.NaN;
+
+        double value;
+        if (asFloat) {
+            if (mantissa > 1 << 24 || exponent < -10 || exponent > 10)
+                return Double.NaN;
+            value = exponent < 0 ? (float)mantissa / FLOAT_POWERS[-exponent] : (float)mantissa * FLOAT_POWERS[exponent];
+        } else {
+            if (mantissa > 1L << 53 || exponent < -22 || exponent > 22)
+                return Double.NaN;
+            value = exponent < 0 ? mantissa / DOUBLE_POWERS[-exponent] : mantissa * DOUBLE_POWERS[exponent];
+        }
+        return negative ? -value : value;
+    }
+
+
+
+    // false for cells that no parser would take as a number: those without
+    // a digit, without the N of NaN or the I of Infinity, and all ASCII
+    private static boolean mayBeNumber(ByteBuffer data, int start, int end)
+    {
+        for (int i = start; i < end; i++) {
+            byte b = data.get(i);
+            if (b >= '0' && b <= '9' || b == 'N' || b == 'I' || b < 0)
+                return true;
+        }
+        return false;
+    }
+
+
+
+    // the slot holding the key, or the empty slot where it would go
+    private int findSlot(String key, int hash)
+    {
+        for (int i = hash & mask;; i = (i + 1) & mask) {
+            int row = slotRows.get(i);
+            if (row == 0)
+                return i;
+            if (slotHashes.get(i) == hash && getString(row - 1, keyIndex).equals(key))
+                return i;
+        }
+    }
+
+
+
+    private static int hash(String key)
+    {
+        // spread the hash so linear probing doesn't cluster on similar keys
+        int h = key.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+
+
+    private void createSlots(int capacity)
+    {
+        slotRows = allocate(capacity * 4L).asIntBuffer();
+        slotHashes = allocate(capacity * 4L).asIntBuffer();
+        mask = capacity - 1;
+    }
+
+
+
+    private void rehash()
+    {
+        IntBuffer oldRows = slotRows;
+        IntBuffer oldHashes = slotHashes;
+        if (oldRows.capacity() > Integer.MAX_VALUE / 8)
+            throw new IllegalStateException("off-heap storage can't index more than " + size + " rows");
+        createSlots(oldRows.capacity() * 2);
+        for (int j = 0; j < oldRows.capacity(); j++) {
+            int row = oldRows.get(j);
+            if (row == 0)
+                continue;
+            int hash = oldHashes.get(j);
+            int i = hash & mask;
+            while (slotRows.get(i) != 0)
+                i = (i + 1) & mask;
+            slotRows.put(i, row);
+            slotHashes.put(i, hash);
+        }
+    }
+
+
+
+    static ByteBuffer allocate(long bytes)
+    {
+        // direct buffers are indexed by int
+        if (bytes > Integer.MAX_VALUE)
+            throw new IllegalStateException("off-heap storage can't allocate " + bytes + " bytes in one buffer");
+        return ByteBuffer.allocateDirect((int)bytes).order(ByteOrder.nativeOrder());
+    }
+}
@@ -0,0 +1,304 @@
+/*
+Copyright (c) 2012, Sonoma Technology, Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without 
+modification, are permitted provided that the following conditions 
+are met:
+
+    * Redistributions of source code must retain the above copyright 
+      notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above copyright 
+      notice, this list of conditions and the following disclaimer in 
+      the documentation and/or other materials provided with the 
+      distribution.
+
+    * Neither the name of Sonoma Technology, Inc. nor the names of 
+      its contributors may be used to endorse or promote products 
+      derived from this software without specific prior written 
+      permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS 
+FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE 
+COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR 
+BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF 
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF 
+THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF 
+SUCH DAMAGE. 
+*/
+
+
+
+package com.sonomatech.csvdict;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+
+
+/**
+ * Parses a mapped CSV file in parallel. The bytes are cut into chunks at line
+ * breaks, the chunks are scanned in parallel to learn which line breaks fall
+ * inside quoted fields, the cuts are moved to real record boundaries, and then
+ * the chunks are tokenized in parallel. The records of each chunk are
+ * returned in file order.
+ */
+final class ParallelCSVLoader
+{
+    // scanner states, these mirror the tokenizer's handling of quotes
+    private static final int RECORD_START = 0;
+    private static final int FIELD_START = 1;
+    private static final int UNQUOTED = 2;
+    private static final int QUOTED = 3;
+    private static final int QUOTE_IN_QUOTED = 4;
+    private static final int COMMENT = 5;
+
+    private final ByteBuffer buf;
+    private final int start;
+    private final int end;
+    private final char delimiter;
+    private final ForkJoinPool pool;
+    private final int minChunkSize;
+    private final int dedupThreshold;
+
+
+
+    /**
+     * @param buf the whole CSV file
+     * @param start offset of the first record after the header
+     * @param end offset just past the last byte of the file
+     * @param delimiter the column delimiter, must be ASCII
+     * @param pool the pool to parse on
+     * @param minChunkSize the smallest number of bytes given to one task
+     * @param dedupThreshold see {@link StringPool}, 0 to not share strings;
+     *                       each chunk has its own pools
+     */
+    ParallelCSVLoader(ByteBuffer buf, int start, int end, char delimiter, ForkJoinPool pool, int minChunkSize,
+                      int dedupThreshold)
+    {
+        this.buf = buf;
+        this.start = start;
+        this.end = end;
+        this.delimiter = delimiter;
+        this.pool = pool;
+        this.minChunkSize = minChunkSize;
+        this.dedupThreshold = dedupThreshold;
+    }
+
+
+
+    /**
+     * @return the records of each chunk, chunks in file order
+     */
+    List<List<String[]>> parse()
+    {
+        final int[] bounds = findRecordBounds();
+        final int nChunks = bounds.length - 1;
+        final List<List<String[]>> chunks = new ArrayList<List<String[]>>(nChunks);
+        for (int i = 0; i < nChunks; i++)
+            chunks.add(null);
+
+        pool.invoke(new ChunkAction(chunk -> {
+            List<String[]> rows = new ArrayList<String[]>();
+            StringPool strings = dedupThreshold > 0 ? new StringPool(dedupThreshold) : null;
+            MappedCSVTokenizer tokenizer = new MappedCSVTokenizer(buf, bounds[chunk], bounds[chunk + 1], delimiter,
+                                                                  strings);
+            String[] row;
+            while ((row = tokenizer.next()) != null)
+                rows.add(row);
+            chunks.set(chunk, rows);
+        }, 0, nChunks));
+        return chunks;
+    }
+
+
+
+    // returns the chunk start offsets followed by the end offset
+    private int[] findRecordBounds()
+    {
+        int nChunks = (int)Math.min((end - start) / minChunkSize, pool.getParallelism() * 4L);
+        if (nChunks <= 1)
+            return new int[] {start, end};
+
+        // nominal cuts, each just past a line feed
+        int chunkSize = (end - start) / nChunks;
+        int[] cuts = new int[nChunks + 1];
+        int n = 0;
+        cuts[n++] = start;
+        for (int i = 1; i < nChunks; i++) {
+            int cut = Math.max(start + i * chunkSize, cuts[n - 1]);
+            while (cut < end && buf.get(cut - 1) != '\n')
+                cut++;
+            if (cut > cuts[n - 1] && cut < end)
+                cuts[n++] = cut;
+        }
+        cuts[n++] = end;
+        final int[] nominal = Arrays.copyOf(cuts, n);
+        nChunks = n - 1;
+
+        // a cut lands either at a record start or inside a quoted field, so
+        // scan every chunk once for each of the two entry states
+        final boolean[] exitQuotedFromStart = new boolean[nChunks];
+        final boolean[] exitQuotedFromQuoted = new boolean[nChunks];
+        final int[] firstRecordFromQuoted = new int[nChunks];
+        pool.invoke(new ChunkAction(chunk -> scanChunk(nominal[chunk], nominal[chunk + 1], chunk,
+                                                      exitQuotedFromStart, exitQuotedFromQuoted, firstRecordFromQuoted),
+                                    0, nChunks));
+
+        // the first chunk starts at a record, which fixes the state at every
+        // later cut; cuts inside quotes move to the next record start
+        int[] bounds = new int[nChunks + 1];
+        int nBounds = 0;
+        boolean quoted = false;
+        for (int i = 0; i < nChunks; i++) {
+            int recordStart = quoted ? firstRecordFromQuoted[i] : nominal[i];
+            if (recordStart >= 0 && (nBounds == 0 || recordStart > bounds[nBounds - 1]))
+                bounds[nBounds++] = recordStart;
+            quoted = quoted ? exitQuotedFromQuoted[i] : exitQuotedFromStart[i];
+        }
+        bounds[nBounds++] = end;
+        return Arrays.copyOf(bounds, nBounds);
+    }
+
+
+
+    // runs the scanner over [from, to) from both entry states in lock step,
+    // stopping the second run once both runs are in the same state
+    private void scanChunk(int from, int to, int chunk,
+                           boolean[] exitQuotedFromStart, boolean[] exitQuotedFromQuoted, int[] firstRecordFromQuoted)
+    {
+        int a = RECORD_START;
+        int b = QUOTED;
+        int firstRecord = -1;
+        int i = from;
+        for (; i < to && a != b; i++) {
+            int c = buf.get(i) & 0xFF;
+            a = next(a, c);
+            b = next(b, c);
+            if (firstRecord < 0 && b == RECORD_START && c == '\n')
+                firstRecord = i + 1;
+        }
+        boolean converged = a == b;
+        for (; i < to; i++)
+            a = next(a, buf.get(i) & 0xFF);
+        if (converged) {
+            b = a;
+            if (firstRecord < 0)
+                firstRecord = findRecordStart(from, to);
+        }
+        exitQuotedFromStart[chunk] = a == QUOTED;
+        exitQuotedFromQuoted[chunk] = b == QUOTED;
+        firstRecordFromQuoted[chunk] = firstRecord >= to ? -1 : firstRecord;
+    }
+
+
+
+    // the first record start after a line feed, scanning from a quoted field
+    private int findRecordStart(int from, int to)
+    {
+        int state = QUOTED;
+        for (int i = from; i < to; i++) {
+            int c = buf.get(i) & 0xFF;
+            state = next(state, c);
+            if (state == RECORD_START && c == '\n')
+                return i + 1;
+        }
+        return -1;
+    }
+
+
+
+    private int next(int state, int c)
+    {
+        switch (state) {
+            case RECORD_START:
+                if (c == '\n' || c == '\r')
+                    return RECORD_START;
+                if (c == AbstractCSVTokenizer.COMMENT_CHAR)
+                    return COMMENT;
+                return fieldStart(c);
+            case FIELD_START:
+                return fieldStart(c);
+            case UNQUOTED:
+                return unquoted(c);
+            case QUOTED:
+                return c == AbstractCSVTokenizer.QUOTE ? QUOTE_IN_QUOTED : QUOTED;
+            case QUOTE_IN_QUOTED:
+                if (c == AbstractCSVTokenizer.QUOTE)
+                    return QUOTED;
+                if (c == delimiter)
+                    return FIELD_START;
+                if (c == '\n' || c == '\r')
+                    return RECORD_START;
+                return UNQUOTED;
+            default:
+                return c == '\n' || c == '\r' ? RECORD_START : COMMENT;
+        }
+    }
+
+
+
+    // the state after the first character of a field
+    private int fieldStart(int c)
+    {
+        return c == AbstractCSVTokenizer.QUOTE ? QUOTED : unquoted(c);
+    }
+
+    // the state after a character of an unquoted field
+    private int unquoted(int c)
+    {
+        if (c == delimiter)
+            return FIELD_START;
+        if (c == '\n' || c == '\r')
+            return RECORD_START;
+        return UNQUOTED;
+    }
+
+
+
+    private interface ChunkWork
+    {
+        void compute(int chunk);
+    }
+
+
+
+    // applies the work to every chunk in [lo, hi), splitting the range in half
+    private static final class ChunkAction extends RecursiveAction
+    {
+        private static final long serialVersionUID = 0L;
+
+        private final ChunkWork work;
+        private final int lo;
+        private final int hi;
+
+        ChunkAction(ChunkWork work, int lo, int hi)
+        {
+            this.work = work;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (hi - lo == 1)
+                work.compute(lo);
+            else {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new ChunkAction(work, lo, mid), new ChunkAction(work, mid, hi));
+            }
+        }
+    }
+}
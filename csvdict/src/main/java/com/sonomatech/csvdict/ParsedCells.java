@@ -0,0 +1,159 @@
+/*
+Copyright (c) 2012, Sonoma Technology, Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without 
+modification, are permitted provided that the following conditions 
+are met:
+
+    * Redistributions of source code must retain the above copyright 
+      notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above copyright 
+      notice, this list of conditions and the following disclaimer in 
+      the documentation and/or other materials provided with the 
+      distribution.
+
+    * Neither the name of Sonoma Technology, Inc. nor the names of 
+      its contributors may be used to endorse or promote products 
+      derived from this software without specific prior written 
+      permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS 
+FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE 
+COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR 
+BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF 
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF 
+THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF 
+SUCH DAMAGE. 
+*/
+
+
+
+package com.sonomatech.csvdict;
+
+import java.util.BitSet;
+
+
+
+/**
+ * Numbers parsed from a fixed list of cells. Each number type is parsed the
+ * first time it is asked for and then kept, so every later read is an array
+ * lookup that neither allocates nor throws. Cells that aren't numbers read as
+ * NaN or Integer.MAX_VALUE, like the boxed getters, and are flagged so callers
+ * can tell them from real values.
+ */
+final class ParsedCells
+{
+    /**
+     * Supplies the cells to parse.
+     */
+    interface Source
+    {
+        String cell(int i);
+    }
+
+    private final Source source;
+    private final int size;
+    private volatile float[] floats;
+    private volatile int[] ints;
+    private volatile double[] doubles;
+    private volatile BitSet numeric;
+
+
+
+    ParsedCells(Source source, int size)
+    {
+        this.source = source;
+        this.size = size;
+    }
+
+
+
+    float getFloat(int i)
+    {
+        float[] values = floats;
+        if (values == null)
+            values = parseFloats();
+        return values[i];
+    }
+
+    int getInteger(int i)
+    {
+        int[] values = ints;
+        if (values == null)
+            values = parseInts();
+        return values[i];
+    }
+
+    double getDouble(int i)
+    {
+        double[] values = doubles;
+        if (values == null)
+            values = parseDoubles();
+        return values[i];
+    }
+
+    /**
+     * @return whether the cell is a number, as opposed to empty or text
+     */
+    boolean isNumeric(int i)
+    {
+        if (numeric == null)
+            parseDoubles();
+        return numeric.get(i);
+    }
+
+
+
+    private synchronized float[] parseFloats()
+    {
+        if (floats == null) {
+            float[] values = new float[size];
+            for (int i = 0; i < size; i++)
+                values[i] = Table.toFloat(source.cell(i));
+            floats = values;
+        }
+        return floats;
+    }
+
+    private synchronized int[] parseInts()
+    {
+        if (ints == null) {
+            int[] values = new int[size];
+            for (int i = 0; i < size; i++)
+                values[i] = Table.toInteger(source.cell(i));
+            ints = values;
+        }
+        return ints;
+    }
+
+    private synchronized double[] parseDoubles()
+    {
+        if (doubles == null) {
+            double[] values = new double[size];
+            BitSet isNumber = new BitSet(size);
+            for (int i = 0; i < size; i++) {
+                String cell = source.cell(i);
+                values[i] = Double.NaN;
+                // a cell is a number when it parses, NaN included
+                if (Table.mayBeNumber(cell)) {
+                    try {
+                        values[i] = Double.parseDouble(cell);
+                        isNumber.set(i);
+                    } catch (NumberFormatException e) {
+                    }
+                }
+            }
+            numeric = isNumber;
+            doubles = values;
+        }
+        return doubles;
+    }
+}
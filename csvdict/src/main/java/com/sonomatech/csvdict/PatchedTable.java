@@ -0,0 +1,175 @@
+/*
+Copyright (c) 2012, Sonoma Technology, Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without 
+modification, are permitted provided that the following conditions 
+are met:
+
+    * Redistributions of source code must retain the above copyright 
+      notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above copyright 
+      notice, this list of conditions and the following disclaimer in 
+      the documentation and/or other materials provided with the 
+      distribution.
+
+    * Neither the name of Sonoma Technology, Inc. nor the names of 
+      its contributors may be used to endorse or promote products 
+      derived from this software without specific prior written 
+      permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS 
+FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE 
+COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR 
+BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF 
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF 
+THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF 
+SUCH DAMAGE. 
+*/
+
+
+
+package com.sonomatech.csvdict;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+
+
+/**
+ * A table with some rows replaced. The keys and the order of the rows are
+ * those of the table underneath; only cells change. Replaced rows are found
+ * by a binary search over their row numbers, every other read goes straight
+ * to the table underneath, which keeps the numbers it has already parsed.
+ */
+final class PatchedTable extends Table
+{
+    private final Table base;
+    // the replaced rows, sorted by row number
+    private final int[] rowIds;
+    private final String[][] rows;
+
+
+
+    private PatchedTable(Table base, Map<Integer, String[]> changes)
+    {
+        this.base = base;
+        rowIds = new int[changes.size()];
+        rows = new String[rowIds.length][];
+        int i = 0;
+        for (Map.Entry<Integer, String[]> entry : changes.entrySet()) {
+            rowIds[i] = entry.getKey();
+            rows[i++] = entry.getValue();
+        }
+    }
+
+
+
+    /**
+     * Replaces rows of a table. Patching a patched table patches the table
+     * underneath it, so reads never go through more than one patch.
+     *
+     * @param table the table to patch
+     * @param changes the new cells of the replaced rows, by row number
+     */
+    static PatchedTable patch(Table table, Map<Integer, String[]> changes)
+    {
+        if (!(table instanceof PatchedTable))
+            return new PatchedTable(table, new TreeMap<Integer, String[]>(changes));
+        PatchedTable patched = (PatchedTable)table;
+        TreeMap<Integer, String[]> merged = new TreeMap<Integer, String[]>();
+        for (int i = 0; i < patched.rowIds.length; i++)
+            merged.put(patched.rowIds[i], patched.rows[i]);
+        merged.putAll(changes);
+        return new PatchedTable(patched.base, merged);
+    }
+
+
+
+    /**
+     * @return the number of rows that are replaced
+     */
+    int patchedRows()
+    {
+        return rowIds.length;
+    }
+
+
+
+    @Override
+    int size()
+    {
+        return base.size();
+    }
+
+    @Override
+    int find(String key)
+    {
+        return base.find(key);
+    }
+
+    @Override
+    String getString(int row, int pos)
+    {
+        String[] cells = patchedRow(row);
+        return cells != null ? cells[pos] : base.getString(row, pos);
+    }
+
+    @Override
+    float getFloat(int row, int pos)
+    {
+        String[] cells = patchedRow(row);
+        return cells != null ? toFloat(cells[pos]) : base.getFloat(row, pos);
+    }
+
+    @Override
+    int getInteger(int row, int pos)
+    {
+        String[] cells = patchedRow(row);
+        return cells != null ? toInteger(cells[pos]) : base.getInteger(row, pos);
+    }
+
+    @Override
+    double getDouble(int row, int pos)
+    {
+        String[] cells = patchedRow(row);
+        return cells != null ? toDouble(cells[pos]) : base.getDouble(row, pos);
+    }
+
+    @Override
+    boolean isNumeric(int row, int pos)
+    {
+        return patchedRow(row) != null ? super.isNumeric(row, pos) : base.isNumeric(row, pos);
+    }
+
+    @Override
+    long estimateBytes()
+    {
+        long bytes = base.estimateBytes() + Table.arrayBytes(rowIds.length, 4) + Table.arrayBytes(rows.length, 4);
+        for (String[] cells : rows) {
+            bytes += Table.arrayBytes(cells.length, 4);
+            for (String cell : cells)
+                bytes += Table.stringBytes(cell);
+        }
+        return bytes;
+    }
+
+
+
+    // the new cells of the row, or null if it isn't replaced
+    private String[] patchedRow(int row)
+    {
+        if (rowIds.length == 0)
+            return null;
+        int i = Arrays.binarySearch(rowIds, row);
+        return i >= 0 ? rows[i] : null;
+    }
+}
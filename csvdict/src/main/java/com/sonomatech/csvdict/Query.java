@@ -0,0 +1,165 @@
+/*
+Copyright (c) 2012, Sonoma Technology, Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without 
+modification, are permitted provided that the following conditions 
+are met:
+
+    * Redistributions of source code must retain the above copyright 
+      notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above copyright 
+      notice, this list of conditions and the following disclaimer in 
+      the documentation and/or other materials provided with the 
+      distribution.
+
+    * Neither the name of Sonoma Technology, Inc. nor the names of 
+      its contributors may be used to endorse or promote products 
+      derived from this software without specific prior written 
+      permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS 
+FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE 
+COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR 
+BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF 
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF 
+THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF 
+SUCH DAMAGE. 
+*/
+
+
+
+package com.sonomatech.csvdict;
+
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+
+
+/**
+ * A {@link Condition} bound to one dictionary, with the columns to return
+ * for the rows that match, as made by {@link CSVDict#query}. The fields are
+ * looked up once, when the query is made, and each call reads the rows in a
+ * single pass that allocates nothing but its result. Where bitmap indexes
+ * cover the condition, the pass only reads the rows they leave. A query
+ * never changes and may be run any number of times from any thread.
+ */
+public final class Query
+{
+    private final Table table;
+    // the rows that may match, from bitmap indexes, or null for every row
+    private final Bitmap rows;
+    // the test of the rows, or null if every row in rows matches
+    private final IntPredicate where;
+    private final int[] outputs;
+
+
+
+    Query(Table table, Bitmap rows, IntPredicate where, int[] outputs)
+    {
+        this.table = table;
+        this.rows = rows;
+        this.where = where;
+        this.outputs = outputs;
+    }
+
+
+
+    /**
+     * @param row the zero-based row number
+     * @return true if the row matches the condition
+     */
+    public boolean matches(int row)
+    {
+        return (rows == null || rows.contains(row)) && (where == null || where.test(row));
+    }
+
+
+
+    /**
+     * @return the number of rows that match. When the condition is worked
+     *         out from bitmap indexes alone no row is read.
+     */
+    public int count()
+    {
+        if (where == null)
+            return rows == null ? table.size() : rows.cardinality();
+        if (rows != null)
+            return getRowIds().length;
+        int n = 0;
+        for (int row = 0; row < table.size(); row++)
+            if (where.test(row))
+                n++;
+        return n;
+    }
+
+
+
+    /**
+     * @return the zero-based numbers of the rows that match, in file order
+     */
+    public int[] getRowIds()
+    {
+        if (rows != null) {
+            int[] found = rows.toArray();
+            if (where == null)
+                return found;
+            int n = 0;
+            for (int row : found)
+                if (where.test(row))
+                    found[n++] = row;
+            return Arrays.copyOf(found, n);
+        }
+
+        int n = 0;
+        int[] found = new int[16];
+        for (int row = 0; row < table.size(); row++) {
+            if (where == null || where.test(row)) {
+                if (n == found.length)
+                    found = Arrays.copyOf(found, n * 2);
+                found[n++] = row;
+            }
+        }
+        return Arrays.copyOf(found, n);
+    }
+
+
+
+    /**
+     * @return the output columns for the rows that match, in file order:
+     *         element j holds the values of the j-th field the query was
+     *         made with
+     */
+    public String[][] getColumns()
+    {
+        int[] found = getRowIds();
+        String[][] columns = new String[outputs.length][found.length];
+        for (int j = 0; j < outputs.length; j++)
+            for (int i = 0; i < found.length; i++)
+                columns[j][i] = table.getString(found[i], outputs[j]);
+        return columns;
+    }
+
+    /**
+     * @return the first output column for the rows that match, in file
+     *         order, like getFilteredColumn
+     * @throws IllegalStateException if the query was made without fields
+     */
+    public String[] getColumn()
+    {
+        if (outputs.length == 0)
+            throw new IllegalStateException("the query has no output fields");
+        int[] found = getRowIds();
+        String[] column = new String[found.length];
+        for (int i = 0; i < found.length; i++)
+            column[i] = table.getString(found[i], outputs[0]);
+        return column;
+    }
+}
@@ -0,0 +1,158 @@
+/*
+Copyright (c) 2012, Sonoma Technology, Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without 
+modification, are permitted provided that the following conditions 
+are met:
+
+    * Redistributions of source code must retain the above copyright 
+      notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above copyright 
+      notice, this list of conditions and the following disclaimer in 
+      the documentation and/or other materials provided with the 
+      distribution.
+
+    * Neither the name of Sonoma Technology, Inc. nor the names of 
+      its contributors may be used to endorse or promote products 
+      derived from this software without specific prior written 
+      permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS 
+FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE 
+COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR 
+BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF 
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF 
+THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF 
+SUCH DAMAGE. 
+*/
+
+
+
+package com.sonomatech.csvdict;
+
+import java.util.Arrays;
+
+
+
+/**
+ * A sorted index on one numeric column: the numbers in the column in
+ * ascending order, alongside the rows that hold them. Rows with equal values
+ * stay in file order. Empty and non-numeric cells are left out. The index is
+ * built once and never changes, so it may be read from any thread.
+ */
+final class RangeIndex
+{
+    private final double[] values;
+    private final int[] rows;
+
+
+
+    RangeIndex(Table table, int pos)
+    {
+        int n = 0;
+        int[] numericRows = new int[table.size()];
+        double[] cells = new double[table.size()];
+        for (int row = 0; row < cells.length; row++) {
+            double v = table.getDouble(row, pos);
+            if (!Double.isNaN(v)) {
+                numericRows[n] = row;
+                cells[n++] = v;
+            }
+        }
+        int[] order = sortOrder(cells, n);
+        rows = new int[n];
+        values = new double[n];
+        for (int i = 0; i < n; i++) {
+            rows[i] = numericRows[order[i]];
+            values[i] = cells[order[i]];
+        }
+    }
+
+
+
+    /**
+     * @return the rows whose value is within the range, in ascending order of
+     *         value
+     */
+    int[] rows(double min, boolean minInclusive, double max, boolean maxInclusive)
+    {
+        int from = minInclusive ? lowerBound(min) : upperBound(min);
+        int to = maxInclusive ? upperBound(max) : lowerBound(max);
+        return from < to ? Arrays.copyOfRange(rows, from, to) : new int[0];
+    }
+
+
+
+    // the first position whose value is >= v
+    private int lowerBound(double v)
+    {
+        int lo = 0;
+        int hi = values.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (values[mid] < v)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    // the first position whose value is > v
+    private int upperBound(double v)
+    {
+        int lo = 0;
+        int hi = values.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (values[mid] <= v)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+
+
+    /**
+     * Sorts the first n values without moving them. The sort is stable, so
+     * equal values keep their order.
+     *
+     * @return the positions of the values in ascending order of value
+     */
+    static int[] sortOrder(double[] values, int n)
+    {
+        // merge sort on positions, bottom up, ping-ponging between two arrays
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++)
+            order[i] = i;
+        int[] other = new int[n];
+        for (int width = 1; width < n; width *= 2) {
+            for (int lo = 0; lo < n; lo += 2 * width) {
+                int mid = Math.min(lo + width, n);
+                int hi = Math.min(lo + 2 * width, n);
+                int i = lo;
+                int j = mid;
+                for (int k = lo; k < hi; k++) {
+                    if (i < mid && (j >= hi || values[order[i]] <= values[order[j]]))
+                        other[k] = order[i++];
+                    else
+                        other[k] = order[j++];
+                }
+            }
+            int[] t = order;
+            order = other;
+            other = t;
+        }
+        return order;
+    }
+}
@@ -0,0 +1,398 @@
+/*
+Copyright (c) 2012, Sonoma Technology, Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without 
+modification, are permitted provided that the following conditions 
+are met:
+
+    * Redistributions of source code must retain the above copyright 
+      notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above copyright 
+      notice, this list of conditions and the following disclaimer in 
+      the documentation and/or other materials provided with the 
+      distribution.
+
+    * Neither the name of Sonoma Technology, Inc. nor the names of 
+      its contributors may be used to endorse or promote products 
+      derived from this software without specific prior written 
+      permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS 
+FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE 
+COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR 
+BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF 
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF 
+THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF 
+SUCH DAMAGE. 
+*/
+
+
+
+package com.sonomatech.csvdict;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+
+
+/**
+ * A CSVDict that is loaded again when its file changes. Each load builds a
+ * complete new dictionary in the background and then publishes it with a
+ * single volatile write, so readers never wait and never see a dictionary
+ * that is half loaded. When only the cells of a few rows changed, and the
+ * keys and their order did not, the new dictionary shares the storage of the
+ * old one and replaces just those rows.
+ * <PRE>
+ * <code>
+ *      ReloadableCSVDict species = new ReloadableCSVDict(path, ',', 0);
+ *      species.start();
+ *      ...
+ *      CSVDict dict = species.get();    // stays the same for as long as it's held
+ *      float pd = dict.getFloatValue(key, 6);
+ * </code>
+ * </PRE>
+ * A reader that makes several calls and needs them to agree should call
+ * {@link #get} once and use the dictionary it returns. With
+ * {@link LoadOptions.Storage#LAZY lazy storage} rows are read from the file
+ * after it is loaded, so the file must be replaced by renaming a new file
+ * over it rather than rewritten in place.
+ */
+public class ReloadableCSVDict implements Closeable
+{
+    private static final Logger logger = Logger.getLogger(ReloadableCSVDict.class.getSimpleName());
+
+    // how long the file must go without changes before it is loaded, as
+    // writers often change a file in several steps
+    private static final long QUIET_MILLIS = 200;
+
+    private final String csvfp;
+    private final char delimiter;
+    private final int keyIndex;
+    private final LoadOptions options;
+    private volatile CSVDict current;
+    private volatile int maxPatchedRows = 1024;
+    private WatchService watcher;
+
+
+
+    /**
+     * Loads the CSV file with the default options.
+     *
+     * @param csvfp full path to the csv file
+     * @param delimiter the column delimiter in the CSV file
+     * @param keyIndex the zero-based index of the column that is to be used as
+     *                 the key
+     * @throws CSVDict.CSVDictException
+     */
+    public ReloadableCSVDict(String csvfp, char delimiter, int keyIndex)
+        throws CSVDict.CSVDictException
+    {
+        this(csvfp, delimiter, keyIndex, new LoadOptions());
+    }
+
+    /**
+     * Loads the CSV file. Every later load uses the same options.
+     *
+     * @param csvfp full path to the csv file
+     * @param delimiter the column delimiter in the CSV file
+     * @param keyIndex the zero-based index of the column that is to be used as
+     *                 the key
+     * @param options settings that control the loading
+     * @throws CSVDict.CSVDictException
+     */
+    public ReloadableCSVDict(String csvfp, char delimiter, int keyIndex, LoadOptions options)
+        throws CSVDict.CSVDictException
+    {
+        this.csvfp = csvfp;
+        this.delimiter = delimiter;
+        this.keyIndex = keyIndex;
+        this.options = options;
+        current = new CSVDict(csvfp, delimiter, keyIndex, options);
+    }
+
+
+
+    /**
+     * @return the dictionary as last loaded. It doesn't change when the file
+     *         is loaded again.
+     */
+    public CSVDict get()
+    {
+        return current;
+    }
+
+
+
+    /**
+     * Sets how many rows may be replaced in place before the whole file is
+     * loaded into new storage instead. Rows replaced by earlier loads count
+     * too. Zero always loads the whole file.
+     *
+     * @param rows the number of rows, 1024 unless set
+     * @return this object
+     */
+    public ReloadableCSVDict setMaxPatchedRows(int rows)
+    {
+        maxPatchedRows = rows;
+        return this;
+    }
+
+
+
+    /**
+     * Starts watching the file on a daemon thread, which loads it again each
+     * time it changes. A load that fails is logged and the last dictionary is
+     * kept.
+     *
+     * @throws IOException if the file's directory can't be watched
+     */
+    public synchronized void start()
+        throws IOException
+    {
+        if (watcher != null)
+            return;
+        Path file = Paths.get(csvfp).toAbsolutePath();
+        final Path name = file.getFileName();
+        final WatchService ws = file.getFileSystem().newWatchService();
+        file.getParent().register(ws, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        watcher = ws;
+        Thread thread = new Thread(() -> watch(ws, name), "reload " + name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+
+
+    /**
+     * Stops watching the file. The last dictionary stays usable.
+     */
+    @Override
+    public synchronized void close()
+        throws IOException
+    {
+        if (watcher != null) {
+            watcher.close();
+            watcher = null;
+        }
+    }
+
+
+
+    /**
+     * Loads the file again now, whether or not it is being watched.
+     *
+     * @return whether a new dictionary was published. None is when no cell
+     *         changed.
+     * @throws CSVDict.CSVDictException if the file can't be loaded, in which
+     *         case the last dictionary is kept
+     */
+    public synchronized boolean reload()
+        throws CSVDict.CSVDictException
+    {
+        long start = System.nanoTime();
+        CSVDict old = current;
+        if (!(old.table instanceof LazyTable) && maxPatchedRows > 0) {
+            TreeMap<Integer, String[]> changes = null;
+            try {
+                changes = changedRows(old);
+            } catch (IOException e) {
+                // the full load below reports it if it persists
+            }
+            if (changes != null) {
+                if (changes.isEmpty())
+                    return false;
+                PatchedTable patched = PatchedTable.patch(old.table, changes);
+                if (patched.patchedRows() <= maxPatchedRows) {
+                    CSVDict next = new CSVDict(old, patched);
+                    if (old.metrics != null)
+                        old.metrics.reloaded(next, System.nanoTime() - start, new File(csvfp).length());
+                    current = next;
+                    return true;
+                }
+            }
+        }
+        CSVDict next = new CSVDict(csvfp, delimiter, keyIndex, options);
+        // keep counting in the metrics that may have been published
+        if (old.metrics != null)
+            old.metrics.reloaded(next, next.metrics);
+        current = next;
+        return true;
+    }
+
+
+
+    /**
+     * @see CSVDict#getString(String, int)
+     */
+    public String getString(String key, int pos)
+        throws CSVDict.CSVDictException
+    {
+        return current.getString(key, pos);
+    }
+
+    /**
+     * @see CSVDict#getFloatValue(String, int)
+     */
+    public float getFloatValue(String key, int pos)
+        throws CSVDict.CSVDictException
+    {
+        return current.getFloatValue(key, pos);
+    }
+
+    /**
+     * @see CSVDict#getIntValue(String, int)
+     */
+    public int getIntValue(String key, int pos)
+        throws CSVDict.CSVDictException
+    {
+        return current.getIntValue(key, pos);
+    }
+
+    /**
+     * @see CSVDict#getDoubleValue(String, int)
+     */
+    public double getDoubleValue(String key, int pos)
+        throws CSVDict.CSVDictException
+    {
+        return current.getDoubleValue(key, pos);
+    }
+
+    /**
+     * @see CSVDict#getRowCount()
+     */
+    public int getRowCount()
+    {
+        return current.getRowCount();
+    }
+
+
+
+    private void watch(WatchService ws, Path name)
+    {
+        try {
+            for (;;) {
+                if (!changed(ws.take(), name))
+                    continue;
+                WatchKey key;
+                while ((key = ws.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS)) != null)
+                    changed(key, name);
+                try {
+                    reload();
+                } catch (CSVDict.CSVDictException e) {
+                    logger.warning("can't reload " + csvfp + ": " + e.getMessage());
+                }
+            }
+        } catch (InterruptedException e) {
+            // stopped
+        } catch (ClosedWatchServiceException e) {
+            // stopped
+        }
+    }
+
+
+
+    // whether the events are about the file, or may have been lost
+    private static boolean changed(WatchKey key, Path name)
+    {
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents())
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || name.equals(event.context()))
+                changed = true;
+        key.reset();
+        return changed;
+    }
+
+
+
+    // The rows of the file whose cells differ from the dictionary, by row
+    // number, or null if the header, the keys or their order changed or too
+    // many rows did. Only the changed records are kept while the file is read.
+    private TreeMap<Integer, String[]> changedRows(CSVDict old)
+        throws IOException
+    {
+        FileInputStream fis = new FileInputStream(csvfp);
+        try {
+            FileChannel channel = fis.getChannel();
+            long size = channel.size();
+            if (size <= Integer.MAX_VALUE && delimiter < 0x80) {
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                return changedRows(old, new MappedCSVTokenizer(mapped, delimiter));
+            }
+            return changedRows(old, new CSVTokenizer(new BufferedReader(new InputStreamReader(fis, "UTF-8")), delimiter));
+        } finally {
+            fis.close();
+        }
+    }
+
+    private TreeMap<Integer, String[]> changedRows(CSVDict old, RecordSource records)
+        throws IOException
+    {
+        String[] header = old.getFieldNames();
+        if (!Arrays.equals(records.next(), header))
+            return null;
+        Table table = old.table;
+        int nCols = header.length;
+        BitSet seen = new BitSet(table.size());
+        int nSeen = 0;
+        TreeMap<Integer, String[]> changes = new TreeMap<Integer, String[]>();
+        String[] cells;
+        while ((cells = records.next()) != null) {
+            if (cells.length != nCols)
+                return null;
+            int row = table.find(cells[keyIndex]);
+            if (row < 0)
+                return null;
+            // rows are numbered in the order their keys first appear
+            if (!seen.get(row)) {
+                if (row != nSeen)
+                    return null;
+                seen.set(row);
+                nSeen++;
+            }
+            // a key that appears again replaces the earlier record, as in a load
+            if (sameCells(table, row, cells))
+                changes.remove(row);
+            else if (changes.put(row, cells) == null && changes.size() > maxPatchedRows)
+                return null;
+        }
+        return nSeen == table.size() ? changes : null;
+    }
+
+
+
+    private static boolean sameCells(Table table, int row, String[] cells)
+    {
+        for (int pos = 0; pos < cells.length; pos++) {
+            String cell = table.getString(row, pos);
+            if (!(cell == null ? cells[pos].isEmpty() : cell.equals(cells[pos])))
+                return false;
+        }
+        return true;
+    }
+}
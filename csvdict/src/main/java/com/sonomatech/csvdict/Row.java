@@ -0,0 +1,152 @@
+/*
+Copyright (c) 2012, Sonoma Technology, Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without 
+modification, are permitted provided that the following conditions 
+are met:
+
+    * Redistributions of source code must retain the above copyright 
+      notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above copyright 
+      notice, this list of conditions and the following disclaimer in 
+      the documentation and/or other materials provided with the 
+      distribution.
+
+    * Neither the name of Sonoma Technology, Inc. nor the names of 
+      its contributors may be used to endorse or promote products 
+      derived from this software without specific prior written 
+      permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS 
+FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE 
+COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR 
+BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF 
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF 
+THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF 
+SUCH DAMAGE. 
+*/
+
+
+
+package com.sonomatech.csvdict;
+
+import java.util.Map;
+
+
+
+/**
+ * A view of one row of a CSV file, as handed out by {@link CSVDict#forEachRow},
+ * {@link CSVDict#stream} and {@link CSVDict#scan}. A row of a dictionary reads
+ * its cells from the dictionary's storage when asked; a scanned row holds the
+ * cells of one record.
+ */
+public final class Row
+{
+    private final Table table;
+    private final String[] cells;
+    private final int row;
+    private final Map<String, Integer> positions;
+
+
+
+    // a row of a dictionary
+    Row(Table table, int row, Map<String, Integer> positions)
+    {
+        this.table = table;
+        this.cells = null;
+        this.row = row;
+        this.positions = positions;
+    }
+
+    // a scanned record
+    Row(String[] cells, int row, Map<String, Integer> positions)
+    {
+        this.table = null;
+        this.cells = cells;
+        this.row = row;
+        this.positions = positions;
+    }
+
+
+
+    /**
+     * @return the zero-based number of the row, in file order
+     */
+    public int getRowId()
+    {
+        return row;
+    }
+
+
+
+    /**
+     * @param pos the zero-based position in the row of the desired value
+     * @return the cell as it appeared in the CSV file
+     */
+    public String getString(int pos)
+    {
+        if (table != null)
+            return table.getString(row, pos);
+        return pos < cells.length ? cells[pos] : "";
+    }
+
+    /**
+     * @param fieldName the field name in the header row
+     * @return the cell as it appeared in the CSV file, or null if there is
+     *         no such field
+     */
+    public String getString(String fieldName)
+    {
+        Integer pos = positions.get(fieldName);
+        return pos == null ? null : getString(pos);
+    }
+
+
+
+    /**
+     * @param pos the zero-based position in the row of the desired value
+     * @return the cell as a float, or NaN if it is empty or not a number
+     */
+    public float getFloatValue(int pos)
+    {
+        return table != null ? table.getFloat(row, pos) : Table.toFloat(getString(pos));
+    }
+
+    /**
+     * @param pos the zero-based position in the row of the desired value
+     * @return the cell as an int, or Integer.MAX_VALUE if it is empty or not
+     *         an int
+     */
+    public int getIntValue(int pos)
+    {
+        return table != null ? table.getInteger(row, pos) : Table.toInteger(getString(pos));
+    }
+
+    /**
+     * @param pos the zero-based position in the row of the desired value
+     * @return the cell as a double, or NaN if it is empty or not a number
+     */
+    public double getDoubleValue(int pos)
+    {
+        return table != null ? table.getDouble(row, pos) : Table.toDouble(getString(pos));
+    }
+
+
+
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder("row ").append(row).append(':');
+        for (int pos = 0; pos < positions.size(); pos++)
+            sb.append(pos == 0 ? " " : ", ").append(getString(pos));
+        return sb.toString();
+    }
+}
@@ -141,24 +141,78 @@ fccs_summary_calculations.csv = com.sti.fuelbed.calculators.testers.SummaryCalcu
 
 import com.sonomatech.csvdict.CSVDict.CSVDictException;
 import com.sonomatech.csvdict.IntKeyCSVDict;
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 public class BasalAccumIV {
 
-    private static HashMap<Object, BasalAccumIV> cache = new HashMap<Object, BasalAccumIV>();
+    public static final ConcurrentHashMap<Object, BasalAccumIV> cache = new ConcurrentHashMap<Object, BasalAccumIV>();
+
+    private static final int CUSTOM_START = 5000;
+    // the last ID handed out by addRow, set above every key in the CSV file when it's loaded
+    private static final AtomicInteger lastMapID = new AtomicInteger(CUSTOM_START);
+
+    private static volatile IntKeyCSVDict dict;
+
+    private static IntKeyCSVDict getDict()
+        throws CSVDictException
+    {
+        IntKeyCSVDict d = dict;
+        if (d == null) {
+            synchronized (BasalAccumIV.class) {
+                d = dict;
+                if (d == null) {
+                    d = new IntKeyCSVDict("basalAccumulations_ivDb.csv", ',', 0, BasalAccumIV.class.getClassLoader());
+                    int maxID = CUSTOM_START;
+                    for (int row = 0; row < d.getRowCount(); row++)
+                        maxID = Math.max(maxID, d.getIntValueAt(row, 0));
+                    lastMapID.set(maxID);
+                    dict = d;
+                }
+            }
+        }
+        return d;
+    }
+
+    public static int addRow(BasalAccumIV ms) {
+        try {
+            getDict();
+        } catch (CSVDictException e) {
+            throw new IllegalStateException(e);
+        }
+        int id;
+        do {
+            id = lastMapID.incrementAndGet();
+        } while (cache.putIfAbsent(id, ms) != null);
+        return id;
+    }
 
     public static BasalAccumIV getInstance(int MapID)
         throws CSVDictException
     {
         BasalAccumIV instance = cache.get(MapID);
         if (instance == null) {
-            instance = new BasalAccumIV(MapID);
-            cache.put(MapID, instance);
+            IntKeyCSVDict dict = getDict();
+            BasalAccumIV created = new BasalAccumIV(dict, dict.getRowId(MapID));
+            instance = cache.putIfAbsent(MapID, created);
+            if (instance == null)
+                instance = created;
         }
         return instance;
     }
 
+    public static void preloadAll()
+        throws CSVDictException
+    {
+        IntKeyCSVDict dict = getDict();
+        for (int row = 0; row < dict.getRowCount(); row++) {
+            int MapID = dict.getIntValueAt(row, 0);
+            if (!cache.containsKey(MapID))
+                cache.putIfAbsent(MapID, new BasalAccumIV(dict, row));
+        }
+    }
+
 
 
     public int MapID;
@@ -167,15 +221,14 @@ public class BasalAccumIV {
     public float PD;
     public float HC;
 
-    private BasalAccumIV(int MapID)
+    private BasalAccumIV(IntKeyCSVDict dict, int row)
         throws CSVDictException
     {
-        this.MapID = MapID;
-        IntKeyCSVDict dict = new IntKeyCSVDict("basalAccumulations_ivDb.csv", ',', 0);
-        Wl = dict.getFloat(MapID, 1);
-        SV = dict.getFloat(MapID, 2);
-        PD = dict.getFloat(MapID, 3);
-        HC = dict.getFloat(MapID, 4);
+        MapID = dict.getIntValueAt(row, 0);
+        Wl = dict.getFloatValueAt(row, 1);
+        SV = dict.getFloatValueAt(row, 2);
+        PD = dict.getFloatValueAt(row, 3);
+        HC = dict.getFloatValueAt(row, 4);
     }
 }
  * </FONT></PRE>
@@ -187,14 +240,14 @@ public class RowClassSourceGenerator
 {
     private static final Logger logger = Logger.getLogger(RowClassSourceGenerator.class.getSimpleName());
     
-    private static String getMethodCall(String type, String idName, int fieldIndex)
+    private static String getMethodCall(String type, int fieldIndex)
     {
         if (type.equals("int"))
-            return "dict.getInteger(" + idName + ", " + fieldIndex + ")";
+            return "dict.getIntValueAt(row, " + fieldIndex + ")";
         else if (type.equals("float"))
-            return "dict.getFloat(" + idName + ", " + fieldIndex + ")";
+            return "dict.getFloatValueAt(row, " + fieldIndex + ")";
         else
-            return "dict.getString(" + idName + ", " + fieldIndex + ")";
+            return "dict.getStringAt(row, " + fieldIndex + ")";
     }
 
 
@@ -257,7 +310,9 @@ public class RowClassSourceGenerator
 
 
     // generates the class from the CSV file
-    private static void genClass(String csvFilePath, String generatedFileDir, String fullClassName, int keyIndex, boolean intKey)
+    // if resourceDir isn't null, the parsed table is written there as a binary
+    // resource which the generated class loads instead of the CSV file
+    private static void genClass(String csvFilePath, String generatedFileDir, String resourceDir, String fullClassName, int keyIndex, boolean intKey)
     {
         try {
             StringBuilder source = new StringBuilder();
@@ -267,6 +322,16 @@ public class RowClassSourceGenerator
             String cArg = intKey ? "int " + keyName : "String " + keyName;
             br.close();
             String shortClassName = endStr(fullClassName, '.');
+            String dictClass = intKey ? "IntKeyCSVDict" : "CSVDict";
+            String cLoaderArg = shortClassName + ".class.getClassLoader()";
+            String loadCall = "new " + dictClass + "(\"" + endStr(csvFilePath, File.separatorChar) + "\", ',', " + keyIndex + ", " + cLoaderArg + ")";
+            if (resourceDir != null) {
+                String resourceName = fullClassName.replace('.', '/') + ".csvdict";
+                File resource = new File(resourceDir, resourceName.replace('/', File.separatorChar));
+                resource.getParentFile().mkdirs();
+                dict.writeSnapshot(resource, ',');
+                loadCall = dictClass + ".fromSnapshot(\"" + resourceName + "\", " + cLoaderArg + ")";
+            }
 
             source.append("package " + fullClassName.substring(0, fullClassName.lastIndexOf('.')) + ";\n\n");
             source.append("import com.sonomatech.csvdict.CSVDict.CSVDictException;\n");
@@ -274,39 +339,82 @@ public class RowClassSourceGenerator
                 source.append("import com.sonomatech.csvdict.IntKeyCSVDict;\n");
             else
                 source.append("import com.sonomatech.csvdict.CSVDict;\n");
-            source.append("import java.util.HashMap;\n");
+            source.append("import java.util.concurrent.ConcurrentHashMap;\n");
+            if (intKey)
+                source.append("import java.util.concurrent.atomic.AtomicInteger;\n");
 
             source.append("\n\npublic class " + shortClassName + " {\n");
 
-            source.append("\n    public static HashMap<Object, " + shortClassName + "> cache = new HashMap<Object, " + shortClassName + ">();\n");
+            // lookups never lock: a miss builds the row and keeps whichever
+            // instance reached the cache first
+            source.append("\n    public static final ConcurrentHashMap<Object, " + shortClassName + "> cache = new ConcurrentHashMap<Object, " + shortClassName + ">();\n");
             if (intKey) {
                 source.append("\n    private static final int CUSTOM_START = 5000;");
-                source.append("\n    private static int getNext" + keyName + "() {");
-                source.append("\n        int ID = CUSTOM_START;");
-                source.append("\n        for (Object key : cache.keySet()) {");
-                source.append("\n            Integer keyInt = (Integer)key;");
-                source.append("\n            if (keyInt > ID)");
-                source.append("\n                ID = keyInt;");
-                source.append("\n        }");
-                source.append("\n        ID += 1;");
-                source.append("\n        return ID > CUSTOM_START ? ID : CUSTOM_START;");        
-                source.append("\n    }\n"); 
+                source.append("\n    // the last ID handed out by addRow, set above every key in the CSV file when it's loaded");
+                source.append("\n    private static final AtomicInteger last" + keyName + " = new AtomicInteger(CUSTOM_START);\n");
+            }
+
+            // the CSV file is parsed once, by the first thread that needs a row
+            source.append("\n    private static volatile " + dictClass + " dict;\n");
+            source.append("\n    private static " + dictClass + " getDict()");
+            source.append("\n        throws CSVDictException\n    {");
+            source.append("\n        " + dictClass + " d = dict;");
+            source.append("\n        if (d == null) {");
+            source.append("\n            synchronized (" + shortClassName + ".class) {");
+            source.append("\n                d = dict;");
+            source.append("\n                if (d == null) {");
+            source.append("\n                    d = " + loadCall + ";");
+            if (intKey) {
+                source.append("\n                    int maxID = CUSTOM_START;");
+                source.append("\n                    for (int row = 0; row < d.getRowCount(); row++)");
+                source.append("\n                        maxID = Math.max(maxID, d.getIntValueAt(row, " + keyIndex + "));");
+                source.append("\n                    last" + keyName + ".set(maxID);");
+            }
+            source.append("\n                    dict = d;");
+            source.append("\n                }");
+            source.append("\n            }");
+            source.append("\n        }");
+            source.append("\n        return d;");
+            source.append("\n    }\n");
 
-                source.append("\n    synchronized public static int addRow(" + shortClassName + " ms) {");
-                source.append("\n        int id = getNext" + keyName + "();");
-                source.append("\n        cache.put(id, ms);");
+            if (intKey) {
+                source.append("\n    public static int addRow(" + shortClassName + " ms) {");
+                source.append("\n        try {");
+                source.append("\n            getDict();");
+                source.append("\n        } catch (CSVDictException e) {");
+                source.append("\n            throw new IllegalStateException(e);");
+                source.append("\n        }");
+                source.append("\n        int id;");
+                source.append("\n        do {");
+                source.append("\n            id = last" + keyName + ".incrementAndGet();");
+                source.append("\n        } while (cache.putIfAbsent(id, ms) != null);");
                 source.append("\n        return id;");
                 source.append("\n    }\n");
             }
             
-            source.append("\n    synchronized public static " + shortClassName + " getInstance(" + cArg + ")");
+            source.append("\n    public static " + shortClassName + " getInstance(" + cArg + ")");
             source.append("\n        throws CSVDictException\n    {");
             source.append("\n        " + shortClassName + " instance = cache.get(" + keyName + ");");
             source.append("\n        if (instance == null) {");
-            source.append("\n            instance = new " + shortClassName + "(" + keyName + ");");
-            source.append("\n            cache.put(" + keyName + ", instance);");
+            source.append("\n            " + dictClass + " dict = getDict();");
+            source.append("\n            " + shortClassName + " created = new " + shortClassName + "(dict, dict.getRowId(" + keyName + "));");
+            source.append("\n            instance = cache.putIfAbsent(" + keyName + ", created);");
+            source.append("\n            if (instance == null)");
+            source.append("\n                instance = created;");
             source.append("\n        }");
             source.append("\n        return instance;");
+            source.append("\n    }\n");
+
+            // builds the rows that aren't cached yet in a single pass over the table
+            String keyCall = intKey ? "dict.getIntValueAt(row, " + keyIndex + ")" : "dict.getStringAt(row, " + keyIndex + ")";
+            source.append("\n    public static void preloadAll()");
+            source.append("\n        throws CSVDictException\n    {");
+            source.append("\n        " + dictClass + " dict = getDict();");
+            source.append("\n        for (int row = 0; row < dict.getRowCount(); row++) {");
+            source.append("\n            " + cArg + " = " + keyCall + ";");
+            source.append("\n            if (!cache.containsKey(" + keyName + "))");
+            source.append("\n                cache.putIfAbsent(" + keyName + ", new " + shortClassName + "(dict, row));");
+            source.append("\n        }");
             source.append("\n    }\n\n\n\n");
 
             String[] fieldTypes = determimeFieldTypes(dict, keyIndex, intKey, fullClassName);
@@ -315,23 +423,14 @@ public class RowClassSourceGenerator
             for (String fieldName : dict.getFieldNames())
                 source.append("    public " + fieldTypes[fCnt++] + " " + makeVarName(fieldName) + ";\n");
 
-            source.append("\n    private " + shortClassName + "(" + cArg + ")\n");
+            source.append("\n    private " + shortClassName + "(" + dictClass + " dict, int row)\n");
             source.append("        throws CSVDictException\n");
             source.append("    {\n");
-            source.append("        this." + keyName + " = " + keyName + ";\n");
-            String cLoaderArg = shortClassName + ".class.getClassLoader()";
-
-            if (intKey)
-                source.append("        IntKeyCSVDict dict = new IntKeyCSVDict(\"" + endStr(csvFilePath, File.separatorChar) + "\", ',', " + keyIndex + "," + cLoaderArg + ");\n");
-            else
-                source.append("        CSVDict dict = new CSVDict(\"" + endStr(csvFilePath, File.separatorChar) + "\", ',', " + keyIndex + "," + cLoaderArg + ");\n");
 
             fCnt = 0;
             for (String memberName : dict.getFieldNames()) {
-                if (fCnt != keyIndex) {
-                    String dictCall = getMethodCall(fieldTypes[fCnt], keyName, fCnt);
-                    source.append("        " + makeVarName(memberName) + " = " + dictCall + ";\n");
-                }
+                String dictCall = getMethodCall(fieldTypes[fCnt], fCnt);
+                source.append("        " + makeVarName(memberName) + " = " + dictCall + ";\n");
                 fCnt += 1;
             }
 
@@ -362,6 +461,11 @@ public class RowClassSourceGenerator
      *  (1) the path to the properties file
      *  (2) the path to the directory that contains the CSV files
      *  (3) the path to the directory where the generated class files will be written
+     * and 1 optional argument:
+     *  (4) the path to a directory where the parsed tables are written as
+     *      binary resources, which may be the same as (3). The generated
+     *      classes then load these with CSVDict.fromSnapshot, and the CSV
+     *      files aren't needed at run time.
      * </PRE>
      */
     public static void main(String[] args)
@@ -378,8 +482,11 @@ public class RowClassSourceGenerator
             props.load(new FileInputStream(args[0]));
             String csvDir = args[1];
             String generatedDir = args[2];
+            String resourceDir = args.length > 3 ? args[3] : null;
             logMsg += "\n    CSV dir: " + csvDir;
             logMsg += "\n    src dir: " + generatedDir;
+            if (resourceDir != null)
+                logMsg += "\n    resource dir: " + resourceDir;
 
             for (String csvFileName : props.stringPropertyNames()) {
                 if (!csvFileName.endsWith(".csv"))
@@ -396,7 +503,7 @@ public class RowClassSourceGenerator
                         suffixedClassName = fullClassName + csvFileProps[pInd++].trim();
                     logMsg += ("\n        GENERATED " + endStr(suffixedClassName, '.') + ".java from " +
                                endStr(csvFilePath, File.separatorChar));
-                    genClass(csvFilePath, generatedDir, suffixedClassName, keyIndex, intKey);
+                    genClass(csvFilePath, generatedDir, resourceDir, suffixedClassName, keyIndex, intKey);
                 }
             }
             logger.info(logMsg);
@@ -0,0 +1,112 @@
+/*
+Copyright (c) 2012, Sonoma Technology, Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without 
+modification, are permitted provided that the following conditions 
+are met:
+
+    * Redistributions of source code must retain the above copyright 
+      notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above copyright 
+      notice, this list of conditions and the following disclaimer in 
+      the documentation and/or other materials provided with the 
+      distribution.
+
+    * Neither the name of Sonoma Technology, Inc. nor the names of 
+      its contributors may be used to endorse or promote products 
+      derived from this software without specific prior written 
+      permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS 
+FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE 
+COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR 
+BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF 
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF 
+THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF 
+SUCH DAMAGE. 
+*/
+
+
+
+package com.sonomatech.csvdict;
+
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+
+
+/**
+ * Splits the rows of a table into halves, so a parallel stream of the rows
+ * spreads them over all the threads of the pool.
+ */
+final class RowSpliterator implements Spliterator<Row>
+{
+    private final Table table;
+    private final Map<String, Integer> positions;
+    private int from;
+    private final int to;
+
+
+
+    /**
+     * @param from the first row
+     * @param to the row just past the last
+     */
+    RowSpliterator(Table table, Map<String, Integer> positions, int from, int to)
+    {
+        this.table = table;
+        this.positions = positions;
+        this.from = from;
+        this.to = to;
+    }
+
+
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Row> action)
+    {
+        if (from >= to)
+            return false;
+        action.accept(new Row(table, from++, positions));
+        return true;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super Row> action)
+    {
+        for (; from < to; from++)
+            action.accept(new Row(table, from, positions));
+    }
+
+    @Override
+    public Spliterator<Row> trySplit()
+    {
+        int mid = (from + to) >>> 1;
+        if (mid <= from)
+            return null;
+        RowSpliterator prefix = new RowSpliterator(table, positions, from, mid);
+        from = mid;
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize()
+    {
+        return to - from;
+    }
+
+    @Override
+    public int characteristics()
+    {
+        return ORDERED | SIZED | SUBSIZED | IMMUTABLE | NONNULL;
+    }
+}
@@ -0,0 +1,142 @@
+/*
+Copyright (c) 2012, Sonoma Technology, Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without 
+modification, are permitted provided that the following conditions 
+are met:
+
+    * Redistributions of source code must retain the above copyright 
+      notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above copyright 
+      notice, this list of conditions and the following disclaimer in 
+      the documentation and/or other materials provided with the 
+      distribution.
+
+    * Neither the name of Sonoma Technology, Inc. nor the names of 
+      its contributors may be used to endorse or promote products 
+      derived from this software without specific prior written 
+      permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS 
+FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE 
+COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR 
+BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF 
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF 
+THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF 
+SUCH DAMAGE. 
+*/
+
+
+
+package com.sonomatech.csvdict;
+
+import java.util.Map;
+
+
+
+/**
+ * Row storage: every row is kept as the String array it was parsed into.
+ */
+final class RowTable extends Table
+{
+    private final String[][] rows;
+    private final KeyIndex keys;
+    // numbers parsed from each column, created on first numeric access
+    private final ParsedCells[] parsed;
+
+
+
+    /**
+     * @param dict the rows keyed by the key field, in file order
+     */
+    RowTable(Map<String, String[]> dict, int nCols)
+    {
+        parsed = new ParsedCells[nCols];
+        rows = new String[dict.size()][];
+        keys = new KeyIndex(rows.length);
+        int row = 0;
+        for (Map.Entry<String, String[]> entry : dict.entrySet()) {
+            rows[row] = entry.getValue();
+            keys.put(entry.getKey(), row++);
+        }
+    }
+
+
+
+    @Override
+    int size()
+    {
+        return rows.length;
+    }
+
+    @Override
+    int find(String key)
+    {
+        return keys.get(key);
+    }
+
+    @Override
+    String getString(int row, int pos)
+    {
+        return rows[row][pos];
+    }
+
+    @Override
+    float getFloat(int row, int pos)
+    {
+        return parsed(pos).getFloat(row);
+    }
+
+    @Override
+    int getInteger(int row, int pos)
+    {
+        return parsed(pos).getInteger(row);
+    }
+
+    @Override
+    double getDouble(int row, int pos)
+    {
+        return parsed(pos).getDouble(row);
+    }
+
+    @Override
+    boolean isNumeric(int row, int pos)
+    {
+        return parsed(pos).isNumeric(row);
+    }
+
+    @Override
+    long estimateBytes()
+    {
+        long bytes = Table.arrayBytes(rows.length, 4) + keys.estimateBytes(false);
+        for (String[] cells : rows) {
+            bytes += Table.arrayBytes(cells.length, 4);
+            for (String cell : cells)
+                bytes += Table.stringBytes(cell);
+        }
+        return bytes;
+    }
+
+
+
+    private ParsedCells parsed(int pos)
+    {
+        ParsedCells cells = parsed[pos];
+        return cells != null ? cells : createParsed(pos);
+    }
+
+    private synchronized ParsedCells createParsed(final int pos)
+    {
+        if (parsed[pos] == null)
+            parsed[pos] = new ParsedCells(row -> pos < rows[row].length ? rows[row][pos] : null, rows.length);
+        return parsed[pos];
+    }
+}
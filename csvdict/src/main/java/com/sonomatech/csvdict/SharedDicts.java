@@ -0,0 +1,249 @@
+/*
+Copyright (c) 2012, Sonoma Technology, Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without 
+modification, are permitted provided that the following conditions 
+are met:
+
+    * Redistributions of source code must retain the above copyright 
+      notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above copyright 
+      notice, this list of conditions and the following disclaimer in 
+      the documentation and/or other materials provided with the 
+      distribution.
+
+    * Neither the name of Sonoma Technology, Inc. nor the names of 
+      its contributors may be used to endorse or promote products 
+      derived from this software without specific prior written 
+      permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS 
+FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE 
+COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR 
+BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF 
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF 
+THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF 
+SUCH DAMAGE. 
+*/
+
+
+
+package com.sonomatech.csvdict;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+
+
+/**
+ * The dictionaries handed out by {@link CSVDict#shared}. Each resource,
+ * delimiter, key column and class loader is loaded once; threads that ask
+ * for it while it is loading wait for that load rather than starting their
+ * own. Loaded dictionaries are held by soft references, so ones nobody else
+ * holds are freed when the heap runs short and loaded again when next asked
+ * for. Class loaders are only held weakly, so that sharing a dictionary
+ * doesn't keep an undeployed application's classes in memory.
+ */
+final class SharedDicts
+{
+    private static final ConcurrentHashMap<Key, Entry> dicts = new ConcurrentHashMap<Key, Entry>();
+    // the references the collector has cleared, whose entries can go
+    private static final ReferenceQueue<CSVDict> cleared = new ReferenceQueue<CSVDict>();
+    private static final ReferenceQueue<ClassLoader> unloaded = new ReferenceQueue<ClassLoader>();
+
+
+
+    private SharedDicts()
+    {
+    }
+
+
+
+    static CSVDict get(String resource, char delimiter, int keyIndex, ClassLoader cl)
+        throws CSVDict.CSVDictException
+    {
+        expunge();
+        Key key = new Key(resource, delimiter, keyIndex, cl);
+        for (;;) {
+            Entry entry = dicts.get(key);
+            if (entry == null) {
+                Entry created = new Entry(key, cl);
+                entry = dicts.putIfAbsent(key, created);
+                if (entry == null) {
+                    // this thread won, so it does the load
+                    entry = created;
+                    entry.load();
+                }
+            }
+            CSVDict dict = entry.get();
+            if (dict != null)
+                return dict;
+            // collected, load it again
+            dicts.remove(key, entry);
+        }
+    }
+
+
+
+    // the number of dictionaries loaded or loading, for tests
+    static int size()
+    {
+        expunge();
+        return dicts.size();
+    }
+
+
+
+    private static void expunge()
+    {
+        Ref ref;
+        while ((ref = (Ref)cleared.poll()) != null)
+            dicts.remove(ref.entry.key, ref.entry);
+        LoaderRef loader;
+        while ((loader = (LoaderRef)unloaded.poll()) != null)
+            dicts.remove(loader.key);
+    }
+
+
+
+    private static final class Key
+    {
+        final String resource;
+        final char delimiter;
+        final int keyIndex;
+        // null for the null class loader
+        private final LoaderRef cl;
+        private final int clHash;
+
+        Key(String resource, char delimiter, int keyIndex, ClassLoader cl)
+        {
+            this.resource = resource;
+            this.delimiter = delimiter;
+            this.keyIndex = keyIndex;
+            this.cl = cl == null ? null : new LoaderRef(cl, this);
+            clHash = System.identityHashCode(cl);
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (o == this)
+                return true;
+            if (!(o instanceof Key))
+                return false;
+            Key k = (Key)o;
+            if (!resource.equals(k.resource) || delimiter != k.delimiter || keyIndex != k.keyIndex)
+                return false;
+            if (cl == null || k.cl == null)
+                return cl == k.cl;
+            // once a loader is collected its key only equals itself
+            ClassLoader loader = cl.get();
+            return loader != null && loader == k.cl.get();
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return ((resource.hashCode() * 31 + delimiter) * 31 + keyIndex) * 31 + clHash;
+        }
+    }
+
+
+
+    private static final class LoaderRef extends WeakReference<ClassLoader>
+    {
+        final Key key;
+
+        LoaderRef(ClassLoader cl, Key key)
+        {
+            super(cl, unloaded);
+            this.key = key;
+        }
+    }
+
+
+
+    private static final class Ref extends SoftReference<CSVDict>
+    {
+        final Entry entry;
+
+        Ref(CSVDict dict, Entry entry)
+        {
+            super(dict, cleared);
+            this.entry = entry;
+        }
+    }
+
+
+
+    private static final class Entry
+    {
+        final Key key;
+        // the load until it is done, then null so only ref holds the dictionary
+        private volatile FutureTask<CSVDict> loading;
+        private volatile Ref ref;
+
+        Entry(final Key key, final ClassLoader cl)
+        {
+            this.key = key;
+            loading = new FutureTask<CSVDict>(() -> new CSVDict(key.resource, key.delimiter, key.keyIndex, cl));
+        }
+
+        void load()
+        {
+            FutureTask<CSVDict> task = loading;
+            task.run();
+            try {
+                ref = new Ref(task.get(), this);
+            } catch (Exception e) {
+                // a failed load isn't kept, the next caller tries again
+                dicts.remove(key, this);
+                return;
+            }
+            loading = null;
+        }
+
+        // the dictionary, waiting for it if it's loading, or null if it was
+        // collected
+        CSVDict get()
+            throws CSVDict.CSVDictException
+        {
+            FutureTask<CSVDict> task = loading;
+            if (task == null)
+                return ref.get();
+            boolean interrupted = false;
+            try {
+                for (;;) {
+                    try {
+                        return task.get();
+                    } catch (InterruptedException e) {
+                        // other threads may be waiting on this load as well
+                        interrupted = true;
+                    } catch (ExecutionException e) {
+                        Throwable cause = e.getCause();
+                        if (cause instanceof CSVDict.CSVDictException)
+                            throw (CSVDict.CSVDictException)cause;
+                        if (cause instanceof Error)
+                            throw (Error)cause;
+                        throw (RuntimeException)cause;
+                    }
+                }
+            } finally {
+                if (interrupted)
+                    Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,448 @@
+/*
+Copyright (c) 2012, Sonoma Technology, Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without 
+modification, are permitted provided that the following conditions 
+are met:
+
+    * Redistributions of source code must retain the above copyright 
+      notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above copyright 
+      notice, this list of conditions and the following disclaimer in 
+      the documentation and/or other materials provided with the 
+      distribution.
+
+    * Neither the name of Sonoma Technology, Inc. nor the names of 
+      its contributors may be used to endorse or promote products 
+      derived from this software without specific prior written 
+      permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS 
+FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE 
+COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR 
+BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF 
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF 
+THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF 
+SUCH DAMAGE. 
+*/
+
+
+
+package com.sonomatech.csvdict;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.BitSet;
+
+
+
+/**
+ * A binary copy of a parsed CSV file, so that later loads skip tokenizing and
+ * number parsing. The snapshot holds the header and the typed columns of a
+ * {@link ColumnTable}; string columns keep their pool of distinct values. It
+ * is memory-mapped to be read. The key index isn't stored, rebuilding it
+ * from the key column costs one hash per row.
+ * <p>
+ * The snapshot records the size and modification time of the CSV file it was
+ * made from, and the delimiter and key column. It is only used while all of
+ * these match. A snapshot built into the class path by
+ * {@link RowClassSourceGenerator} isn't tied to a file and is always used.
+ */
+final class Snapshot
+{
+    private static final int MAGIC = 0x43535644;     // "CSVD"
+    private static final int VERSION = 2;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    // the source stamp of a snapshot that isn't tied to a file
+    private static final long NO_SOURCE = -1;
+
+    private final File file;
+    private final long sourceSize;
+    private final long sourceModified;
+    private final char delimiter;
+    private int keyIndex;
+
+    // filled in by read
+    private String[] header;
+
+
+
+    /**
+     * @param file where the snapshot is kept
+     * @param source the CSV file the snapshot is made from
+     */
+    Snapshot(File file, File source, char delimiter, int keyIndex)
+    {
+        this.file = file;
+        sourceSize = source.length();
+        sourceModified = source.lastModified();
+        this.delimiter = delimiter;
+        this.keyIndex = keyIndex;
+    }
+
+    /**
+     * A snapshot that isn't tied to a CSV file.
+     *
+     * @param file where the snapshot is written, or null if it is only read
+     */
+    Snapshot(File file, char delimiter, int keyIndex)
+    {
+        this.file = file;
+        sourceSize = NO_SOURCE;
+        sourceModified = NO_SOURCE;
+        this.delimiter = delimiter;
+        this.keyIndex = keyIndex;
+    }
+
+
+
+    /**
+     * @return the table in the snapshot, or null if there is no snapshot or
+     *         it doesn't match the CSV file
+     */
+    ColumnTable read()
+    {
+        if (!file.isFile())
+            return null;
+        try {
+            FileInputStream fis = new FileInputStream(file);
+            try {
+                FileChannel channel = fis.getChannel();
+                ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (in.getInt() != MAGIC || in.getInt() != VERSION
+                        || in.getLong() != sourceSize || in.getLong() != sourceModified
+                        || in.getChar() != delimiter || in.getInt() != keyIndex)
+                    return null;
+                return readTable(in);
+            } finally {
+                fis.close();
+            }
+        } catch (IOException e) {
+            return null;
+        } catch (BufferUnderflowException e) {
+            // cut short, it will be written again
+            return null;
+        }
+    }
+
+
+
+    /**
+     * Reads a snapshot that isn't tied to a CSV file, taking the key column
+     * from the snapshot.
+     *
+     * @param is the whole snapshot
+     * @return the table in the snapshot
+     */
+    ColumnTable read(InputStream is)
+        throws IOException
+    {
+        byte[] bytes = new byte[1 << 16];
+        int len = 0;
+        for (int n; (n = is.read(bytes, len, bytes.length - len)) > 0;) {
+            len += n;
+            if (len == bytes.length)
+                bytes = Arrays.copyOf(bytes, len * 2);
+        }
+        ByteBuffer in = ByteBuffer.wrap(bytes, 0, len);
+        try {
+            if (in.getInt() != MAGIC || in.getInt() != VERSION)
+                throw new IOException("not a snapshot of version " + VERSION);
+            in.getLong();
+            in.getLong();
+            in.getChar();
+            keyIndex = in.getInt();
+            return readTable(in);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("snapshot is cut short");
+        }
+    }
+
+
+
+    // reads what follows the stamp
+    private ColumnTable readTable(ByteBuffer in)
+        throws IOException
+    {
+        header = readStrings(in);
+        Column[] columns = new Column[header.length];
+        int size = in.getInt();
+        for (int pos = 0; pos < columns.length; pos++)
+            columns[pos] = Column.read(in);
+        return new ColumnTable(columns, size, keyIndex);
+    }
+
+
+
+    /**
+     * @return the header row, once read has returned a table
+     */
+    String[] header()
+    {
+        return header;
+    }
+
+    /**
+     * @return the key column
+     */
+    int keyIndex()
+    {
+        return keyIndex;
+    }
+
+
+
+    /**
+     * Writes the snapshot to a temporary file and then moves it into place,
+     * so a reader never maps a snapshot that is only partly written.
+     */
+    void write(String[] header, ColumnTable table)
+        throws IOException
+    {
+        File tmp = new File(file.getPath() + ".tmp");
+        OutputStream os = new FileOutputStream(tmp);
+        try {
+            write(os, header, table);
+        } finally {
+            os.close();
+        }
+        if (!tmp.renameTo(file)) {
+            // some platforms won't rename over an existing file
+            file.delete();
+            if (!tmp.renameTo(file)) {
+                tmp.delete();
+                throw new IOException("can't replace " + file);
+            }
+        }
+    }
+
+
+
+    private void write(OutputStream os, String[] header, ColumnTable table)
+        throws IOException
+    {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os, 1 << 16));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(sourceSize);
+            out.writeLong(sourceModified);
+            out.writeChar(delimiter);
+            out.writeInt(keyIndex);
+            writeStrings(out, header);
+            out.writeInt(table.size());
+            for (int pos = 0; pos < header.length; pos++)
+                table.column(pos).write(out);
+        } finally {
+            out.flush();
+        }
+    }
+
+
+
+    static void writeInts(DataOutputStream out, int[] values)
+        throws IOException
+    {
+        out.writeInt(values.length);
+        for (int v : values)
+            out.writeInt(v);
+    }
+
+    static int[] readInts(ByteBuffer in)
+    {
+        int[] values = new int[in.getInt()];
+        in.asIntBuffer().get(values);
+        in.position(in.position() + 4 * values.length);
+        return values;
+    }
+
+
+
+    /**
+     * Writes ints in 1, 2 or 4 bytes each, whichever holds their distance
+     * from the smallest of them. Flag and code columns take a byte per row.
+     */
+    static void writePackedInts(DataOutputStream out, int[] values)
+        throws IOException
+    {
+        long min = 0;
+        long max = 0;
+        if (values.length > 0) {
+            min = max = values[0];
+            for (int v : values) {
+                min = Math.min(min, v);
+                max = Math.max(max, v);
+            }
+        }
+        int width = max - min < 1 << 8 ? 1 : max - min < 1 << 16 ? 2 : 4;
+        out.writeInt(values.length);
+        out.writeByte(width);
+        out.writeInt((int)min);
+        for (int v : values) {
+            long d = v - min;
+            if (width == 1)
+                out.writeByte((int)d);
+            else if (width == 2)
+                out.writeShort((int)d);
+            else
+                out.writeInt(v);
+        }
+    }
+
+    static int[] readPackedInts(ByteBuffer in)
+    {
+        int[] values = new int[in.getInt()];
+        int width = in.get();
+        int min = in.getInt();
+        if (width == 1) {
+            for (int i = 0; i < values.length; i++)
+                values[i] = min + (in.get() & 0xFF);
+        } else if (width == 2) {
+            for (int i = 0; i < values.length; i++)
+                values[i] = min + (in.getShort() & 0xFFFF);
+        } else {
+            in.asIntBuffer().get(values);
+            in.position(in.position() + 4 * values.length);
+        }
+        return values;
+    }
+
+
+
+    static void writeLongs(DataOutputStream out, long[] values)
+        throws IOException
+    {
+        out.writeInt(values.length);
+        for (long v : values)
+            out.writeLong(v);
+    }
+
+    static long[] readLongs(ByteBuffer in)
+    {
+        long[] values = new long[in.getInt()];
+        in.asLongBuffer().get(values);
+        in.position(in.position() + 8 * values.length);
+        return values;
+    }
+
+
+
+    static void writeFloats(DataOutputStream out, float[] values)
+        throws IOException
+    {
+        out.writeInt(values.length);
+        for (float v : values)
+            out.writeFloat(v);
+    }
+
+    static float[] readFloats(ByteBuffer in)
+    {
+        float[] values = new float[in.getInt()];
+        in.asFloatBuffer().get(values);
+        in.position(in.position() + 4 * values.length);
+        return values;
+    }
+
+
+
+    static void writeBytes(DataOutputStream out, byte[] values)
+        throws IOException
+    {
+        out.writeInt(values.length);
+        out.write(values);
+    }
+
+    static byte[] readBytes(ByteBuffer in)
+    {
+        byte[] values = new byte[in.getInt()];
+        in.get(values);
+        return values;
+    }
+
+
+
+    static void writeChars(DataOutputStream out, char[] values)
+        throws IOException
+    {
+        out.writeInt(values.length);
+        for (char v : values)
+            out.writeChar(v);
+    }
+
+    static char[] readChars(ByteBuffer in)
+    {
+        char[] values = new char[in.getInt()];
+        in.asCharBuffer().get(values);
+        in.position(in.position() + 2 * values.length);
+        return values;
+    }
+
+
+
+    // a null bit set is written like an empty one
+    static void writeBits(DataOutputStream out, BitSet bits)
+        throws IOException
+    {
+        writeLongs(out, bits == null ? new long[0] : bits.toLongArray());
+    }
+
+    static BitSet readBits(ByteBuffer in)
+    {
+        return BitSet.valueOf(readLongs(in));
+    }
+
+
+
+    /**
+     * Writes the strings as their UTF-8 bytes run together, after the offset
+     * where each one ends.
+     */
+    static void writeStrings(DataOutputStream out, String[] values)
+        throws IOException
+    {
+        byte[][] bytes = new byte[values.length][];
+        int[] ends = new int[values.length];
+        int end = 0;
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = values[i].getBytes(UTF8);
+            end += bytes[i].length;
+            ends[i] = end;
+        }
+        writeInts(out, ends);
+        out.writeInt(end);
+        for (byte[] b : bytes)
+            out.write(b);
+    }
+
+    static String[] readStrings(ByteBuffer in)
+    {
+        int[] ends = readInts(in);
+        byte[] bytes = readBytes(in);
+        String[] values = new String[ends.length];
+        int start = 0;
+        for (int i = 0; i < values.length; i++) {
+            values[i] = new String(bytes, start, ends[i] - start, UTF8);
+            start = ends[i];
+        }
+        return values;
+    }
+}
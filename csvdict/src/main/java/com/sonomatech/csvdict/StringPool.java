@@ -0,0 +1,226 @@
+/*
+Copyright (c) 2012, Sonoma Technology, Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without 
+modification, are permitted provided that the following conditions 
+are met:
+
+    * Redistributions of source code must retain the above copyright 
+      notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above copyright 
+      notice, this list of conditions and the following disclaimer in 
+      the documentation and/or other materials provided with the 
+      distribution.
+
+    * Neither the name of Sonoma Technology, Inc. nor the names of 
+      its contributors may be used to endorse or promote products 
+      derived from this software without specific prior written 
+      permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS 
+FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE 
+COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR 
+BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF 
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF 
+THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF 
+SUCH DAMAGE. 
+*/
+
+
+
+package com.sonomatech.csvdict;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+
+
+/**
+ * Shares one String instance among the cells of a column that hold the same
+ * text, so a column with a handful of distinct values keeps a handful of
+ * Strings however many rows it has. The tokenizers look cells up here before
+ * creating a String, so a repeated value doesn't allocate at all.
+ * <p>
+ * Each column has its own pool. Once a column has more distinct values than
+ * the threshold, its pool is dropped and its cells are no longer looked up:
+ * columns like names and IDs would only pay for the lookups. A pool is used by
+ * one thread at a time.
+ */
+final class StringPool
+{
+    private static final Charset LATIN1 = Charset.forName("ISO-8859-1");
+
+    private final int threshold;
+    // per column: open-addressing table of the distinct values, or null
+    // before the column's first cell
+    private String[][] tables = new String[16][];
+    private int[] sizes = new int[16];
+    // columns that passed the threshold
+    private boolean[] dropped = new boolean[16];
+
+
+
+    /**
+     * @param threshold the most distinct values a column may have and still
+     *                  be pooled
+     */
+    StringPool(int threshold)
+    {
+        this.threshold = threshold;
+    }
+
+
+
+    /**
+     * @return the pooled String with the text of chars[0, len), or a new
+     *         String if the column isn't pooled
+     */
+    String get(int column, char[] chars, int len)
+    {
+        if (!pooled(column))
+            return new String(chars, 0, len);
+        int h = 0;
+        for (int i = 0; i < len; i++)
+            h = 31 * h + chars[i];
+        String[] table = tables[column];
+        int mask = table.length - 1;
+        for (int i = spread(h) & mask;; i = (i + 1) & mask) {
+            String s = table[i];
+            if (s == null)
+                return add(column, i, new String(chars, 0, len));
+            if (s.length() == len && s.hashCode() == h && sameChars(s, chars, len))
+                return s;
+        }
+    }
+
+
+
+    /**
+     * @return the pooled String with the text of the ASCII bytes[0, len), or
+     *         a new String if the column isn't pooled
+     */
+    String getAscii(int column, byte[] bytes, int len)
+    {
+        if (!pooled(column))
+            return new String(bytes, 0, len, LATIN1);
+        int h = 0;
+        for (int i = 0; i < len; i++)
+            h = 31 * h + bytes[i];
+        String[] table = tables[column];
+        int mask = table.length - 1;
+        for (int i = spread(h) & mask;; i = (i + 1) & mask) {
+            String s = table[i];
+            if (s == null)
+                return add(column, i, new String(bytes, 0, len, LATIN1));
+            if (s.length() == len && s.hashCode() == h && sameBytes(s, bytes, len))
+                return s;
+        }
+    }
+
+
+
+    /**
+     * @return the pooled String equal to str, or str itself if the column
+     *         isn't pooled or the text is new
+     */
+    String get(int column, String str)
+    {
+        if (!pooled(column))
+            return str;
+        String[] table = tables[column];
+        int mask = table.length - 1;
+        for (int i = spread(str.hashCode()) & mask;; i = (i + 1) & mask) {
+            String s = table[i];
+            if (s == null)
+                return add(column, i, str);
+            if (s.equals(str))
+                return s;
+        }
+    }
+
+
+
+    private boolean pooled(int column)
+    {
+        if (column >= tables.length) {
+            int n = Math.max(column + 1, tables.length * 2);
+            tables = Arrays.copyOf(tables, n);
+            sizes = Arrays.copyOf(sizes, n);
+            dropped = Arrays.copyOf(dropped, n);
+        }
+        if (dropped[column])
+            return false;
+        if (tables[column] == null)
+            tables[column] = new String[16];
+        return true;
+    }
+
+
+
+    private String add(int column, int slot, String s)
+    {
+        if (++sizes[column] > threshold) {
+            dropped[column] = true;
+            tables[column] = null;
+            return s;
+        }
+        String[] table = tables[column];
+        table[slot] = s;
+        if (sizes[column] * 2 > table.length)
+            tables[column] = grow(table);
+        return s;
+    }
+
+
+
+    private static String[] grow(String[] table)
+    {
+        String[] grown = new String[table.length * 2];
+        int mask = grown.length - 1;
+        for (String s : table) {
+            if (s == null)
+                continue;
+            int i = spread(s.hashCode()) & mask;
+            while (grown[i] != null)
+                i = (i + 1) & mask;
+            grown[i] = s;
+        }
+        return grown;
+    }
+
+
+
+    private static int spread(int h)
+    {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+
+
+    private static boolean sameChars(String s, char[] chars, int len)
+    {
+        for (int i = 0; i < len; i++)
+            if (s.charAt(i) != chars[i])
+                return false;
+        return true;
+    }
+
+
+
+    private static boolean sameBytes(String s, byte[] bytes, int len)
+    {
+        for (int i = 0; i < len; i++)
+            if (s.charAt(i) != bytes[i])
+                return false;
+        return true;
+    }
+}
@@ -0,0 +1,191 @@
+/*
+Copyright (c) 2012, Sonoma Technology, Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without 
+modification, are permitted provided that the following conditions 
+are met:
+
+    * Redistributions of source code must retain the above copyright 
+      notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above copyright 
+      notice, this list of conditions and the following disclaimer in 
+      the documentation and/or other materials provided with the 
+      distribution.
+
+    * Neither the name of Sonoma Technology, Inc. nor the names of 
+      its contributors may be used to endorse or promote products 
+      derived from this software without specific prior written 
+      permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS 
+FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE 
+COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR 
+BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF 
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF 
+THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF 
+SUCH DAMAGE. 
+*/
+
+
+
+package com.sonomatech.csvdict;
+
+
+
+/**
+ * The storage behind a CSVDict. Rows are numbered from zero in file order,
+ * and cells are addressed by row number and zero-based column position.
+ */
+abstract class Table
+{
+    /**
+     * @return the number of rows
+     */
+    abstract int size();
+
+    /**
+     * @param key the value of the key field
+     * @return the number of the row with that key, or -1 if there is none
+     */
+    abstract int find(String key);
+
+    /**
+     * @return the cell as it appeared in the CSV file
+     */
+    abstract String getString(int row, int pos);
+
+    /**
+     * @return the cell as a float, or NaN if it is empty or not a number
+     */
+    float getFloat(int row, int pos)
+    {
+        return toFloat(getString(row, pos));
+    }
+
+    /**
+     * @return the cell as an int, or Integer.MAX_VALUE if it is empty or not
+     *         an int
+     */
+    int getInteger(int row, int pos)
+    {
+        return toInteger(getString(row, pos));
+    }
+
+    /**
+     * @return the cell as a double, or NaN if it is empty or not a number
+     */
+    double getDouble(int row, int pos)
+    {
+        return toDouble(getString(row, pos));
+    }
+
+    /**
+     * @return roughly how many bytes the table holds, including memory
+     *         outside the heap
+     */
+    abstract long estimateBytes();
+
+    /**
+     * @return whether the cell holds a number
+     */
+    boolean isNumeric(int row, int pos)
+    {
+        return isNumber(getString(row, pos));
+    }
+
+
+
+    // the size of an array, with its header and padding
+    static long arrayBytes(int length, int width)
+    {
+        return (16 + (long)length * width + 7) & ~7L;
+    }
+
+
+
+    // the size of a String holding Latin-1 text, as most cells do
+    static long stringBytes(String str)
+    {
+        return str == null ? 0 : 24 + arrayBytes(str.length(), 1);
+    }
+
+
+
+    static float toFloat(String str)
+    {
+        if (!mayBeNumber(str))
+            return Float.NaN;
+        try {
+            return Float.parseFloat(str);
+        } catch (NumberFormatException e) {
+            return Float.NaN;
+        }
+    }
+
+
+
+    static double toDouble(String str)
+    {
+        if (!mayBeNumber(str))
+            return Double.NaN;
+        try {
+            return Double.parseDouble(str);
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+
+
+    /**
+     * @return whether the text parses as a double, which includes "NaN"
+     */
+    static boolean isNumber(String str)
+    {
+        if (!mayBeNumber(str))
+            return false;
+        try {
+            Double.parseDouble(str);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+
+
+    static int toInteger(String str)
+    {
+        if (!mayBeNumber(str))
+            return Integer.MAX_VALUE;
+        try {
+            return Integer.parseInt(str);
+        } catch (NumberFormatException e) {
+            return Integer.MAX_VALUE;
+        }
+    }
+
+
+
+    // false for empty cells and for text that can't parse as a number, so
+    // that the parsers aren't asked to throw for every name in a column
+    static boolean mayBeNumber(String str)
+    {
+        if (str == null)
+            return false;
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            if (c >= '0' && c <= '9')
+                return true;
+        }
+        return str.contains("NaN") || str.contains("Infinity");
+    }
+}
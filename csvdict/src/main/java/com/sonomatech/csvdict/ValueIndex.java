@@ -0,0 +1,124 @@
+/*
+Copyright (c) 2012, Sonoma Technology, Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without 
+modification, are permitted provided that the following conditions 
+are met:
+
+    * Redistributions of source code must retain the above copyright 
+      notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above copyright 
+      notice, this list of conditions and the following disclaimer in 
+      the documentation and/or other materials provided with the 
+      distribution.
+
+    * Neither the name of Sonoma Technology, Inc. nor the names of 
+      its contributors may be used to endorse or promote products 
+      derived from this software without specific prior written 
+      permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS 
+FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE 
+COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR 
+BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF 
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF 
+THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF 
+SUCH DAMAGE. 
+*/
+
+
+
+package com.sonomatech.csvdict;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+
+
+/**
+ * A hash index on one column: maps every value in the column to the rows
+ * that hold it, in ascending order. Empty cells read as "" and are indexed
+ * like any other value. The index is built once and never changes, so it
+ * may be read from any thread.
+ */
+final class ValueIndex
+{
+    private static final int[] NO_ROWS = new int[0];
+
+    private final HashMap<String, int[]> rows;
+
+
+
+    ValueIndex(Table table, int pos)
+    {
+        rows = groupRows(table, pos, Integer.MAX_VALUE);
+    }
+
+
+
+    /**
+     * Groups the rows of a column by value.
+     *
+     * @param maxValues the most distinct values the column may have
+     * @return the rows holding each value, in ascending order, or null if
+     *         the column has more than maxValues distinct values
+     */
+    static HashMap<String, int[]> groupRows(Table table, int pos, int maxValues)
+    {
+        // number the distinct values, then count and place the rows of each
+        // so every list is allocated at its final size
+        int n = table.size();
+        HashMap<String, Integer> groups = new HashMap<String, Integer>();
+        int[] groupOfRow = new int[n];
+        int[] counts = new int[16];
+        for (int row = 0; row < n; row++) {
+            String value = table.getString(row, pos);
+            Integer group = groups.get(value);
+            if (group == null) {
+                if (groups.size() == maxValues)
+                    return null;
+                group = groups.size();
+                groups.put(value, group);
+                if (group == counts.length)
+                    counts = Arrays.copyOf(counts, group * 2);
+            }
+            groupOfRow[row] = group;
+            counts[group]++;
+        }
+
+        int[][] lists = new int[groups.size()][];
+        for (int group = 0; group < lists.length; group++)
+            lists[group] = new int[counts[group]];
+        int[] filled = new int[lists.length];
+        for (int row = 0; row < n; row++) {
+            int group = groupOfRow[row];
+            lists[group][filled[group]++] = row;
+        }
+
+        HashMap<String, int[]> rows = new HashMap<String, int[]>(groups.size() * 4 / 3 + 1);
+        for (Map.Entry<String, Integer> entry : groups.entrySet())
+            rows.put(entry.getKey(), lists[entry.getValue()]);
+        return rows;
+    }
+
+
+
+    /**
+     * @return the rows holding the value, in ascending order. The array is
+     *         shared and must not be changed.
+     */
+    int[] rows(String value)
+    {
+        int[] found = rows.get(value);
+        return found == null ? NO_ROWS : found;
+    }
+}
@@ -39,7 +39,28 @@ package com.sonomatech.csvdict;
 
 import com.sonomatech.csvdict.CSVDict;
 import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import junit.framework.TestCase;
 
 public class CSVDictTest extends TestCase {
@@ -63,6 +84,9 @@ public class CSVDictTest extends TestCase {
         System.out.println("\n ***** CSVDictTest Test*****");
         System.out.println("CSVDict constructor 1");
         assertEquals(1789, speciesDict1.getRowCount());
+        // the rows are only held by the table
+        assertNull(speciesDict1.dict);
+        assertTrue(speciesDict1.table instanceof RowTable);
     }
 
 
@@ -109,4 +133,737 @@ public class CSVDictTest extends TestCase {
         assertTrue(filtered.length == 1);
         assertTrue(filtered[0].equals("28748"));
     }
+    
+    public void testQuotedFields() throws Exception {
+        String csv = "id,name,note\n"
+                   + "1,\"Smith, John\",\"said \"\"hi\"\"\"\n"
+                   + "# a comment line\n"
+                   + "\n"
+                   + "2,\"two\nlines\",\n";
+        CSVDict dict = new CSVDict(new BufferedReader(new StringReader(csv)), ',', 0);
+        assertEquals(2, dict.getRowCount());
+        assertEquals("Smith, John", dict.getString("1", 1));
+        assertEquals("said \"hi\"", dict.getString("1", 2));
+        assertEquals("two\nlines", dict.getString("2", 1));
+        //trailing empty fields are kept
+        assertEquals("", dict.getString("2", 2));
+    }
+    
+    public void testMappedFile() throws Exception {
+        System.out.println("CSVDict constructor 3");
+        String path = new File(CSVDictTest.class.getClassLoader().getResource("species.csv").toURI()).getPath();
+        CSVDict mapped = new CSVDict(path, ',', 3);
+        assertEquals(1789, mapped.getRowCount());
+        assertEquals("0.5", mapped.getString("Platanus racemosa", 4));
+
+        //UTF-8 with a byte order mark
+        File tmp = File.createTempFile("csvdict", ".csv");
+        tmp.deleteOnExit();
+        Writer w = new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8");
+        w.write("\uFEFFname,value\r\n\"Tr\u00e4d, gr\u00f6n\",1.5\r\nplain,2\r\n");
+        w.close();
+        CSVDict utf8 = new CSVDict(tmp.getPath(), ',', 0);
+        assertEquals("name", utf8.getFieldNames()[0]);
+        assertEquals(1.5F, utf8.getFloat("Tr\u00e4d, gr\u00f6n", 1), 0.0F);
+        assertEquals("2", utf8.getString("plain", 1));
+        CSVDict read = new CSVDict(new BufferedReader(new InputStreamReader(new FileInputStream(tmp), "UTF-8")), ',', 0);
+        assertEquals("name", read.getFieldNames()[0]);
+        assertEquals("2", read.getString("plain", 1));
+    }
+    
+    public void testParallelLoad() throws Exception {
+        System.out.println("parallel load");
+        //quoted line breaks and comments make some chunk cuts land inside records
+        File tmp = File.createTempFile("csvdict", ".csv");
+        tmp.deleteOnExit();
+        Writer w = new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8");
+        w.write("id,text,value\r\n");
+        for (int i = 0; i < 20000; i++) {
+            if (i % 7 == 0)
+                w.write(i + ",\"line one\nline, \"\"two\"\"\n\",\"" + i + "\"\r\n");
+            else if (i % 11 == 0)
+                w.write("# comment \" " + i + "\n" + i + ",plain," + i + "\n");
+            else
+                w.write(i + ",plain," + i + "\n");
+        }
+        w.close();
+        CSVDict sequential = new CSVDict(tmp.getPath(), ',', 0);
+        CSVDict parallel = new CSVDict(tmp.getPath(), ',', 0,
+                new LoadOptions().setParallel(new ForkJoinPool(4)).setMinChunkSize(1024));
+        assertEquals(20000, sequential.getRowCount());
+        assertEquals(20000, parallel.getRowCount());
+        assertTrue(Arrays.equals(sequential.getColumn(0), parallel.getColumn(0)));
+        assertTrue(Arrays.equals(sequential.getColumn(1), parallel.getColumn(1)));
+        assertEquals("line one\nline, \"two\"\n", parallel.getString("700", 1));
+        assertEquals(700, (int)parallel.getInteger("700", 2));
+    }
+    
+    public void testColumnarStorage() throws Exception {
+        System.out.println("columnar storage");
+        CSVDict columnar = new CSVDict("species.csv", ',', 3, CSVDictTest.class.getClassLoader(),
+                new LoadOptions().setStorage(LoadOptions.Storage.COLUMNAR));
+        assertEquals(1789, columnar.getRowCount());
+        String[] keys = speciesDict2.getColumn(3);
+        assertTrue(Arrays.equals(keys, columnar.getColumn(3)));
+        //every cell must read back the same as from row storage
+        for (String key : keys) {
+            for (int pos = 0; pos < speciesDict2.getFieldNames().length; pos++) {
+                assertEquals(speciesDict2.getString(key, pos), columnar.getString(key, pos));
+                assertEquals(speciesDict2.getFloat(key, pos), columnar.getFloat(key, pos));
+                assertEquals(speciesDict2.getInteger(key, pos), columnar.getInteger(key, pos));
+            }
+        }
+        String[] filtered = columnar.getFilteredColumn("TSN", "TSN", "28748");
+        assertTrue(filtered.length == 1);
+    }
+    
+    public void testColumnarOddCells() throws Exception {
+        String csv = "id,f,i,big\n"
+                   + "a,26.6,1,5000000000\n"
+                   + "b,25,007,\n"
+                   + "c,,-3,-1\n"
+                   + "d,0.50,4,7\n"
+                   + "e,1.5,5,8\n"
+                   + "f,2.5,6,9\n"
+                   + "g,3.5,7,10\n"
+                   + "h,4.5,8,11\n"
+                   + "i,5.5,9,12\n";
+        CSVDict rows = new CSVDict(new BufferedReader(new StringReader(csv)), ',', 0);
+        CSVDict columnar = new CSVDict(new BufferedReader(new StringReader(csv)), ',', 0,
+                new LoadOptions().setStorage(LoadOptions.Storage.COLUMNAR));
+        for (String key : rows.getColumn(0)) {
+            for (int pos = 0; pos < 4; pos++) {
+                assertEquals(rows.getString(key, pos), columnar.getString(key, pos));
+                assertEquals(rows.getFloat(key, pos), columnar.getFloat(key, pos));
+                assertEquals(rows.getInteger(key, pos), columnar.getInteger(key, pos));
+            }
+        }
+    }
+    
+    public void testPrimitiveValues() throws Exception {
+        System.out.println("primitive values");
+        String csv = "id,f,s\n"
+                   + "a,26.6,x\n"
+                   + "b,25,NaN\n"
+                   + "c,,0.1\n"
+                   + "d,xNaNy,1\n";
+        for (LoadOptions.Storage storage : LoadOptions.Storage.values()) {
+            CSVDict dict = new CSVDict(new BufferedReader(new StringReader(csv)), ',', 0,
+                    new LoadOptions().setStorage(storage));
+            assertEquals(26.6F, dict.getFloatValue("a", 1), 0.0F);
+            assertEquals(26.6, dict.getDoubleValue("a", 1), 0.0);
+            assertEquals(25, dict.getIntValue("b", 1));
+            assertEquals(Integer.MAX_VALUE, dict.getIntValue("a", 1));
+            assertTrue(Float.isNaN(dict.getFloatValue("c", 1)));
+            assertEquals(0.1, dict.getDoubleValue("c", 2), 0.0);
+            assertTrue(Double.isNaN(dict.getDoubleValue("a", 2)));
+            assertFalse(dict.isNumeric("a", 2));
+            assertFalse(dict.isNumeric("c", 1));
+            assertTrue(dict.isNumeric("b", 2));
+            assertTrue(dict.isNumeric("b", 1));
+            // text that only contains NaN isn't a number
+            assertFalse(dict.isNumeric("d", 1));
+            assertTrue(Float.isNaN(dict.getFloatValue("d", 1)));
+        }
+        for (String key : speciesDict2.getColumn(3)) {
+            assertEquals(0, Float.compare(speciesDict2.getFloat(key, 7), speciesDict2.getFloatValue(key, 7)));
+            assertEquals((int)speciesDict2.getInteger(key, 0), speciesDict2.getIntValue(key, 0));
+        }
+    }
+    
+    public void testFilterIndex() throws Exception {
+        System.out.println("filter index");
+        CSVDict indexed = new CSVDict("species.csv", ',', 3, CSVDictTest.class.getClassLoader(),
+                new LoadOptions().setStorage(LoadOptions.Storage.COLUMNAR));
+        assertFalse(indexed.hasIndex("FlammID"));
+        String[] scanned = indexed.getFilteredColumn("ScientificName", "FlammID", "2");
+        indexed.createIndex("FlammID");
+        assertTrue(indexed.hasIndex("FlammID"));
+        assertTrue(Arrays.equals(scanned, indexed.getFilteredColumn("ScientificName", "FlammID", "2")));
+        assertTrue(Arrays.equals(speciesDict2.getFilteredColumn("ScientificName", "FlammID", "2"), scanned));
+        assertEquals(0, indexed.getFilteredColumn("ScientificName", "FlammID", "no such value").length);
+        
+        CSVDict auto = new CSVDict("species.csv", ',', 3, CSVDictTest.class.getClassLoader(),
+                new LoadOptions().setAutoIndex(true));
+        assertTrue(Arrays.equals(scanned, auto.getFilteredColumn("ScientificName", "FlammID", "2")));
+        assertTrue(auto.hasIndex("FlammID"));
+        try {
+            auto.createIndex("no such field");
+            fail("there is no such field");
+        } catch (CSVDict.CSVDictException e) {
+        }
+    }
+    
+    public void testRangeQuery() throws Exception {
+        System.out.println("range query");
+        int pdWood = speciesDict2.getColPos("PDWood");
+        int[] scanned = speciesDict2.getRowIds("PDWood", 20, 30);
+        assertTrue(scanned.length > 0);
+        double last = Double.NEGATIVE_INFINITY;
+        for (int row : scanned) {
+            double v = speciesDict2.getDoubleValueAt(row, pdWood);
+            assertTrue(v >= 20 && v <= 30 && v >= last);
+            last = v;
+        }
+        
+        CSVDict indexed = new CSVDict("species.csv", ',', 3, CSVDictTest.class.getClassLoader(),
+                new LoadOptions().setStorage(LoadOptions.Storage.COLUMNAR));
+        indexed.createRangeIndex("PDWood");
+        assertTrue(indexed.hasRangeIndex("PDWood"));
+        assertTrue(Arrays.equals(scanned, indexed.getRowIds("PDWood", 20, 30)));
+        assertTrue(Arrays.equals(speciesDict2.getRangeFilteredColumn("ScientificName", "PDWood", 20, 30),
+                indexed.getRangeFilteredColumn("ScientificName", "PDWood", 20, 30)));
+        
+        //exclusive bounds
+        int treeBD = indexed.getColPos("TreeBD");
+        int[] over = indexed.getRowIds(treeBD, 0.05, false, Double.POSITIVE_INFINITY, true);
+        assertTrue(Arrays.equals(speciesDict2.getRowIds(treeBD, 0.05, false, Double.POSITIVE_INFINITY, true), over));
+        int count = 0;
+        for (String key : speciesDict2.getColumn(3))
+            if (speciesDict2.getDoubleValue(key, treeBD) > 0.05)
+                count++;
+        assertEquals(count, over.length);
+        assertEquals(0, indexed.getRowIds("PDWood", 30, 20).length);
+    }
+    
+    public void testSnapshot() throws Exception {
+        System.out.println("snapshot");
+        File csv = File.createTempFile("csvdict", ".csv");
+        csv.deleteOnExit();
+        File snap = new File(csv.getPath() + ".snapshot");
+        snap.deleteOnExit();
+        Writer w = new OutputStreamWriter(new FileOutputStream(csv), "UTF-8");
+        w.write("id,f,i,big,s,plain\n");
+        for (int i = 0; i < 500; i++)
+            w.write("k" + i + "," + (i % 7 == 0 ? "" : i + ".5") + "," + (i == 3 ? "NA" : i) + ","
+                    + (5000000000L + i) + ",s" + (i % 3) + ",\u00e9" + i + "\n");
+        w.close();
+        LoadOptions options = new LoadOptions().setSnapshotPath(snap.getPath());
+        CSVDict parsed = new CSVDict(csv.getPath(), ',', 0, options);
+        assertTrue(snap.isFile());
+        long written = snap.lastModified();
+        CSVDict restored = new CSVDict(csv.getPath(), ',', 0, options);
+        CSVDict columnar = new CSVDict(csv.getPath(), ',', 0,
+                new LoadOptions().setSnapshotPath(snap.getPath()).setStorage(LoadOptions.Storage.COLUMNAR));
+        assertEquals(written, snap.lastModified());
+        assertTrue(Arrays.equals(parsed.getFieldNames(), restored.getFieldNames()));
+        for (String key : parsed.getColumn(0)) {
+            for (int pos = 0; pos < 6; pos++) {
+                assertEquals(parsed.getString(key, pos), restored.getString(key, pos));
+                assertEquals(parsed.getString(key, pos), columnar.getString(key, pos));
+                assertEquals(parsed.getInteger(key, pos), columnar.getInteger(key, pos));
+            }
+        }
+        
+        //a changed file makes the snapshot stale
+        w = new OutputStreamWriter(new FileOutputStream(csv, true), "UTF-8");
+        w.write("extra,1,2,3,4,5\n");
+        w.close();
+        CSVDict changed = new CSVDict(csv.getPath(), ',', 0, options);
+        assertEquals(501, changed.getRowCount());
+        assertEquals(501, new CSVDict(csv.getPath(), ',', 0, options).getRowCount());
+
+        //lazy storage doesn't mix with a snapshot
+        try {
+            new CSVDict(csv.getPath(), ',', 0,
+                    new LoadOptions().setSnapshotPath(snap.getPath()).setStorage(LoadOptions.Storage.LAZY));
+            fail("a snapshot would load every row");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+    
+    public void testOffHeapStorage() throws Exception {
+        System.out.println("off-heap storage");
+        CSVDict offHeap = new CSVDict("species.csv", ',', 3, CSVDictTest.class.getClassLoader(),
+                new LoadOptions().setStorage(LoadOptions.Storage.OFF_HEAP));
+        assertNull(offHeap.dict);
+        // a small table takes little direct memory
+        assertTrue(offHeap.table.estimateBytes() < 2 << 20);
+        String[] keys = speciesDict2.getColumn(3);
+        assertTrue(Arrays.equals(keys, offHeap.getColumn(3)));
+        for (String key : keys) {
+            for (int pos = 0; pos < speciesDict2.getFieldNames().length; pos++) {
+                assertEquals(speciesDict2.getString(key, pos), offHeap.getString(key, pos));
+                assertEquals(speciesDict2.getInteger(key, pos), offHeap.getInteger(key, pos));
+            }
+        }
+        
+        //a repeated key replaces the row but keeps its place
+        String csv = "id,v\na,1\nb,\u00e92\na,3\nc,4\n";
+        CSVDict rows = new CSVDict(new BufferedReader(new StringReader(csv)), ',', 0);
+        offHeap = new CSVDict(new BufferedReader(new StringReader(csv)), ',', 0,
+                new LoadOptions().setStorage(LoadOptions.Storage.OFF_HEAP));
+        assertEquals(3, offHeap.getRowCount());
+        assertTrue(Arrays.equals(rows.getColumn(1), offHeap.getColumn(1)));
+        assertEquals("\u00e92", offHeap.getString("b", 1));
+        try {
+            offHeap.getString("d", 1);
+            fail("there is no row d");
+        } catch (CSVDict.CSVDictException e) {
+        }
+    }
+    
+    public void testStringDedup() throws Exception {
+        System.out.println("string dedup");
+        StringBuilder csv = new StringBuilder("id,flag,name\n");
+        for (int i = 0; i < 100; i++)
+            csv.append(i).append(',').append(i % 2 == 0 ? "yes" : "no").append(",n").append(i).append('\n');
+        CSVDict pooled = new CSVDict(new BufferedReader(new StringReader(csv.toString())), ',', 0,
+                new LoadOptions().setDedupThreshold(10));
+        assertSame(pooled.getString("0", 1), pooled.getString("2", 1));
+        assertNotSame(pooled.getString("0", 1), pooled.getString("1", 1));
+        assertEquals("n5", pooled.getString("5", 2));
+        CSVDict unpooled = new CSVDict(new BufferedReader(new StringReader(csv.toString())), ',', 0,
+                new LoadOptions().setDedupThreshold(0));
+        assertNotSame(unpooled.getString("0", 1), unpooled.getString("2", 1));
+        assertTrue(Arrays.equals(unpooled.getColumn(1), pooled.getColumn(1)));
+        assertTrue(Arrays.equals(unpooled.getColumn(2), pooled.getColumn(2)));
+        
+        //memory-mapped files pool bytes, parallel chunks share pools
+        File tmp = File.createTempFile("csvdict", ".csv");
+        tmp.deleteOnExit();
+        Writer w = new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8");
+        w.write(csv.toString().replace("no", "n\u00f6"));
+        w.close();
+        CSVDict mapped = new CSVDict(tmp.getPath(), ',', 0,
+                new LoadOptions().setParallel(new ForkJoinPool(2)).setMinChunkSize(64));
+        assertSame(mapped.getString("0", 1), mapped.getString("98", 1));
+        assertSame(mapped.getString("1", 1), mapped.getString("99", 1));
+        assertEquals("n\u00f6", mapped.getString("99", 1));
+    }
+    
+    public void testLazyStorage() throws Exception {
+        System.out.println("lazy storage");
+        File tmp = File.createTempFile("csvdict", ".csv");
+        tmp.deleteOnExit();
+        Writer w = new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8");
+        w.write("\uFEFFid,text,n\n");
+        for (int i = 0; i < 1000; i++) {
+            if (i % 100 == 0)
+                w.write("# comment\n" + i + ",\"quoted,\n" + i + "\"," + i + "\r\n");
+            else
+                w.write(i + ",t" + i + "," + i + "\n");
+        }
+        w.write("5,again,55\n");
+        w.close();
+        CSVDict rows = new CSVDict(tmp.getPath(), ',', 0);
+        CSVDict lazy = new CSVDict(tmp.getPath(), ',', 0,
+                new LoadOptions().setStorage(LoadOptions.Storage.LAZY).setRowCacheSize(10));
+        assertNull(lazy.dict);
+        assertEquals(1000, lazy.getRowCount());
+        assertEquals("again", lazy.getString("5", 1));
+        assertEquals("quoted,\n300", lazy.getString("300", 1));
+        assertEquals(999, (int)lazy.getInteger("999", 2));
+        for (int pos = 0; pos < 3; pos++)
+            assertTrue(Arrays.equals(rows.getColumn(pos), lazy.getColumn(pos)));
+        try {
+            lazy.getString("1000", 1);
+            fail("there is no row 1000");
+        } catch (CSVDict.CSVDictException e) {
+        }
+    }
+    
+    public void testRowStreams() throws Exception {
+        System.out.println("row streams");
+        final int pdWood = speciesDict2.getColPos("PDWood");
+        final double[] sum = new double[1];
+        speciesDict2.forEachRow(row -> {
+            if (row.getFloatValue(pdWood) == row.getFloatValue(pdWood))
+                sum[0] += row.getFloatValue(pdWood);
+        });
+        double streamed = speciesDict2.stream().mapToDouble(row -> row.getFloatValue(pdWood))
+                .filter(v -> !Double.isNaN(v)).sum();
+        double parallel = speciesDict2.stream().parallel().mapToDouble(row -> row.getFloatValue(pdWood))
+                .filter(v -> !Double.isNaN(v)).sum();
+        assertEquals(sum[0], streamed, 1e-6);
+        assertEquals(sum[0], parallel, 1e-6);
+        assertEquals(speciesDict2.getRowCount(), speciesDict2.stream().parallel().count());
+        
+        String[] names = speciesDict2.getColumn("ScientificName");
+        int i = 0;
+        for (Row row : speciesDict2.rows()) {
+            assertEquals(i, row.getRowId());
+            assertEquals(names[i++], row.getString("ScientificName"));
+        }
+        assertEquals(names.length, i);
+        
+        //scanning keeps every record, even ones with the same key
+        String csv = "id,v\na,1\nb,2\na,3\n";
+        final List<String> values = new ArrayList<String>();
+        CSVDict.scan(new BufferedReader(new StringReader(csv)), ',', row -> values.add(row.getString("v")));
+        assertEquals(Arrays.asList("1", "2", "3"), values);
+    }
+    
+    public void testShared() throws Exception {
+        System.out.println("shared");
+        final ClassLoader cl = CSVDictTest.class.getClassLoader();
+        final CSVDict[] got = new CSVDict[8];
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[got.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int n = i;
+            threads[i] = new Thread(() -> {
+                try {
+                    start.await();
+                    got[n] = CSVDict.shared("species.csv", ',', 0, cl);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            });
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads)
+            thread.join();
+        for (CSVDict dict : got)
+            assertSame(got[0], dict);
+        assertSame(got[0], CSVDict.shared("species.csv", ',', 0, cl));
+        assertNotSame(got[0], CSVDict.shared("species.csv", ',', 3, cl));
+        assertEquals("Platanus racemosa", got[0].getString("19022", 3));
+
+        // a failed load isn't kept
+        int size = SharedDicts.size();
+        for (int i = 0; i < 2; i++) {
+            try {
+                CSVDict.shared("no such file.csv", ',', 0, cl);
+                fail("there is no such resource");
+            } catch (CSVDict.CSVDictException e) {
+            }
+        }
+        assertEquals(size, SharedDicts.size());
+
+        // dictionaries don't keep their class loader alive, and go with it
+        ClassLoader throwaway = new URLClassLoader(new URL[0], cl);
+        assertEquals(1789, CSVDict.shared("species.csv", ',', 3, throwaway).getRowCount());
+        assertEquals(size + 1, SharedDicts.size());
+        WeakReference<ClassLoader> unloaded = new WeakReference<ClassLoader>(throwaway);
+        throwaway = null;
+        for (int i = 0; i < 100 && (unloaded.get() != null || SharedDicts.size() > size); i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(unloaded.get());
+        assertEquals(size, SharedDicts.size());
+    }
+    
+    public void testMetrics() throws Exception {
+        System.out.println("metrics");
+        assertNull(speciesDict2.getMetrics());
+        final List<String> events = new ArrayList<String>();
+        CSVDictListener listener = new CSVDictListener() {
+            @Override
+            public void loaded(CSVDict dict, long nanos, long bytes, int rows) {
+                events.add("loaded " + rows);
+            }
+            @Override
+            public void missed(CSVDict dict, String accessor, Object key) {
+                events.add(accessor + " missed " + key);
+            }
+            @Override
+            public void parseFailed(CSVDict dict, String accessor, Object key, int pos, String cell) {
+                events.add(accessor + " can't parse " + cell);
+            }
+        };
+        IntKeyCSVDict dict = new IntKeyCSVDict("species.csv", ',', 0, CSVDictTest.class.getClassLoader(),
+                                               new LoadOptions().setListener(listener));
+        CSVDictMetrics metrics = dict.getMetrics();
+        assertEquals(dict.getRowCount(), metrics.getRowsParsed());
+        assertTrue(metrics.getBytesParsed() > 0);
+        assertTrue(metrics.getRowsPerSecond() > 0);
+        assertTrue(metrics.getRetainedBytes() > metrics.getBytesParsed());
+
+        dict.getString(19022, 3);
+        dict.getString("19022", 3);
+        dict.getFloatValue(19022, 7);
+        // an empty cell isn't a parse failure, a name is
+        assertTrue(Float.isNaN(dict.getFloatValue(19022, 12)));
+        assertTrue(Float.isNaN(dict.getFloatValue(19022, 3)));
+        try {
+            dict.getIntValue(-1, 2);
+            fail("no row has key -1");
+        } catch (CSVDict.CSVDictException e) {
+        }
+        assertEquals(6, metrics.getLookups());
+        assertEquals(2L, (long)metrics.getLookupsByAccessor().get("getString"));
+        assertEquals(3L, (long)metrics.getLookupsByAccessor().get("getFloatValue"));
+        assertEquals(1, metrics.getMisses());
+        assertEquals(1L, (long)metrics.getMissesByAccessor().get("getIntValue"));
+        assertEquals(1, metrics.getParseFailures());
+        assertEquals(Arrays.asList("loaded " + dict.getRowCount(), "getFloatValue can't parse Platanus racemosa",
+                                   "getIntValue missed -1"), events);
+
+        ObjectName name = metrics.registerMBean();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        assertEquals(6L, server.getAttribute(name, "Lookups"));
+        assertEquals("species.csv", server.getAttribute(name, "Source"));
+        metrics.unregisterMBean();
+        assertFalse(server.isRegistered(name));
+    }
+    
+    public void testCompositeKeys() throws Exception {
+        System.out.println("composite keys");
+        String csv = "species,region,cover,name\n"
+                   + "Abies alba,7,0.5,fir\n"
+                   + "Abies alba,8,0.25,fir\n"
+                   + "Pinus nigra,7,0.75,pine\n"
+                   + "Abies alba,-12,1,fir\n"
+                   + "Pinus nigra,7,0.8,pine again\n";
+        final List<Object> unparsed = new ArrayList<Object>();
+        CSVDictListener listener = new CSVDictListener() {
+            @Override
+            public void parseFailed(CSVDict dict, String accessor, Object key, int pos, String cell) {
+                unparsed.add(key);
+            }
+        };
+        for (LoadOptions.Storage storage : new LoadOptions.Storage[] {LoadOptions.Storage.ROWS,
+                                                                      LoadOptions.Storage.COLUMNAR}) {
+            CompositeKeyCSVDict dict = new CompositeKeyCSVDict(new BufferedReader(new StringReader(csv)), ',',
+                    new int[] {0, 1}, new LoadOptions().setStorage(storage).setListener(listener));
+            // the last row with the same parts replaces the first
+            assertEquals(4, dict.getRowCount());
+            assertEquals(0.25F, dict.getFloatValue("Abies alba", 8, 2), 0.0F);
+            assertEquals(0.25F, dict.getFloatValue("Abies alba", "8", 2), 0.0F);
+            assertEquals(1.0, dict.getDoubleValue("Abies alba", -12, 2), 0.0);
+            assertEquals("pine again", dict.getString("Pinus nigra", 7, 3));
+            assertEquals(2, dict.getRowId(new String[] {"Pinus nigra", "7"}));
+            assertEquals(dict.getRowId("Abies alba", 8), dict.getRowId("Abies alba", "8"));
+            // the inherited single-key getters take the parts joined by NUL
+            assertEquals("0.25", dict.getString("Abies alba\0" + "8", 2));
+            assertEquals(dict.getRowId("Abies alba", 8), dict.getRowId("Abies alba\0" + "8"));
+            // a cell that isn't a number is reported with the whole key
+            unparsed.clear();
+            assertTrue(Float.isNaN(dict.getFloatValue("Abies alba", 8, 3)));
+            assertEquals(Arrays.asList((Object)"Abies alba, 8"), unparsed);
+            try {
+                dict.getString("Abies alba", 2);
+                fail("the first part alone isn't a key");
+            } catch (CSVDict.CSVDictException e) {
+            }
+            try {
+                dict.getFloatValue("Pinus nigra", 8, 2);
+                fail("there is no such key");
+            } catch (CSVDict.CSVDictException e) {
+            }
+            try {
+                dict.getString("Abies alba", "08", 2);
+                fail("08 isn't the text of the cell");
+            } catch (CSVDict.CSVDictException e) {
+            }
+        }
+        for (int value : new int[] {0, 7, -12, 100, Integer.MAX_VALUE, Integer.MIN_VALUE}) {
+            assertEquals(Integer.toString(value).hashCode(), CompositeKeyIndex.decimalHash(value));
+            assertTrue(CompositeKeyIndex.isDecimal(Integer.toString(value), value));
+        }
+        assertFalse(CompositeKeyIndex.isDecimal("-7", 7));
+        assertFalse(CompositeKeyIndex.isDecimal("70", 7));
+        assertFalse(CompositeKeyIndex.isDecimal("", 0));
+    }
+
+    public void testAggregate() throws Exception {
+        System.out.println("aggregate");
+        ColumnStats wood = speciesDict1.aggregate("PDWood");
+        String[] cells = speciesDict1.getColumn("PDWood");
+        double sum = 0;
+        int n = 0;
+        for (String cell : cells)
+            if (!cell.isEmpty()) {
+                sum += Double.parseDouble(cell);
+                n++;
+            }
+        assertEquals(n, wood.getCount());
+        assertEquals(sum, wood.getSum(), 1e-6);
+        assertEquals(sum / n, wood.getMean(), 1e-9);
+        assertTrue(wood.getMin() <= wood.getMean() && wood.getMean() <= wood.getMax());
+
+        // mean PDWood by FlammID, computed by hand from the String columns
+        String[] flamm = speciesDict1.getColumn("FlammID");
+        Map<String, ColumnStats> byFlamm = speciesDict1.aggregate("PDWood", "FlammID", null);
+        for (Map.Entry<String, ColumnStats> group : byFlamm.entrySet()) {
+            sum = 0;
+            n = 0;
+            for (int row = 0; row < cells.length; row++)
+                if (flamm[row].equals(group.getKey()) && !cells[row].isEmpty()) {
+                    sum += Double.parseDouble(cells[row]);
+                    n++;
+                }
+            assertEquals(n, group.getValue().getCount());
+            assertEquals(sum / n, group.getValue().getMean(), 1e-9);
+        }
+        assertEquals(flamm[0], byFlamm.keySet().iterator().next());
+        assertEquals(Arrays.stream(flamm).distinct().count(), byFlamm.size());
+        assertEquals(byFlamm.size(), speciesDict1.aggregate("FlammID").getDistinctCount());
+
+        int canopy = speciesDict1.getColPos("canopy");
+        ColumnStats trees = speciesDict1.aggregate(speciesDict1.getColPos("PDWood"),
+                                                   row -> row.getIntValue(canopy) == 1);
+        assertEquals(Arrays.stream(speciesDict1.getFilteredColumn("PDWood", "canopy", "1")).filter(c -> !c.isEmpty()).count(),
+                     trees.getCount());
+        assertEquals(0, speciesDict1.aggregate(0, row -> false).getCount());
+        assertTrue(Double.isNaN(speciesDict1.aggregate(0, row -> false).getMean()));
+
+        // big enough to be split over the pool
+        StringBuilder csv = new StringBuilder("id,group,value\n");
+        for (int i = 0; i < 100000; i++)
+            csv.append(i).append(',').append(i % 3).append(',').append(i % 2 == 0 ? String.valueOf(i % 100) : "").append('\n');
+        CSVDict big = new CSVDict(new BufferedReader(new StringReader(csv.toString())), ',', 0,
+                                  new LoadOptions().setStorage(LoadOptions.Storage.COLUMNAR));
+        Map<String, ColumnStats> groups = big.aggregate("value", "group", row -> row.getRowId() < 60000);
+        assertEquals(Arrays.asList("0", "1", "2"), new ArrayList<String>(groups.keySet()));
+        // distinct values are counted when first asked for, whatever the caller did with the map
+        List<ColumnStats> kept = new ArrayList<ColumnStats>(groups.values());
+        groups.clear();
+        for (ColumnStats stats : kept) {
+            assertEquals(10000, stats.getCount());
+            assertEquals(0.0, stats.getMin());
+            assertEquals(98.0, stats.getMax());
+            assertEquals(50, stats.getDistinctCount());
+        }
+        assertEquals(49.0, big.aggregate("value").getMean(), 1e-9);
+    }
+
+    public void testQuery() throws Exception {
+        System.out.println("query");
+        Query q = speciesDict1.query(Condition.eq("FlammID", "2"), "ScientificName");
+        assertTrue(Arrays.equals(speciesDict1.getFilteredColumn("ScientificName", "FlammID", "2"), q.getColumn()));
+        assertEquals(q.getColumn().length, q.count());
+
+        // FlammID in (2, 3) and PDWood > 25 and not shrub, checked against a scan
+        Condition where = Condition.and(Condition.in("FlammID", "2", "3"),
+                                        Condition.gt("PDWood", 25),
+                                        Condition.not(Condition.eq("shrub", 1)));
+        q = speciesDict1.query(where, "ScientificName", "PDWood");
+        List<String> names = new ArrayList<String>();
+        List<String> wood = new ArrayList<String>();
+        for (Row row : speciesDict1.rows()) {
+            String flamm = row.getString("FlammID");
+            if ((flamm.equals("2") || flamm.equals("3")) && row.getDoubleValue(7) > 25
+                && row.getIntValue(17) != 1) {
+                names.add(row.getString(3));
+                wood.add(row.getString(7));
+            }
+        }
+        assertTrue(names.size() > 0);
+        String[][] columns = q.getColumns();
+        assertEquals(names, Arrays.asList(columns[0]));
+        assertEquals(wood, Arrays.asList(columns[1]));
+        assertEquals(names.size(), q.count());
+        for (int row : q.getRowIds())
+            assertTrue(q.matches(row));
+
+        Condition noWood = Condition.isEmpty("PDWood");
+        int empty = speciesDict1.query(noWood).count();
+        assertEquals(speciesDict1.getRowCount(), empty + speciesDict1.query(Condition.not(noWood)).count());
+        assertEquals(speciesDict1.getRowIds("PDWood", 20, 30).length,
+                     speciesDict1.query(Condition.or(Condition.between("PDWood", 20, 25),
+                                                     Condition.and(Condition.gt("PDWood", 25),
+                                                                   Condition.le("PDWood", 30)))).count());
+        assertEquals(0, speciesDict1.query(Condition.or()).count());
+        assertEquals(speciesDict1.getRowCount(), speciesDict1.query(null).count());
+        try {
+            speciesDict1.query(Condition.lt("nosuchfield", 1));
+            fail("there is no such field");
+        } catch (CSVDict.CSVDictException e) {
+        }
+    }
+
+    public void testBitmapIndexes() throws Exception {
+        System.out.println("bitmap indexes");
+        CSVDict indexed = new CSVDict("species.csv", ',', 3, CSVDictTest.class.getClassLoader());
+        List<String> fields = Arrays.asList(indexed.createBitmapIndexes());
+        assertTrue(fields.containsAll(Arrays.asList("FormID", "FlammID", "canopy", "shrub", "nonwoody", "woody")));
+        assertFalse(fields.contains("ScientificName"));
+        assertTrue(indexed.hasBitmapIndex("canopy"));
+        assertFalse(indexed.hasBitmapIndex("ScientificName"));
+
+        Condition[] conditions = {
+            Condition.and(Condition.eq("canopy", "1"), Condition.eq("woody", "1"), Condition.in("FlammID", "2", "3")),
+            Condition.or(Condition.eq("shrub", 1), Condition.not(Condition.eq("FormID", "1"))),
+            Condition.and(Condition.eq("nonwoody", "0"), Condition.gt("PDWood", 25)),
+            Condition.and(Condition.ge("FlammID", 3), Condition.isEmpty("shrubBioEqID")),
+            Condition.not(Condition.or()),
+        };
+        for (Condition where : conditions) {
+            Query q = indexed.query(where, "ScientificName");
+            Query scan = speciesDict2.query(where, "ScientificName");
+            assertTrue(where.toString(), Arrays.equals(scan.getRowIds(), q.getRowIds()));
+            assertEquals(scan.count(), q.count());
+            assertTrue(Arrays.equals(scan.getColumn(), q.getColumn()));
+        }
+
+        // blocks of both kinds, across several 65536-row blocks
+        StringBuilder csv = new StringBuilder("id,dense,sparse,mod\n");
+        for (int i = 0; i < 200000; i++)
+            csv.append(i).append(',').append(i % 7 == 0 ? 0 : 1).append(',').append(i % 97 == 0 ? "x" : "")
+               .append(',').append(i % 5).append('\n');
+        CSVDict big = new CSVDict(new BufferedReader(new StringReader(csv.toString())), ',', 0);
+        CSVDict bigIndexed = new CSVDict(new BufferedReader(new StringReader(csv.toString())), ',', 0);
+        bigIndexed.createBitmapIndex("dense");
+        bigIndexed.createBitmapIndex("sparse");
+        bigIndexed.createBitmapIndex(3);
+        assertFalse(bigIndexed.hasBitmapIndex("id"));
+        conditions = new Condition[] {
+            Condition.and(Condition.eq("dense", "1"), Condition.eq("sparse", "x")),
+            Condition.or(Condition.eq("dense", "0"), Condition.eq("sparse", "x"), Condition.eq("mod", 4)),
+            Condition.and(Condition.eq("dense", "1"), Condition.not(Condition.isEmpty("sparse"))),
+            Condition.and(Condition.not(Condition.eq("dense", "1")), Condition.lt("mod", 2)),
+            Condition.and(Condition.eq("dense", "1"), Condition.lt("id", 70000)),
+        };
+        for (Condition where : conditions) {
+            int[] expected = big.query(where).getRowIds();
+            Query q = bigIndexed.query(where);
+            assertTrue(where.toString(), Arrays.equals(expected, q.getRowIds()));
+            assertEquals(expected.length, q.count());
+            for (int row : new int[]{0, 7, 97, 679, 65535, 65536, 199999})
+                assertEquals(Arrays.binarySearch(expected, row) >= 0, q.matches(row));
+        }
+    }
+    public void testOffHeapNumbers() throws Exception {
+        System.out.println("off-heap numbers");
+        String[] cells = {"", " ", "0", "-0", "+7", "007", "26.6", " 2.5 ", ".5", "1.", ".", "-", "1e3", "1.5E-7",
+                          "1e", "3.4028235e38", "1e-45", "123456789012345678901", "0.30000000000000004", "2147483647",
+                          "2147483648", "-2147483648", "NaN", "-Infinity", "0x1p3", "1.5f", "12a", "Abies alba",
+                          "\u0661\u0662", "16777217", "9007199254740993", "1e22", "1e23"};
+        // and decimals of every length the exact path takes and beyond
+        Random random = new Random(42);
+        cells = Arrays.copyOf(cells, cells.length + 2000);
+        for (int i = cells.length - 2000; i < cells.length; i++)
+            cells[i] = new BigDecimal(BigInteger.valueOf(random.nextLong() >> random.nextInt(64)), random.nextInt(30) - 5)
+                    .toString();
+        StringBuilder csv = new StringBuilder("id,value\n");
+        for (int i = 0; i < cells.length; i++)
+            csv.append(i).append(",\"").append(cells[i]).append("\"\n");
+        CSVDict offHeap = new CSVDict(new BufferedReader(new StringReader(csv.toString())), ',', 0,
+                new LoadOptions().setStorage(LoadOptions.Storage.OFF_HEAP));
+        for (int i = 0; i < cells.length; i++) {
+            int row = offHeap.getRowId(String.valueOf(i));
+            assertEquals(cells[i], offHeap.getStringAt(row, 1));
+            assertEquals(cells[i], 0, Float.compare(Table.toFloat(cells[i]), offHeap.table.getFloat(row, 1)));
+            assertEquals(cells[i], 0, Double.compare(Table.toDouble(cells[i]), offHeap.table.getDouble(row, 1)));
+            assertEquals(cells[i], Table.toInteger(cells[i]), offHeap.table.getInteger(row, 1));
+            assertEquals(cells[i], Table.isNumber(cells[i]), offHeap.table.isNumeric(row, 1));
+        }
+        // the buffers are indexed by int
+        try {
+            OffHeapTable.allocate(Integer.MAX_VALUE + 1L);
+            fail("no buffer holds more than 2GB");
+        } catch (IllegalStateException e) {
+        }
+    }
+    public void testShortRows() throws Exception {
+        System.out.println("short rows");
+        File tmp = File.createTempFile("csvdict", ".csv");
+        tmp.deleteOnExit();
+        Writer w = new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8");
+        w.write("id,a,b\nx,1\ny,2,3\nz\n");
+        w.close();
+        for (LoadOptions.Storage storage : LoadOptions.Storage.values()) {
+            CSVDict dict = new CSVDict(tmp.getPath(), ',', 0, new LoadOptions().setStorage(storage));
+            assertEquals(storage.toString(), "", dict.getString("x", 2));
+            assertTrue(Float.isNaN(dict.getFloatValue("x", 2)));
+            assertFalse(dict.isNumeric("x", 2));
+            assertEquals("", dict.getString("z", 1));
+            assertEquals("3", dict.getString("y", 2));
+            assertTrue(Arrays.equals(new String[] {"", "3", ""}, dict.getColumn(2)));
+        }
+    }
 }
\ No newline at end of file
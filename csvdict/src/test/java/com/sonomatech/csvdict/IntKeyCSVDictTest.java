@@ -0,0 +1,214 @@
+/*
+Copyright (c) 2012, Sonoma Technology, Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without 
+modification, are permitted provided that the following conditions 
+are met:
+
+    * Redistributions of source code must retain the above copyright 
+      notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above copyright 
+      notice, this list of conditions and the following disclaimer in 
+      the documentation and/or other materials provided with the 
+      distribution.
+
+    * Neither the name of Sonoma Technology, Inc. nor the names of 
+      its contributors may be used to endorse or promote products 
+      derived from this software without specific prior written 
+      permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS 
+FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE 
+COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR 
+BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF 
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF 
+THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF 
+SUCH DAMAGE. 
+*/
+
+
+
+package com.sonomatech.csvdict;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.StringReader;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.BitSet;
+import junit.framework.TestCase;
+
+public class IntKeyCSVDictTest extends TestCase {
+
+    private IntKeyCSVDict speciesDict;
+
+    public IntKeyCSVDictTest() {
+        try {
+            speciesDict = new IntKeyCSVDict("species.csv", ',', 0, IntKeyCSVDictTest.class.getClassLoader());
+        } catch (Exception e) {
+            fail(e.getMessage());
+        }
+    }
+
+
+
+    public void testSparseKeys() throws Exception {
+        System.out.println("\n ***** IntKeyCSVDictTest Test*****");
+        System.out.println("sparse keys");
+        assertEquals("Platanus racemosa", speciesDict.getString(19022, 3));
+        assertEquals(0.5F, speciesDict.getFloat(19022, 4), 0.0F);
+        assertEquals(4, (int)speciesDict.getInteger(19022, 2));
+        try {
+            speciesDict.getString(-1, 3);
+            fail("no row has key -1");
+        } catch (CSVDict.CSVDictException e) {
+            assertTrue(e.getMessage().contains("-1"));
+        }
+    }
+
+    public void testDenseKeys() throws Exception {
+        System.out.println("dense keys");
+        StringBuilder csv = new StringBuilder("id,value\n");
+        for (int i = 100; i > 0; i -= 2)
+            csv.append(i).append(',').append(i / 10.0).append('\n');
+        IntKeyCSVDict dense = new IntKeyCSVDict(new BufferedReader(new StringReader(csv.toString())), ',', 0);
+        assertEquals(50, dense.getRowCount());
+        assertEquals(4.2F, dense.getFloat(42, 1), 0.0F);
+        assertEquals("100", dense.getString(100, 0));
+        try {
+            dense.getFloat(41, 1);
+            fail("odd keys aren't in the file");
+        } catch (CSVDict.CSVDictException e) {
+        }
+    }
+
+    public void testEveryKeyMustBeInt() throws Exception {
+        System.out.println("non-int key");
+        String csv = "id,value\n1,a\n2,b\nthree,c\n";
+        try {
+            new IntKeyCSVDict(new BufferedReader(new StringReader(csv)), ',', 0);
+            fail("the third key isn't an int");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    public void testKeysMustBeCanonical() throws Exception {
+        System.out.println("non-canonical int keys");
+        // each of these would collapse into the int key 7
+        for (String key : new String[] {"007", "+7", " 7"}) {
+            String csv = "id,value\n7,a\n" + key + ",b\n";
+            try {
+                new IntKeyCSVDict(new BufferedReader(new StringReader(csv)), ',', 0);
+                fail(key + " isn't how 7 is written");
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage().contains(key));
+            }
+        }
+        String csv = "id,value\n-7,a\n0,b\n";
+        IntKeyCSVDict dict = new IntKeyCSVDict(new BufferedReader(new StringReader(csv)), ',', 0);
+        assertEquals("a", dict.getString(-7, 1));
+    }
+
+    public void testPrimitiveValues() throws Exception {
+        System.out.println("primitive values");
+        assertEquals(speciesDict.getFloat(19022, 7), speciesDict.getFloatValue(19022, 7), 0.0F);
+        assertEquals(19022, speciesDict.getIntValue(19022, 0));
+        assertEquals((double)speciesDict.getFloat(19022, 4), speciesDict.getDoubleValue(19022, 4), 1e-6);
+    }
+
+    public void testRowAccess() throws Exception {
+        System.out.println("row access");
+        int row = speciesDict.getRowId(19022);
+        assertEquals("Platanus racemosa", speciesDict.getStringAt(row, 3));
+        assertEquals(19022, speciesDict.getIntValueAt(row, 0));
+        assertEquals(speciesDict.getFloatValue(19022, 7), speciesDict.getFloatValueAt(row, 7), 0.0F);
+        try {
+            speciesDict.getStringAt(speciesDict.getRowCount(), 0);
+            fail("there is no such row");
+        } catch (CSVDict.CSVDictException e) {
+        }
+    }
+
+    public void testEmbeddedSnapshot() throws Exception {
+        System.out.println("embedded snapshot");
+        File dir = File.createTempFile("csvdict", "");
+        dir.delete();
+        File resource = new File(dir, "Species.csvdict");
+        resource.getParentFile().mkdirs();
+        resource.deleteOnExit();
+        dir.deleteOnExit();
+        speciesDict.writeSnapshot(resource, ',');
+        ClassLoader cl = new URLClassLoader(new URL[] { dir.toURI().toURL() }, null);
+        IntKeyCSVDict embedded = IntKeyCSVDict.fromSnapshot("Species.csvdict", cl);
+        assertEquals(speciesDict.getRowCount(), embedded.getRowCount());
+        assertEquals("Platanus racemosa", embedded.getString(19022, 3));
+        assertEquals(speciesDict.getFloatValue(19022, 7), embedded.getFloatValue(19022, 7), 0.0F);
+        try {
+            IntKeyCSVDict.fromSnapshot("missing.csvdict", cl);
+            fail("there is no such resource");
+        } catch (CSVDict.CSVDictException e) {
+        }
+    }
+
+    public void testBatchLookups() throws Exception {
+        System.out.println("batch lookups");
+        int[] keys = {19022, -1, 506607};
+        float[] values = new float[keys.length];
+        BitSet missing = speciesDict.getFloats(keys, 4, values);
+        assertEquals(1, missing.cardinality());
+        assertTrue(missing.get(1));
+        assertEquals(0.5F, values[0], 0.0F);
+        assertTrue(Float.isNaN(values[1]));
+        assertEquals(0.33F, values[2], 0.0F);
+
+        float[][] columns = new float[2][keys.length];
+        speciesDict.getFloats(keys, new int[]{4, 7}, columns);
+        assertEquals(speciesDict.getFloatValue(506607, 7), columns[1][2], 0.0F);
+
+        // big enough to be split across threads
+        StringBuilder csv = new StringBuilder("id,value\n");
+        for (int i = 0; i < 50000; i++)
+            csv.append(i * 2).append(',').append(i).append('\n');
+        IntKeyCSVDict big = new IntKeyCSVDict(new BufferedReader(new StringReader(csv.toString())), ',', 0);
+        int[] many = new int[100000];
+        for (int i = 0; i < many.length; i++)
+            many[i] = i;
+        int[] ints = new int[many.length];
+        missing = big.getInts(many, 1, ints);
+        assertEquals(50000, missing.cardinality());
+        for (int i = 0; i < many.length; i++)
+            assertEquals(i % 2 == 0 ? i / 2 : Integer.MAX_VALUE, ints[i]);
+        assertEquals(missing.nextSetBit(0), 1);
+
+        String[] names = {"19022", "x"};
+        double[] doubles = new double[2];
+        missing = new CSVDict("species.csv", ',', 0, IntKeyCSVDictTest.class.getClassLoader())
+            .getDoubles(names, 4, doubles);
+        assertTrue(missing.get(1) && !missing.get(0));
+        assertEquals(0.5, doubles[0], 1e-6);
+        try {
+            speciesDict.getFloats(keys, 4, new float[2]);
+            fail("the output is too short");
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            speciesDict.getFloats(keys, new int[]{4, 7}, new float[1][keys.length]);
+            fail("the output has too few columns");
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            new CSVDict("species.csv", ',', 0, IntKeyCSVDictTest.class.getClassLoader())
+                .getFloats(names, new int[]{4, 7}, new float[1][names.length]);
+            fail("the output has too few columns");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,169 @@
+/*
+Copyright (c) 2012, Sonoma Technology, Inc.
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without 
+modification, are permitted provided that the following conditions 
+are met:
+
+    * Redistributions of source code must retain the above copyright 
+      notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above copyright 
+      notice, this list of conditions and the following disclaimer in 
+      the documentation and/or other materials provided with the 
+      distribution.
+
+    * Neither the name of Sonoma Technology, Inc. nor the names of 
+      its contributors may be used to endorse or promote products 
+      derived from this software without specific prior written 
+      permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS 
+FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE 
+COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, 
+INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR 
+BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF 
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF 
+THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF 
+SUCH DAMAGE. 
+*/
+
+
+
+package com.sonomatech.csvdict;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import junit.framework.TestCase;
+
+public class ReloadableCSVDictTest extends TestCase {
+
+    private File csv;
+
+    @Override
+    protected void setUp() throws Exception {
+        csv = File.createTempFile("csvdict", ".csv");
+        csv.deleteOnExit();
+        write("id,name,value\na,alpha,1.5\nb,beta,2.5\nc,gamma,3.5\n");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        csv.delete();
+    }
+
+    private void write(String text) throws Exception {
+        Writer w = new OutputStreamWriter(new FileOutputStream(csv), "UTF-8");
+        w.write(text);
+        w.close();
+    }
+
+
+
+    public void testPatchedReload() throws Exception {
+        System.out.println("\n ***** ReloadableCSVDictTest Test*****");
+        System.out.println("patched reload");
+        ReloadableCSVDict reloadable = new ReloadableCSVDict(csv.getPath(), ',', 0);
+        CSVDict before = reloadable.get();
+        before.createIndex("name");
+        assertFalse(reloadable.reload());
+        assertSame(before, reloadable.get());
+
+        write("id,name,value\na,alpha,1.5\nb,BETA,20.5\nc,gamma,3.5\n");
+        assertTrue(reloadable.reload());
+        CSVDict after = reloadable.get();
+        assertTrue(after.table instanceof PatchedTable);
+        // neither the loaded nor the reloaded dictionary keeps a second copy of the rows
+        assertNull(before.dict);
+        assertNull(after.dict);
+        assertEquals("BETA", reloadable.getString("b", 1));
+        assertEquals(20.5F, reloadable.getFloatValue("b", 2), 0.0F);
+        assertEquals(3.5, reloadable.getDoubleValue("c", 2), 0.0);
+        assertTrue(after.hasIndex("name"));
+        // readers holding the old dictionary still see the old cells
+        assertEquals("beta", before.getString("b", 1));
+        assertEquals(2.5F, before.getFloatValue("b", 2), 0.0F);
+
+        // a second patch replaces the first instead of stacking on it
+        write("id,name,value\na,ALPHA,1.5\nb,BETA,20.5\nc,gamma,3.5\n");
+        assertTrue(reloadable.reload());
+        assertEquals(2, ((PatchedTable)reloadable.get().table).patchedRows());
+        assertEquals("ALPHA", reloadable.getString("a", 1));
+    }
+
+    public void testFullReload() throws Exception {
+        System.out.println("full reload");
+        ReloadableCSVDict reloadable = new ReloadableCSVDict(csv.getPath(), ',', 0,
+                new LoadOptions().setStorage(LoadOptions.Storage.COLUMNAR));
+        write("id,name,value\na,alpha,1.5\nb,beta,2.5\nc,gamma,3.5\nd,delta,4.5\n");
+        assertTrue(reloadable.reload());
+        assertEquals(4, reloadable.getRowCount());
+        assertTrue(reloadable.get().table instanceof ColumnTable);
+        assertEquals("delta", reloadable.getString("d", 1));
+
+        // too many changed rows for a patch
+        reloadable.setMaxPatchedRows(1);
+        write("id,name,value\na,alpha,1\nb,beta,2\nc,gamma,3.5\nd,delta,4.5\n");
+        assertTrue(reloadable.reload());
+        assertTrue(reloadable.get().table instanceof ColumnTable);
+        assertEquals(2, reloadable.getIntValue("b", 2));
+
+        // a file that can't be loaded leaves the last dictionary in place
+        CSVDict last = reloadable.get();
+        write("");
+        try {
+            reloadable.reload();
+            fail("the file has no header row");
+        } catch (CSVDict.CSVDictException e) {
+        }
+        assertSame(last, reloadable.get());
+    }
+
+    public void testWatch() throws Exception {
+        System.out.println("watch");
+        ReloadableCSVDict reloadable = new ReloadableCSVDict(csv.getPath(), ',', 0);
+        reloadable.start();
+        try {
+            write("id,name,value\na,alpha,1.5\nb,beta,2.5\nc,gamma,30.5\n");
+            long deadline = System.currentTimeMillis() + 20000;
+            while (reloadable.getFloatValue("c", 2) != 30.5F && System.currentTimeMillis() < deadline)
+                Thread.sleep(50);
+            assertEquals(30.5F, reloadable.getFloatValue("c", 2), 0.0F);
+        } finally {
+            reloadable.close();
+        }
+    }
+
+    public void testReloadMetrics() throws Exception {
+        System.out.println("reload metrics");
+        ReloadableCSVDict reloadable = new ReloadableCSVDict(csv.getPath(), ',', 0,
+                new LoadOptions().setMetrics(true));
+        CSVDictMetrics metrics = reloadable.get().getMetrics();
+        reloadable.getString("a", 1);
+
+        // a patch
+        write("id,name,value\na,alpha,1.5\nb,BETA,2.5\nc,gamma,3.5\n");
+        assertTrue(reloadable.reload());
+        assertSame(metrics, reloadable.get().getMetrics());
+        assertEquals(1, metrics.getReloads());
+        assertEquals(reloadable.get().table.estimateBytes(), metrics.getRetainedBytes());
+
+        // a full load
+        write("id,name,value\na,alpha,1.5\nb,beta,2.5\nc,gamma,3.5\nd,delta,4.5\ne,epsilon,5.5\n");
+        assertTrue(reloadable.reload());
+        assertSame(metrics, reloadable.get().getMetrics());
+        assertEquals(2, metrics.getReloads());
+        assertEquals(5, metrics.getRowsParsed());
+        assertEquals(reloadable.get().table.estimateBytes(), metrics.getRetainedBytes());
+        reloadable.getString("e", 1);
+        assertEquals(2, metrics.getLookups());
+    }
+}
\ No newline at end of file